@@ -16,7 +16,7 @@ package rogue_opcode;
 
 import java.io.Serializable;
 
-import rogue_opcode.containers.Array;
+import rogue_opcode.containers.SlotMap;
 import android.util.Log;
 
 
@@ -26,7 +26,9 @@ import android.util.Log;
  * the processor at regular intervals.
  * <br /><br />
  * All extant ActionElements may be accessed through the static member {@code
- * sAllAEs}.
+ * sAllAEs}, or by handle through {@link #Lookup(long)}. Removal from
+ * {@code sAllAEs} swaps the last element into the hole, so update order isn't
+ * stable across {@link #Unload()}s.
  * <br /><br />
  * Example usage: extend this class to create a coconut factory which has no
  * graphical component, but still needs to determine on every game tick if it
@@ -36,13 +38,13 @@ public abstract class ActionElement implements Serializable
 {
 	private static final long serialVersionUID = 3959649135411049295L;
 
-	public static Array<ActionElement> sAllAEs;
+	public static SlotMap<ActionElement> sAllAEs;
 	static
 	{
 		try
 		{
 			if(sAllAEs == null)
-				sAllAEs = new Array<ActionElement>(128);
+				sAllAEs = new SlotMap<ActionElement>(128);
 		}
 		catch(Exception e)
 		{
@@ -53,9 +55,97 @@ public abstract class ActionElement implements Serializable
 	// only active items will have their update routine called
 	protected boolean mActive = true;
 
+	// UpdateScheduler placement; see UpdatePhase(int, boolean)
+	protected int mUpdatePhase;
+	protected boolean mParallel;
+
+	// registry handle, or SlotMap.NONE once unloaded
+	protected long mHandle;
+	protected int mGroup;
+
+	// Profiler scope for this class's updates; 0 until first profiled
+	protected transient int mProfileScope;
+
 	public ActionElement()
 	{
-		sAllAEs.Append(this);
+		mHandle = sAllAEs.Add(this);
+	}
+
+	/**
+	 * Looks up an element by handle. Unlike a reference, a handle won't keep
+	 * an unloaded element alive, or mistake a newer element for it.
+	 *
+	 * @param pHandle a handle from {@link #Handle()}.
+	 * @return the element, or {@code null} if it has been unloaded.
+	 */
+	public static ActionElement Lookup(long pHandle)
+	{
+		return sAllAEs.Get(pHandle);
+	}
+
+	/**
+	 * Unloads every element in a group, as for a level transition. This costs
+	 * one pass over the elements, however many go.
+	 *
+	 * @param pGroup group to unload; see {@link #Group(int)}.
+	 */
+	public static void UnloadGroup(int pGroup)
+	{
+		sAllAEs.Lock();
+		try
+		{
+			for(int i = 0; i < sAllAEs.size; i++)
+			{
+				ActionElement tAE = sAllAEs.At(i);
+				if(tAE.mGroup == pGroup && tAE.mHandle != SlotMap.NONE)
+					tAE.Unload();
+			}
+		}
+		finally
+		{
+			sAllAEs.Unlock();
+		}
+		if(!sAllAEs.Locked())
+			ScreenElement.sweep();
+	}
+
+	/**
+	 * Removes this element from the game for good. Safe to call from inside
+	 * an {@code Update()}; if elements are being iterated, the removal takes
+	 * effect at the end of the step, and until then this element is inactive.
+	 */
+	public void Unload()
+	{
+		if(sAllAEs.Remove(mHandle))
+			mActive = false;
+		mHandle = SlotMap.NONE;
+	}
+
+	/** @return {@code true} if this element hasn't been unloaded. */
+	public boolean Loaded()
+	{
+		return mHandle != SlotMap.NONE;
+	}
+
+	/** @return this element's handle; see {@link #Lookup(long)}. */
+	public long Handle()
+	{
+		return mHandle;
+	}
+
+	/**
+	 * Assigns this element to a group, for {@link #UnloadGroup(int)}.
+	 *
+	 * @param pGroup any tag; 0 by default.
+	 */
+	public void Group(int pGroup)
+	{
+		mGroup = pGroup;
+	}
+
+	public int Group()
+	{
+		return mGroup;
 	}
 
 	/** override in your derived class to do something exciting. */
@@ -63,6 +153,19 @@ public abstract class ActionElement implements Serializable
 	{
 	}
 
+	/** Runs {@link #Update()} under this class's {@link Profiler} scope. */
+	final void update_profiled()
+	{
+		long tStart = Profiler.Begin();
+		Update();
+		if(tStart != 0)
+		{
+			if(mProfileScope == 0)
+				mProfileScope = Profiler.ScopeFor(getClass());
+			Profiler.End(mProfileScope, tStart);
+		}
+	}
+
 	/** override in your derived class to do something exciting. */
 	public void Reset()
 	{
@@ -78,4 +181,34 @@ public abstract class ActionElement implements Serializable
 		return mActive;
 	}
 
+	/**
+	 * Sets when this element updates under an {@link UpdateScheduler}. Phases
+	 * run in ascending order, each finishing before the next starts. Parallel
+	 * elements in a phase update concurrently with each other, so their
+	 * {@code Update()} must only touch their own state; serial ones then run
+	 * one at a time on the update thread. Ignored when updates are serial.
+	 *
+	 * @param pPhase 0 to {@code UpdateScheduler.MAX_PHASES - 1}; defaults to
+	 *        0.
+	 * @param pParallel whether this element may update on a worker thread;
+	 *        defaults to {@code false}.
+	 */
+	public void UpdatePhase(int pPhase, boolean pParallel)
+	{
+		if(pPhase < 0 || pPhase >= UpdateScheduler.MAX_PHASES)
+			throw new IllegalArgumentException("Update phase out of range.");
+		mUpdatePhase = pPhase;
+		mParallel = pParallel;
+	}
+
+	public int UpdatePhase()
+	{
+		return mUpdatePhase;
+	}
+
+	public boolean Parallel()
+	{
+		return mParallel;
+	}
+
 }
@@ -14,6 +14,8 @@
 
 package rogue_opcode;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import rogue_opcode.geometrics.XYf;
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -22,6 +24,8 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -42,6 +46,8 @@ public class AnimatedView
 	// physical screen stuff
 	protected SurfaceHolder mHolder;
 	public static Canvas sCurrentCanvas;
+	public static float sAlpha;		// logic step interpolation for this frame
+	public static RenderSnapshot.Item sCurrentItem;	// entry being drawn
 	protected boolean mHasSurface = false;
 	protected int mScreenWidth, mScreenHeight;
 	protected boolean mSized = false;
@@ -59,14 +65,17 @@ public class AnimatedView
 	static XYf mScrollSpeed = new XYf(2, 2);
 	ScreenElement mKeepCenteredSE = null;
 
+	// visible area in canvas units; loopAndDrawSEs() culls against this
+	protected final RectF mViewport = new RectF();
+
 	// debug stats
 	public Paint mPaint;
 	public Paint mMaskPaint;			//Paint used with Porter-Duff Effects-hook drawing
 	public Paint mTransparentPaint;		//Paint used to clear out alpha channel pixels when using mMaskPaint
 	//TODO - standardize on when to use static member vars - should mDebugString1 be accessed via sOnly or directly as a static?
 	//either is fine but we should do it one way or another - or am I missing something here?
-	protected static int sFramesDrawn;
-	protected static boolean sDebug;
+	protected static final AtomicInteger sFramesDrawn = new AtomicInteger();
+	protected static volatile boolean sDebug;
 	public String mDebugString1;
 	public String mDebugString2;
 	
@@ -86,7 +95,7 @@ public class AnimatedView
 		// init debug stats
 		mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 		mPaint.setColor(Color.BLUE);
-		sFramesDrawn = 0;
+		sFramesDrawn.set(0);
 		sDebug = false;
 				
 		mDebugString1 = new String();
@@ -123,8 +132,8 @@ public class AnimatedView
 	
 	@Override
 	public boolean onKeyDown(int pKeyCode, KeyEvent pEvent)  {
-		GameProc.sOnly.mCurrentKey = pKeyCode;
-		GameProc.sOnly.mKeys[pKeyCode] = true;
+		GameProc.sOnly.mInput.PostKey(InputQueue.KEY_DOWN, pKeyCode,
+			pEvent.getEventTime());
 		
 		if (pKeyCode == KeyEvent.KEYCODE_BACK)
 			return false;
@@ -134,7 +143,8 @@ public class AnimatedView
 	
 	@Override
 	public boolean onKeyUp(int pKeyCode, KeyEvent pEvent)  {
-		GameProc.sOnly.mKeys[pKeyCode] = false;
+		GameProc.sOnly.mInput.PostKey(InputQueue.KEY_UP, pKeyCode,
+			pEvent.getEventTime());
 		
 		return true;
 	}
@@ -214,14 +224,15 @@ public class AnimatedView
 		}
 	}
 
+	/**
+	 * @return frames drawn since the last call; GameProc calls this once a
+	 *         second. For frame times, see {@link Profiler}.
+	 */
 	public int FPS()
 	{
-		synchronized(this)
-		{
-			int tFrames = sFramesDrawn;
-			sFramesDrawn = 0;
-			return tFrames;
-		}
+		// the render thread counts without taking our lock, so read and reset
+		// in one atomic step rather than losing frames drawn in between
+		return sFramesDrawn.getAndSet(0);
 	}
 
 	public boolean Debug()
@@ -268,32 +279,41 @@ public class AnimatedView
 					{
 					}
 				}
-				sFramesDrawn++;
 			}
 			draw();
+			sFramesDrawn.incrementAndGet();
+			Profiler tProfiler = Profiler.sOnly;
+			if(tProfiler != null)
+				tProfiler.EndFrame();
 		}
 		Log.d(GameProc.TAG, "Exiting render thread");
 	}
 
-	private void loopAndDrawSEs(boolean pTopmost) {
-		for(int i = 0; i < ScreenElement.sAllSEs.size; i++)
+	private void loopAndDrawSEs(RenderSnapshot pFrame, boolean pTopmost) {
+		RenderSnapshot.Item[] tItems = pFrame.mItems;
+		for(int i = 0; i < pFrame.mCount; i++)
 		{
-			ScreenElement tSE;
+			RenderSnapshot.Item tItem = tItems[i];
+			ScreenElement.sActiveSECount ++;
+			if(tItem.mTopmost != pTopmost)
+				continue;
+			if(!tItem.Intersects(mViewport))
+			{
+				ScreenElement.sCulledSECount++;
+				continue;
+			}
+			ScreenElement.sDrawnSECount++;
 			try
 			{
-				tSE = ScreenElement.sAllSEs.At(i);
-				if(tSE.Visible()) {
-					ScreenElement.sActiveSECount ++;
-					if ((pTopmost && tSE.Topmost()) || (!pTopmost && !tSE.Topmost()))
-						tSE.Draw();
-				}
+				sCurrentItem = tItem;
+				tItem.mSE.Draw();
 			}
 			catch(Exception e)
 			{
 				e.printStackTrace();
 			}
 		}
-		
+		sCurrentItem = null;
 	}
 	
 	/** draws all ScreenElements to the screen */
@@ -302,25 +322,31 @@ public class AnimatedView
 		Canvas tCanvas = mHolder.lockCanvas();
 		if(tCanvas == null)
 			return;
+		long tStart = Profiler.Begin();
 
+		RenderSnapshot tFrame = RenderSnapshot.Latest();
+		sAlpha = tFrame.Alpha(SystemClock.uptimeMillis());
 		ScreenElement.sActiveSECount = 0;			//performance monitor variable keeps track of visible count of SEs
 													//This is important because now we can unload graphics but unloading them
 													//does not stop the draw proc.
+		ScreenElement.sDrawnSECount = 0;
+		ScreenElement.sCulledSECount = 0;
 
 		// Draw the "keep-centered" graphic
 		// (You are not expected to understand this—I don't!)
-		if(mKeepCenteredSE != null)
+		float tCenterX = tFrame.mCenterX; // not the live element's mPos
+		if(!Float.isNaN(tCenterX))
 		{
-			if(((mKeepCenteredSE.mPos.x - (mLogicalWidth / 6)) + mBaseHScroll)
+			if(((tCenterX - (mLogicalWidth / 6)) + mBaseHScroll)
 					< (mLogicalWidth / 2))
 				mBaseHScroll += (mScrollSpeed.x * mPreScaler);
-			if(((mKeepCenteredSE.mPos.x + (mLogicalWidth / 6)) + mBaseHScroll)
+			if(((tCenterX + (mLogicalWidth / 6)) + mBaseHScroll)
 					> (mLogicalWidth / 2))
 				mBaseHScroll -= (mScrollSpeed.x * mPreScaler);
-			if(((mKeepCenteredSE.mPos.x - (mLogicalWidth / 6)) + mBaseHScroll)
+			if(((tCenterX - (mLogicalWidth / 6)) + mBaseHScroll)
 					< (mLogicalWidth / 2))
 				mBaseHScroll += (mScrollSpeed.x * mPreScaler);
-			if(((mKeepCenteredSE.mPos.x + (mLogicalWidth / 6)) + mBaseHScroll)
+			if(((tCenterX + (mLogicalWidth / 6)) + mBaseHScroll)
 					> (mLogicalWidth / 2))
 				mBaseHScroll -= (mScrollSpeed.x * mPreScaler);
 
@@ -339,17 +365,19 @@ public class AnimatedView
 			sCurrentCanvas = tCanvas;
 		}
 		
+		// XXX: mBaseHScroll isn't applied to draw positions yet; once it is,
+		// offset the viewport by it here
+		mViewport.set(0, 0, tCanvas.getWidth(), tCanvas.getHeight());
+
 		tCanvas.drawRGB(0, 0, 0); // TODO: parameterize whether to do this
-		ScreenElement.sAllSEs.mDirty = true;
-		ScreenElement.sAllSEs.SortIfDirty();
-		loopAndDrawSEs(false);
+		loopAndDrawSEs(tFrame, false);
 		
 		if (mEffectsEnabled) {
 			sCurrentCanvas = tCanvas;
 			
 			tCanvas.drawBitmap(mEffectsHookBitmap, 0, 0, null);
 
-			loopAndDrawSEs(true);
+			loopAndDrawSEs(tFrame, true);
 			
 			tCanvas.drawBitmap(mEffectsHookBitmap, 0, 0, mMaskPaint);
 		}
@@ -362,10 +390,18 @@ public class AnimatedView
 			sCurrentCanvas.drawText("#1:  " + mDebugString1, 10, 34, mPaint);
 			sCurrentCanvas.drawText("#2:  " + mDebugString2, 10, 46, mPaint);
 			sCurrentCanvas.drawText(GameProc.sOnly.mTouchState.GetMainX() + ", " + GameProc.sOnly.mTouchState.GetMainY(), 10, 58, mPaint);
+			sCurrentCanvas.drawText("SEs:  " + ScreenElement.sDrawnSECount + " drawn, " + ScreenElement.sCulledSECount + " culled", 10, 70, mPaint);
+			sCurrentCanvas.drawText("GRs:  " + (GraphicResource.sUsedBytes >> 10) + "/" + (GraphicResource.sBudgetBytes >> 10) + "K, " + GraphicResource.sHits + " hits, " + GraphicResource.sMisses + " misses, " + GraphicResource.sEvictions + " evictions", 10, 82, mPaint);
 		}
 
+		// frame graph
+		Profiler tProfiler = Profiler.sOnly;
+		if(tProfiler != null && tProfiler.HUD())
+			tProfiler.DrawHUD(tCanvas);
+
 		sCurrentCanvas = null;
 		mHolder.unlockCanvasAndPost(tCanvas);
+		Profiler.End(Profiler.DRAW, tStart);
 	}
 
 	// screen update callbacks /////////////////////////////////////////////////
@@ -14,8 +14,7 @@
 
 package rogue_opcode;
 
-import java.util.HashMap;
-
+import rogue_opcode.containers.IntObjectMap;
 import rogue_opcode.soundy.FXR;
 import rogue_opcode.soundy.MusicTrack;
 import rogue_opcode.soundy.SoundEffect;
@@ -30,13 +29,12 @@ import rogue_opcode.soundy.Soundy;
 public abstract class AudioResource
 {
 	/**
-	 * Maps {@code resource} IDs to {@code AudioResource}s. <b>Note: This may
-	 * be inefficient with memory for some operations; use carefully!</b>
+	 * Maps {@code resource} IDs to {@code AudioResource}s.
 	 */
-	public static HashMap<Integer, AudioResource> sAllARs;
+	public static IntObjectMap<AudioResource> sAllARs;
 	static
 	{
-		sAllARs = new HashMap<Integer, AudioResource>();
+		sAllARs = new IntObjectMap<AudioResource>();
 	}
 
 	protected int mResID;
@@ -116,7 +114,7 @@ public abstract class AudioResource
 
 	protected AudioResource(int pResID)
 	{
-		sAllARs.put(pResID, this);
+		sAllARs.Put(pResID, this);
 		mResID = pResID;
 		mGain = 0.5f;
 		mPan = 0.0f;
@@ -127,9 +125,11 @@ public abstract class AudioResource
 	public static void Die()
 	{
 		// we are shutting down, so we don't care about performance too much
-		for(AudioResource tAR : sAllARs.values())
+		Object[] tAll = sAllARs.values;
+		for(int i = 0; i < tAll.length; i++)
 		{
-			tAR.die();
+			if(tAll[i] != null)
+				((AudioResource)tAll[i]).die();
 		}
 	}
 
@@ -188,6 +188,6 @@ public abstract class AudioResource
 	 */
 	public static AudioResource FindByResID(int pResID)
 	{
-		return sAllARs.get(pResID);
+		return sAllARs.Get(pResID);
 	}
 }
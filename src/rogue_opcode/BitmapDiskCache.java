@@ -0,0 +1,306 @@
+// BitmapDiskCache.java
+// Persists prescaled GraphicResource pixels between launches.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.util.Log;
+
+
+/**
+ * Keeps already-decoded, already-scaled image pixels in raw files under the
+ * app's cache directory, so later launches skip PNG decoding and filtering and
+ * just map the pixels straight into a {@code Bitmap}.
+ * <br /><br />
+ * Each file is named for its resource and the {@code mPreScaler} it was
+ * scaled with, and records the source's timestamp (the APK's, for resources;
+ * the file's, for images loaded from disk). Any mismatch is a miss, and the
+ * entry is rewritten after the normal decode. Android is free to delete cache
+ * files, which just means another decode. A file that turns out to be corrupt
+ * is deleted and counts as a miss, and entries that can never hit again, for
+ * an old APK or another {@code mPreScaler}, are deleted at startup.
+ * <br /><br />
+ * Safe to call from the loader threads; each entry is written to a temporary
+ * file and renamed into place.
+ */
+public class BitmapDiskCache
+{
+	/** Set {@code false} to always decode from the source image. */
+	public static boolean sEnabled = true;
+
+	protected static final int MAGIC = 0x524f4243;	// "ROBC"
+	protected static final int VERSION = 1;
+	protected static final int HEADER_SIZE = 40;
+
+	protected static File sDir;
+	protected static long sApkStamp;
+
+	// lookups /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Loads a cached image resource.
+	 *
+	 * @param pResourceID the image's resource ID.
+	 * @param oBaseSize if not {@code null}, receives the unscaled size.
+	 * @return the cached image, or {@code null} on a miss.
+	 */
+	static Bitmap Get(int pResourceID, Point oBaseSize)
+	{
+		if(!sEnabled || !init())
+			return null;
+		return read(entry("r", pResourceID), sApkStamp, oBaseSize);
+	}
+
+	/**
+	 * Loads a cached image file.
+	 *
+	 * @param pFilePath path of the source image.
+	 * @param oBaseSize if not {@code null}, receives the unscaled size.
+	 * @return the cached image, or {@code null} on a miss.
+	 */
+	static Bitmap Get(String pFilePath, Point oBaseSize)
+	{
+		if(!sEnabled || !init())
+			return null;
+		return read(entry("f", pFilePath.hashCode()),
+			new File(pFilePath).lastModified(), oBaseSize);
+	}
+
+	/** Stores a decoded, scaled image resource. */
+	static void Put(int pResourceID, Bitmap pImage, Point pBaseSize)
+	{
+		if(sEnabled && init())
+			write(entry("r", pResourceID), sApkStamp, pImage, pBaseSize);
+	}
+
+	/** Stores a decoded, scaled image file. */
+	static void Put(String pFilePath, Bitmap pImage, Point pBaseSize)
+	{
+		if(sEnabled && init())
+			write(entry("f", pFilePath.hashCode()),
+				new File(pFilePath).lastModified(), pImage, pBaseSize);
+	}
+
+	/** Deletes every cached image. */
+	public static void Clear()
+	{
+		if(!init())
+			return;
+		File[] tFiles = sDir.listFiles();
+		if(tFiles != null)
+			for(int i = 0; i < tFiles.length; i++)
+				tFiles[i].delete();
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	protected static synchronized boolean init()
+	{
+		if(sDir != null)
+			return true;
+		try
+		{
+			File tDir = new File(GameProc.sOnly.getCacheDir(), "bitmaps");
+			if(!tDir.isDirectory() && !tDir.mkdirs())
+				return false;
+			sApkStamp = new File(
+				GameProc.sOnly.getApplicationInfo().sourceDir).lastModified();
+			prune(tDir, sApkStamp);
+			sDir = tDir;
+			return true;
+		}
+		catch(Exception e)
+		{
+			Log.d(GameProc.TAG, "BitmapDiskCache.init()", e);
+			return false;
+		}
+	}
+
+	protected static File entry(String pKind, int pID)
+	{
+		int tScaleBits = Float.floatToIntBits(AnimatedView.sOnly.mPreScaler);
+		return new File(sDir, pKind + Integer.toHexString(pID) + "-" +
+			Integer.toHexString(tScaleBits) + ".raw");
+	}
+
+	protected static Bitmap read(File pFile, long pStamp, Point oBaseSize)
+	{
+		if(!pFile.isFile())
+			return null;
+		RandomAccessFile tFile = null;
+		try
+		{
+			tFile = new RandomAccessFile(pFile, "r");
+			FileChannel tChannel = tFile.getChannel();
+			MappedByteBuffer tMap = tChannel.map(
+				FileChannel.MapMode.READ_ONLY, 0, tChannel.size());
+			tMap.order(ByteOrder.nativeOrder());
+
+			if(tMap.getInt() != MAGIC || tMap.getInt() != VERSION ||
+				tMap.getLong() != pStamp)
+				return null;
+			int tWidth = tMap.getInt();
+			int tHeight = tMap.getInt();
+			int tBaseWidth = tMap.getInt();
+			int tBaseHeight = tMap.getInt();
+			int tConfig = tMap.getInt();
+			int tRowBytes = tMap.getInt();
+			Bitmap.Config[] tConfigs = Bitmap.Config.values();
+			if(tConfig < 0 || tConfig >= tConfigs.length ||
+				tMap.remaining() != (long)tRowBytes * tHeight)
+				return null;
+
+			Bitmap tImage = Bitmap.createBitmap(tWidth, tHeight,
+				tConfigs[tConfig]);
+			if(tImage.getRowBytes() != tRowBytes)
+			{
+				tImage.recycle();
+				return null;
+			}
+			tImage.copyPixelsFromBuffer(tMap);
+			if(oBaseSize != null)
+				oBaseSize.set(tBaseWidth, tBaseHeight);
+			return tImage;
+		}
+		catch(IOException e)
+		{
+			Log.d(GameProc.TAG, "BitmapDiskCache.read()", e);
+			return null;
+		}
+		catch(RuntimeException e)
+		{
+			// truncated or garbled; a miss, and don't trip over it again
+			Log.d(GameProc.TAG, "BitmapDiskCache.read()", e);
+			pFile.delete();
+			return null;
+		}
+		finally
+		{
+			close(tFile);
+		}
+	}
+
+	protected static void write(File pFile, long pStamp, Bitmap pImage,
+		Point pBaseSize)
+	{
+		Bitmap.Config tConfig = pImage.getConfig();
+		if(tConfig == null)
+			return;
+		long tPixelBytes = (long)pImage.getRowBytes() * pImage.getHeight();
+		File tTemp = new File(pFile.getPath() + "." +
+			Thread.currentThread().getId());
+		RandomAccessFile tFile = null;
+		try
+		{
+			tFile = new RandomAccessFile(tTemp, "rw");
+			tFile.setLength(HEADER_SIZE + tPixelBytes);
+			MappedByteBuffer tMap = tFile.getChannel().map(
+				FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + tPixelBytes);
+			tMap.order(ByteOrder.nativeOrder());
+			tMap.putInt(MAGIC);
+			tMap.putInt(VERSION);
+			tMap.putLong(pStamp);
+			tMap.putInt(pImage.getWidth());
+			tMap.putInt(pImage.getHeight());
+			tMap.putInt(pBaseSize.x);
+			tMap.putInt(pBaseSize.y);
+			tMap.putInt(tConfig.ordinal());
+			tMap.putInt(pImage.getRowBytes());
+			pImage.copyPixelsToBuffer(tMap);
+			tMap.force();
+			close(tFile);
+			tFile = null;
+			if(!tTemp.renameTo(pFile))
+				tTemp.delete();
+		}
+		catch(IOException e)
+		{
+			Log.d(GameProc.TAG, "BitmapDiskCache.write()", e);
+			tTemp.delete();
+		}
+		finally
+		{
+			close(tFile);
+		}
+	}
+
+	/**
+	 * Deletes entries that can never hit again: those scaled with another
+	 * {@code mPreScaler}, resources stamped by another APK, and temporary
+	 * files left by an interrupted write. Called before any lookups, so no
+	 * write can be under way.
+	 */
+	protected static void prune(File pDir, long pApkStamp)
+	{
+		File[] tFiles = pDir.listFiles();
+		if(tFiles == null || AnimatedView.sOnly == null)
+			return;
+		String tSuffix = "-" + Integer.toHexString(
+			Float.floatToIntBits(AnimatedView.sOnly.mPreScaler)) + ".raw";
+		for(int i = 0; i < tFiles.length; i++)
+		{
+			String tName = tFiles[i].getName();
+			if(!tName.endsWith(tSuffix) ||
+				(tName.startsWith("r") && stamp(tFiles[i]) != pApkStamp))
+				tFiles[i].delete();
+		}
+	}
+
+	/** @return an entry's source timestamp, or -1 if it has no valid header. */
+	protected static long stamp(File pFile)
+	{
+		RandomAccessFile tFile = null;
+		try
+		{
+			tFile = new RandomAccessFile(pFile, "r");
+			byte[] tHeader = new byte[16];
+			tFile.readFully(tHeader);
+			ByteBuffer tIn = ByteBuffer.wrap(tHeader).order(
+				ByteOrder.nativeOrder());
+			if(tIn.getInt() != MAGIC || tIn.getInt() != VERSION)
+				return -1;
+			return tIn.getLong();
+		}
+		catch(IOException e)
+		{
+			return -1;
+		}
+		finally
+		{
+			close(tFile);
+		}
+	}
+
+	private static void close(RandomAccessFile pFile)
+	{
+		if(pFile == null)
+			return;
+		try
+		{
+			pFile.close();
+		}
+		catch(IOException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,127 @@
+// BitmapLoader.java
+// Background thread pool that decodes GraphicResource images.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+
+
+/**
+ * Decodes and prescales {@link GraphicResource} images on a small pool of
+ * background-priority threads, so neither the update nor the render thread
+ * ever blocks on {@code BitmapFactory}. Jobs run highest priority first, and
+ * in request order within a priority.
+ * <br /><br />
+ * Don't use this directly; call {@link GraphicResource#LoadAsync(int, int)} or
+ * {@link GraphicResource#Prefetch(int[])}, and poll the returned GR.
+ */
+class BitmapLoader
+{
+	protected static final ThreadPoolExecutor sPool;
+	protected static final AtomicLong sSequence = new AtomicLong();
+	protected static final AtomicInteger sPending = new AtomicInteger();
+
+	static
+	{
+		// leave a core for the update and render threads when we can
+		int tThreads = Runtime.getRuntime().availableProcessors() - 1;
+		tThreads = Math.max(1, Math.min(tThreads, 2));
+		sPool = new ThreadPoolExecutor(tThreads, tThreads, 0,
+			TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+			new ThreadFactory()
+			{
+				private int mCount;
+
+				@Override
+				public Thread newThread(final Runnable pJob)
+				{
+					Thread tThread = new Thread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							Process.setThreadPriority(
+								Process.THREAD_PRIORITY_BACKGROUND);
+							pJob.run();
+						}
+					}, "BitmapLoader-" + mCount++);
+					tThread.setDaemon(true);
+					return tThread;
+				}
+			});
+	}
+
+	/**
+	 * Queues a GR for decoding. The GR must already be in the
+	 * {@code LOADING} state.
+	 *
+	 * @param pGR resource to decode.
+	 * @param pPriority higher runs sooner.
+	 */
+	static void Queue(GraphicResource pGR, int pPriority)
+	{
+		sPending.incrementAndGet();
+		sPool.execute(new Job(pGR, pPriority));
+	}
+
+	/** @return loads queued or in progress. */
+	static int Pending()
+	{
+		return sPending.get();
+	}
+
+	/** One queued decode. */
+	protected static class Job implements Runnable, Comparable<Job>
+	{
+		final GraphicResource mGR;
+		final int mPriority;
+		final long mSequence;
+
+		Job(GraphicResource pGR, int pPriority)
+		{
+			mGR = pGR;
+			mPriority = pPriority;
+			mSequence = sSequence.getAndIncrement();
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				mGR.decode_async();
+			}
+			finally
+			{
+				sPending.decrementAndGet();
+			}
+		}
+
+		@Override
+		public int compareTo(Job pOther)
+		{
+			if(mPriority != pOther.mPriority)
+				return (mPriority > pOther.mPriority) ? -1 : 1;
+			return (mSequence < pOther.mSequence) ? -1 :
+				((mSequence == pOther.mSequence) ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,281 @@
+// EntityStore.java
+// Structure-of-arrays storage for ScreenElement motion state.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+
+/**
+ * {@code EntityStore} keeps the motion state of many {@link ScreenElement}s in
+ * parallel primitive arrays, one slot per element, so that bulk systems like
+ * velocity integration can run as tight loops over contiguous memory instead
+ * of a virtual {@code Update()} per object.
+ * <br /><br />
+ * The store is opt-in. Construct one to make it {@link #sOnly}, then
+ * {@link #Attach(ScreenElement)} the elements you want it to manage. An
+ * attached element becomes a handle onto its slot: {@code Pos()},
+ * {@code Warp()}, {@code ZDepth()}, {@code Visible()}, {@code Active()} and
+ * {@link Steering} write through to the arrays, and after each step the store
+ * mirrors positions back into {@code mPos}/{@code mVel} so drawing and
+ * everything else that reads those keeps working. Writing an attached
+ * element's {@code mPos} or {@code mVel} directly works too: each step starts
+ * by gathering those fields into the arrays, so the arrays only lag behind
+ * such writes until the next step. Call {@link #Pull(ScreenElement)} if you
+ * need them current sooner.
+ * <br /><br />
+ * Slots stay packed: detaching an element moves the last slot into the hole,
+ * so every loop runs over {@code [0, Count())}.
+ */
+public class EntityStore
+{
+	/** The active store, or {@code null} if none. */
+	public static EntityStore sOnly;
+
+	// per-slot state
+	public float[] mX, mY, mZ;
+	public float[] mVX, mVY, mVZ;
+	public boolean[] mVisible;
+	public boolean[] mActive;
+	public boolean[] mSelfGuided;	// maintained by Steering
+	public boolean[] mIntegrate;	// add velocity to position each step
+	public ScreenElement[] mOwners;
+
+	protected int mCount;
+
+	// c'tors //////////////////////////////////////////////////////////////////
+
+	public EntityStore()
+	{
+		this(256);
+	}
+
+	/**
+	 * Constructs a store and makes it the active one.
+	 *
+	 * @param pCapacity initial slot count; grows as needed.
+	 */
+	public EntityStore(int pCapacity)
+	{
+		allocate(Math.max(pCapacity, 1));
+		sOnly = this;
+	}
+
+	// membership //////////////////////////////////////////////////////////////
+
+	/**
+	 * Moves an element's motion state into the store. Its current position,
+	 * velocity, visibility and activity are copied in.
+	 *
+	 * @param pSE element to manage.
+	 * @return the element's slot.
+	 */
+	public int Attach(ScreenElement pSE)
+	{
+		if(pSE.mStore == this)
+			return pSE.mSlot;
+		if(pSE.mStore != null)
+			pSE.mStore.Detach(pSE);
+
+		if(mCount == mX.length)
+			grow(mCount * 2);
+		int tSlot = mCount++;
+		mOwners[tSlot] = pSE;
+		pSE.mStore = this;
+		pSE.mSlot = tSlot;
+		mIntegrate[tSlot] = false;	// opt in per element; not inherited
+		Pull(pSE);
+		return tSlot;
+	}
+
+	/**
+	 * Hands an element's state back to its own fields and frees its slot.
+	 *
+	 * @param pSE element to release.
+	 */
+	public void Detach(ScreenElement pSE)
+	{
+		if(pSE.mStore != this)
+			return;
+		int tSlot = pSE.mSlot;
+		mirror(tSlot);
+		pSE.mStore = null;
+		pSE.mSlot = -1;
+
+		int tLast = --mCount;
+		if(tSlot != tLast)
+			move(tLast, tSlot);
+		mOwners[tLast] = null;
+	}
+
+	/**
+	 * Re-reads an attached element's fields into its slot. {@link #Step()}
+	 * gathers positions and velocities anyway; call this after writing
+	 * {@code mPos} or {@code mVel} directly only if something needs the
+	 * arrays current before then.
+	 *
+	 * @param pSE an attached element.
+	 */
+	public void Pull(ScreenElement pSE)
+	{
+		int i = pSE.mSlot;
+		mX[i] = pSE.mPos.x;
+		mY[i] = pSE.mPos.y;
+		mZ[i] = pSE.mPos.z;
+		mVX[i] = pSE.mVel.x;
+		mVY[i] = pSE.mVel.y;
+		mVZ[i] = pSE.mVel.z;
+		mSelfGuided[i] = pSE.mSelfGuided;
+		mVisible[i] = pSE.mVisible;
+		mActive[i] = pSE.mActive;
+	}
+
+	/** @return the number of occupied slots. */
+	public int Count()
+	{
+		return mCount;
+	}
+
+	// systems /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Runs one logic step's worth of bulk systems: gathering the elements'
+	 * fields, integration, then mirroring back into the elements. GameProc calls this after
+	 * {@link Steering#Advance()} and before {@code ActionElement} updates.
+	 */
+	public void Step()
+	{
+		Gather();
+		Integrate();
+		Mirror();
+	}
+
+	/**
+	 * Copies every element's position and velocity into its slot, so direct
+	 * writes to {@code mPos} and {@code mVel} since the last step aren't
+	 * lost.
+	 */
+	public void Gather()
+	{
+		ScreenElement[] tOwners = mOwners;
+		float[] tX = mX, tY = mY, tZ = mZ, tVX = mVX, tVY = mVY, tVZ = mVZ;
+		for(int i = 0; i < mCount; i++)
+		{
+			ScreenElement tSE = tOwners[i];
+			tX[i] = tSE.mPos.x;
+			tY[i] = tSE.mPos.y;
+			tZ[i] = tSE.mPos.z;
+			tVX[i] = tSE.mVel.x;
+			tVY[i] = tSE.mVel.y;
+			tVZ[i] = tSE.mVel.z;
+		}
+	}
+
+	/**
+	 * Adds velocity to position for every active slot that has opted in with
+	 * {@code mIntegrate}. Self-guided slots are left to {@link Steering}.
+	 */
+	public void Integrate()
+	{
+		float[] tX = mX, tY = mY, tZ = mZ, tVX = mVX, tVY = mVY, tVZ = mVZ;
+		boolean[] tIntegrate = mIntegrate, tGuided = mSelfGuided;
+		boolean[] tActive = mActive;
+		boolean tZMoved = false;
+		for(int i = 0; i < mCount; i++)
+		{
+			if(!tIntegrate[i] || tGuided[i] || !tActive[i])
+				continue;
+			tX[i] += tVX[i];
+			tY[i] += tVY[i];
+			if(tVZ[i] != 0)
+			{
+				tZ[i] += tVZ[i];
+				tZMoved = true;
+			}
+		}
+		if(tZMoved)
+			ScreenElement.sAllSEs.mDirty = true;
+	}
+
+	/** Copies every slot's position and velocity back to its element. */
+	public void Mirror()
+	{
+		for(int i = 0; i < mCount; i++)
+			mirror(i);
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	protected void mirror(int i)
+	{
+		ScreenElement tSE = mOwners[i];
+		tSE.mPos.x = mX[i];
+		tSE.mPos.y = mY[i];
+		tSE.mPos.z = mZ[i];
+		tSE.mVel.x = mVX[i];
+		tSE.mVel.y = mVY[i];
+		tSE.mVel.z = mVZ[i];
+	}
+
+	protected void move(int pFrom, int pTo)
+	{
+		mX[pTo] = mX[pFrom];
+		mY[pTo] = mY[pFrom];
+		mZ[pTo] = mZ[pFrom];
+		mVX[pTo] = mVX[pFrom];
+		mVY[pTo] = mVY[pFrom];
+		mVZ[pTo] = mVZ[pFrom];
+		mVisible[pTo] = mVisible[pFrom];
+		mActive[pTo] = mActive[pFrom];
+		mSelfGuided[pTo] = mSelfGuided[pFrom];
+		mIntegrate[pTo] = mIntegrate[pFrom];
+		mOwners[pTo] = mOwners[pFrom];
+		mOwners[pTo].mSlot = pTo;
+	}
+
+	protected void allocate(int pCapacity)
+	{
+		mX = new float[pCapacity];
+		mY = new float[pCapacity];
+		mZ = new float[pCapacity];
+		mVX = new float[pCapacity];
+		mVY = new float[pCapacity];
+		mVZ = new float[pCapacity];
+		mVisible = new boolean[pCapacity];
+		mActive = new boolean[pCapacity];
+		mSelfGuided = new boolean[pCapacity];
+		mIntegrate = new boolean[pCapacity];
+		mOwners = new ScreenElement[pCapacity];
+	}
+
+	protected void grow(int pCapacity)
+	{
+		float[] tX = mX, tY = mY, tZ = mZ, tVX = mVX, tVY = mVY, tVZ = mVZ;
+		boolean[] tVisible = mVisible, tActive = mActive;
+		boolean[] tGuided = mSelfGuided, tIntegrate = mIntegrate;
+		ScreenElement[] tOwners = mOwners;
+
+		allocate(pCapacity);
+		int n = mCount;
+		System.arraycopy(tX, 0, mX, 0, n);
+		System.arraycopy(tY, 0, mY, 0, n);
+		System.arraycopy(tZ, 0, mZ, 0, n);
+		System.arraycopy(tVX, 0, mVX, 0, n);
+		System.arraycopy(tVY, 0, mVY, 0, n);
+		System.arraycopy(tVZ, 0, mVZ, 0, n);
+		System.arraycopy(tVisible, 0, mVisible, 0, n);
+		System.arraycopy(tActive, 0, mActive, 0, n);
+		System.arraycopy(tGuided, 0, mSelfGuided, 0, n);
+		System.arraycopy(tIntegrate, 0, mIntegrate, 0, n);
+		System.arraycopy(tOwners, 0, mOwners, 0, n);
+	}
+}
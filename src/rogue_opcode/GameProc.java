@@ -19,6 +19,7 @@ package rogue_opcode;
 // import com.ngc.MGEPCT.BaG;
 
 import rogue_opcode.geometrics.XYf;
+import rogue_opcode.soundy.Mixer;
 import rogue_opcode.soundy.SoundEffect;
 import android.app.Activity;
 import android.content.Context;
@@ -56,6 +57,7 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 {
 	public static final long UPDATE_FREQ = 30;
 	public static final long UPDATE_PERIOD = 1000 / UPDATE_FREQ;
+	public static final int MAX_CATCHUP_STEPS = 5;
 	public static final String TAG = "ionoclast";
 
 	public static GameProc sOnly;
@@ -63,6 +65,10 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 
 	public RelativeLayout mLayout;
 
+	// fixed-step scheduling
+	protected static long sUpdatePeriod = UPDATE_PERIOD;
+	protected static int sMaxCatchUpSteps = MAX_CATCHUP_STEPS;
+
 	// stats
 	protected long mElapsedTime;
 	protected static int sSeconds;
@@ -73,9 +79,10 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 
 	private GestureDetector mMotionDetector;
 	public TouchState mTouchState;
+	public InputQueue mInput;	// this step's raw input events
 
 	int mCurrentKey;
-	public boolean[] mKeys; //holds the state of the keys on the keyboard
+	public boolean[] mKeys; //holds the state of the keys on the keyboard; update thread only
 
 	protected boolean mRunning;
 	protected boolean mRestarting;
@@ -155,6 +162,7 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 
 		// user-provided init code
 		mMotionDetector = new GestureDetector(this, this);
+		mInput = new InputQueue(256);
 		mTouchState = new TouchState();
 
 		InitializeOnce();
@@ -228,6 +236,7 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 		Die();
 		AnimatedView.sOnly.Die();
 		AudioResource.Die(); // stop and free all audio resources
+		Mixer.Stop(); // stop the synth thread and close its sink
 		SoundEffect.Die(); // free the sound pool
 
 		// clean some up now to avoid latency later
@@ -274,35 +283,49 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 
 	// game update loop ////////////////////////////////////////////////////////
 
-	/** Thread to run logic updates */
+	/**
+	 * Thread to run logic updates. Logic always advances in steps of exactly
+	 * {@link #UpdatePeriod()} milliseconds; real time is banked in an
+	 * accumulator and paid out in whole steps, so a slow {@code Update()}
+	 * costs us smoothness rather than game speed. Whatever is left over goes
+	 * out with the {@link RenderSnapshot}, which works out from it how far to
+	 * blend each frame it draws.
+	 */
 	@Override
 	public void run()
 	{
 		Log.d(TAG, "Entering update thread");
 		mRunning = true;
+		long tPrevious = SystemClock.uptimeMillis();
+		long tAccumulator = sUpdatePeriod; // step once right away
 		while(mRunning)
 		{
-			long start = SystemClock.uptimeMillis();
-
-			// calc stats
-			if(mElapsedTime >= 999)
+			long tPeriod = sUpdatePeriod;
+			long tNow = SystemClock.uptimeMillis();
+			tAccumulator += tNow - tPrevious;
+			tPrevious = tNow;
+
+			// Never owe more than sMaxCatchUpSteps; after a long hitch we drop
+			// the excess rather than spiral trying to simulate our way out.
+			long tMaxDebt = tPeriod * sMaxCatchUpSteps;
+			if(tAccumulator > tMaxDebt)
+				tAccumulator = tMaxDebt;
+
+			boolean tStepped = false;
+			while(tAccumulator >= tPeriod)
 			{
-				synchronized(this)
-				{
-					sSeconds++;
-					mElapsedTime -= 1000;
-					sFPS = AnimatedView.sOnly.FPS();
-				}
+				step();
+				tAccumulator -= tPeriod;
+				tStepped = true;
 			}
 
-			Update();
+			// hand the render thread a consistent copy of the new state
+			if(tStepped)
+				RenderSnapshot.Publish(tAccumulator, tPeriod);
 
-			long end = SystemClock.uptimeMillis();
-			long tLastUpdate = end - start;
-			mElapsedTime += UPDATE_PERIOD;
 			try
 			{
-				long tSleep = UPDATE_PERIOD - tLastUpdate;
+				long tSleep = tPeriod - tAccumulator;
 				if(tSleep < 1)
 					tSleep = 1;
 				Thread.sleep(tSleep);
@@ -314,19 +337,95 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 		Log.d(TAG, "Exiting update thread");
 	}
 
+	/** Runs exactly one fixed logic step. */
+	protected void step()
+	{
+		// calc stats
+		if(mElapsedTime >= 999)
+		{
+			synchronized(this)
+			{
+				sSeconds++;
+				mElapsedTime -= 1000;
+				sFPS = AnimatedView.sOnly.FPS();
+			}
+		}
+
+		ScreenElement.SaveLastPositions();
+		Update();
+		mElapsedTime += sUpdatePeriod;
+	}
+
+	// fixed-step properties //
+
+	/**
+	 * Sets the fixed rate at which logic updates run. Rendering is unaffected;
+	 * it interpolates between the last two logic steps.
+	 *
+	 * @param pHz logic updates per second.
+	 */
+	public static void UpdateRate(int pHz)
+	{
+		if(pHz < 1)
+			pHz = 1;
+		sUpdatePeriod = 1000 / pHz;
+	}
+
+	/** @return the length of one logic step, in milliseconds. */
+	public static long UpdatePeriod()
+	{
+		return sUpdatePeriod;
+	}
+
+	/**
+	 * Sets how many logic steps may be run back-to-back to catch up after a
+	 * slow frame. Any time owed beyond this is discarded.
+	 *
+	 * @param pSteps maximum catch-up steps per pass; at least 1.
+	 */
+	public static void MaxCatchUpSteps(int pSteps)
+	{
+		sMaxCatchUpSteps = (pSteps < 1) ? 1 : pSteps;
+	}
+
 	// public interfaces //
 
 	/** Calls update on all extant ActionElements. */
 	public void Update()
 	{
-		for(int i = 0; i < ActionElement.sAllAEs.size; i++)
+		long tStart = Profiler.Begin();
+		mInput.Drain();
+		mTouchState.apply(mInput);
+
+		Steering.sOnly.Advance();
+		if(EntityStore.sOnly != null)
+			EntityStore.sOnly.Step();
+
+		// Unload()s during the loop take effect once it's done
+		ActionElement.sAllAEs.Lock();
+		try
+		{
+			if(UpdateScheduler.sOnly != null)
+				UpdateScheduler.sOnly.Run();
+			else
+				for(int i = 0; i < ActionElement.sAllAEs.size; i++)
+				{
+					ActionElement tAE = ActionElement.sAllAEs.At(i);
+					if(tAE.Active())
+						tAE.update_profiled();
+				}
+		}
+		finally
 		{
-			ActionElement tAE = ActionElement.sAllAEs.At(i);
-			if(tAE.Active())
-				tAE.Update();
+			ActionElement.sAllAEs.Unlock();
 		}
+		ScreenElement.sweep();
+		if(SpatialGrid.sOnly != null)
+			SpatialGrid.sOnly.Refresh();
 
 		mTouchState.Clear(true);
+		mInput.Recycle();
+		Profiler.End(Profiler.UPDATE, tStart);
 	}
 
 	//AddView allows the user to pass a view (typically a layout that was inflated from XML) to be added above the normal AnimatedView Surface.
@@ -501,7 +600,7 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 	public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX,
 		float velocityY)
 	{
-		mTouchState.SetState(TouchState.FLING, e1, e2);
+		mTouchState.SetState(TouchState.FLING, e1, e2, velocityY, velocityX);
 		return false;
 	}
 
@@ -563,6 +662,12 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 	 * TouchState is an inner class that holds state information about touch
 	 * events.
 	 * It is designed to be polled instead of event-driven.
+	 * <br /><br />
+	 * It summarizes the current logic step's {@link InputQueue} events: the
+	 * state bits are every gesture that arrived during the step, and the
+	 * positions and distances are the latest gesture's, in logical units. It
+	 * is only updated between steps, so reading it needs no locking. For the
+	 * individual events, iterate {@link GameProc#mInput}.
 	 *
 	 * @author Christopher R. Tooley
 	 *
@@ -577,8 +682,9 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 
 		int mState;
 
-		MotionEvent mMainMotionEvent;
-		MotionEvent mSecondaryMotionEvent;
+		boolean mHasMain, mHasSecondary;
+		float mMainX, mMainY;
+		float mSecondaryX, mSecondaryY;
 		float mYScrollDist; //holds either the velocity of the fling or the distance of the scroll
 		float mXScrollDist; //holds either the velocity of the fling or the distance of the scroll
 
@@ -587,58 +693,95 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 			Clear();
 		}
 
+		/**
+		 * Posts a gesture to {@link GameProc#mInput}; it shows up here at the
+		 * start of the next logic step. Call from the UI thread only.
+		 */
 		public void SetState(int pState, MotionEvent pMainMotionEvent,
 			MotionEvent pSecondaryMotionEvent, float pYScrollDist,
 			float pXScrollDist)
 		{
-			SetState(pState, pMainMotionEvent, pSecondaryMotionEvent);
-			mXScrollDist = pXScrollDist;
-			mYScrollDist = pYScrollDist;
+			mInput.PostTouch(pState, pMainMotionEvent, pSecondaryMotionEvent,
+				pXScrollDist, pYScrollDist);
 		}
 
+		/** @see #SetState(int, MotionEvent, MotionEvent, float, float) */
 		public void SetState(int pState, MotionEvent pMainMotionEvent,
 			MotionEvent pSecondaryMotionEvent)
 		{
-			synchronized(this)
-			{
-				mState |= pState;
-				mMainMotionEvent = pMainMotionEvent;
-				mSecondaryMotionEvent = pSecondaryMotionEvent;
-			}
+			SetState(pState, pMainMotionEvent, pSecondaryMotionEvent, 0, 0);
 		}
 
 		public void Clear()
 		{
-			synchronized(this)
-			{
-				mState = 0;
-			}
+			mState = 0;
 		}
 
 		private void Clear(boolean pInternalCall)
 		{
-			synchronized(this)
+			mState = 0;
+		}
+
+		/** Folds a step's events into the summary; update thread only. */
+		void apply(InputQueue pInput)
+		{
+			for(int i = 0; i < pInput.Count(); i++)
 			{
-				mState = 0;
+				InputQueue.Event tEvent = pInput.At(i);
+				if(tEvent.mType == InputQueue.KEY_DOWN ||
+					tEvent.mType == InputQueue.KEY_UP)
+				{
+					boolean tDown = (tEvent.mType == InputQueue.KEY_DOWN);
+					if(tDown)
+						mCurrentKey = tEvent.mKeyCode;
+					if(tEvent.mKeyCode >= 0 && tEvent.mKeyCode < mKeys.length)
+						mKeys[tEvent.mKeyCode] = tDown;
+					continue;
+				}
+
+				mState |= tEvent.mType;
+				mHasMain = true;
+				mMainX = tEvent.mX;
+				mMainY = tEvent.mY;
+				mHasSecondary = (tEvent.mType == FLING ||
+					tEvent.mType == SCROLL);
+				mSecondaryX = tEvent.mX2;
+				mSecondaryY = tEvent.mY2;
+				mXScrollDist = tEvent.mDX;
+				mYScrollDist = tEvent.mDY;
 			}
 		}
 
 		public XYf TouchPos()
 		{
-			if(mMainMotionEvent == null)
-				return new XYf(0, 0);
+			return new XYf(GetMainX(), GetMainY());
+		}
 
-			return new XYf(mMainMotionEvent.getX(), mMainMotionEvent.getY());
+		/**
+		 * Allocation-free form of {@link #TouchPos()}.
+		 *
+		 * @param oPos receives the position.
+		 * @return {@code oPos}.
+		 */
+		public XYf TouchPos(XYf oPos)
+		{
+			return oPos.set(GetMainX(), GetMainY());
 		}
 
 		public XYf SecondaryTouchPos()
 		{
-			if(mSecondaryMotionEvent == null)
-				return new XYf(0, 0);
+			return new XYf(GetSecondaryX(), GetSecondaryY());
+		}
 
-			return new XYf(mSecondaryMotionEvent.getX() /
-							AnimatedView.sOnly.mPreScaler,
-				mSecondaryMotionEvent.getY() / AnimatedView.sOnly.mPreScaler);
+		/**
+		 * Allocation-free form of {@link #SecondaryTouchPos()}.
+		 *
+		 * @param oPos receives the position.
+		 * @return {@code oPos}.
+		 */
+		public XYf SecondaryTouchPos(XYf oPos)
+		{
+			return oPos.set(GetSecondaryX(), GetSecondaryY());
 		}
 
 		public float GetXScrollDist()
@@ -653,66 +796,27 @@ public class GameProc extends Activity implements Runnable, OnGestureListener/*
 
 		public float GetMainX()
 		{
-			if(mMainMotionEvent == null)
-				return 0;
-
-			float tX = 0;
-			synchronized(this)
-			{
-				tX = mMainMotionEvent.getX() / AnimatedView.sOnly.mPreScaler;
-			}
-			return tX;
+			return mHasMain ? mMainX : 0;
 		}
 
 		public float GetMainY()
 		{
-			if(mMainMotionEvent == null)
-				return 0;
-
-			float tY = 0;
-			synchronized(this)
-			{
-				tY = mMainMotionEvent.getY() / AnimatedView.sOnly.mPreScaler;
-			}
-			return tY;
+			return mHasMain ? mMainY : 0;
 		}
 
 		public float GetSecondaryX()
 		{
-			if(mSecondaryMotionEvent == null)
-				return 0;
-
-			float tX = 0;
-			synchronized(this)
-			{
-				tX =
-					mSecondaryMotionEvent.getX() /
-						AnimatedView.sOnly.mPreScaler;
-			}
-			return tX;
+			return mHasSecondary ? mSecondaryX : 0;
 		}
 
 		public float GetSecondaryY()
 		{
-			if(mSecondaryMotionEvent == null)
-				return 0;
-
-			float tY = 0;
-			synchronized(this)
-			{
-				tY =
-					mSecondaryMotionEvent.getY() /
-						AnimatedView.sOnly.mPreScaler;
-			}
-			return tY;
+			return mHasSecondary ? mSecondaryY : 0;
 		}
 
 		public boolean Is(int pState)
 		{
-			synchronized(this)
-			{
-				return 0 != (mTouchState.mState & pState);
-			}
+			return 0 != (mState & pState);
 		}
 	}
 
@@ -18,27 +18,93 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
 
+import rogue_opcode.containers.IntObjectMap;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.util.Log;
 
 
 public class GraphicResource implements Serializable
 {
 	private static final long serialVersionUID = 7533930775077206592L;
 
-	public static Map<Integer, GraphicResource> sAllGRs = new HashMap<Integer, GraphicResource>();
+	public static IntObjectMap<GraphicResource> sAllGRs = new IntObjectMap<GraphicResource>();
 
 	protected static int sUID = 1000;
 
+	// bitmap cache ////////////////////////////////////////////////////////////
+
+	/**
+	 * Most bitmap memory the cache will hold before evicting graphics that
+	 * haven't been drawn recently. Evicted graphics reload themselves the next
+	 * time something draws them. Atlas sheets and mutable or cloned bitmaps
+	 * count toward the total but are never evicted.
+	 */
+	public static long sBudgetBytes = Runtime.getRuntime().maxMemory() / 3;
+	public static long sUsedBytes;
+
+	// cache statistics
+	public static int sHits;
+	public static int sMisses;
+	public static int sEvictions;
+
+	// graphics drawn within this many published frames are never evicted
+	protected static final int RECENT_FRAMES = 3;
+
+	// OOM retry backoff, in published frames
+	protected static final int MAX_RETRY_DELAY = 64;
+
+	protected static int sFrame;	// advanced once per RenderSnapshot.Publish()
+
+	protected transient long mBytes;		// accounted size of mImage
+	protected transient int mLastUsed;		// sFrame when last drawn
+	protected transient int mPinCount;
+	protected transient boolean mEvicted;	// dropped by the cache; Use() reloads
+	protected transient boolean mReloadable;	// loaded from a resource or file
+	protected transient int mRetryFrame;	// don't try loading again before this
+	protected transient boolean mOutOfMemory;	// FAILED for memory, not bad data
+	protected transient long mNeededBytes;	// room to make before retrying
+	protected transient int mRetryDelay;
+	protected transient String mFilePath;	// for reloading file-based GRs
+
+	// async loading ///////////////////////////////////////////////////////////
+
+	// load states
+	public static final int UNLOADED = 0;
+	public static final int LOADING = 1;
+	public static final int READY = 2;
+	public static final int FAILED = 3;
+	protected static final int DECODED = 4;	// decoded, not yet adopted
+
+	// load priorities; higher loads sooner
+	public static final int PRIORITY_PREFETCH = 0;
+	public static final int PRIORITY_NORMAL = 10;
+	public static final int PRIORITY_VISIBLE = 20;	// something is waiting to draw it
+
+	/** If set, drawn in place of graphics that are still loading. */
+	public static GraphicResource sPlaceholder;
+
+	protected transient volatile int mState;
+	// handed from the loader thread to whoever adopts it; written before mState
+	protected transient Bitmap mPending;
+	protected transient int mPendingBaseWidth, mPendingBaseHeight;
+
 	public Bitmap mImage;
 	public int mResID;
 	public Canvas mBitmapCanvas;
 
+	// the region of mImage that is this graphic; all of it, unless mImage is
+	// a shared TextureAtlas sheet
+	public transient Rect mSrcRect = new Rect();
+	protected transient TextureAtlas mAtlas;
+
 	// these are the original/logical size of the image
 	protected int mBaseWidth;
 	protected int mBaseHeight;
@@ -56,22 +122,20 @@ public class GraphicResource implements Serializable
 	public static void Unload(int pResourceID) {
 		GraphicResource tGR;
 		
-		tGR = sAllGRs.get(pResourceID);
-		if ((tGR != null) && (tGR.mImage != null)) {
-			tGR.mImage.recycle();
-			tGR.mImage = null;
-		}
+		tGR = sAllGRs.Get(pResourceID);
+		if ((tGR != null) && (tGR.mImage != null))
+			tGR.release(false);
+		if (tGR != null)
+			tGR.mEvicted = false;	// stay unloaded until Load()ed
 	}
 
 	public static void Load(int pResourceID) {
 		GraphicResource tGR;
 		
-		tGR = sAllGRs.get(pResourceID);
+		tGR = sAllGRs.Get(pResourceID);
 		if (tGR != null) {
-			if (tGR.mImage != null) {
-				tGR.mImage.recycle();
-				tGR.mImage = null;
-			}
+			if (tGR.mImage != null)
+				tGR.release(false);
 			
 			tGR.internalLoad(pResourceID);
 		} else {
@@ -83,12 +147,10 @@ public class GraphicResource implements Serializable
 	public static int Load(String pFilePath) {
 		GraphicResource tGR;
 		
-		tGR = sAllGRs.get(pFilePath.hashCode());
+		tGR = sAllGRs.Get(pFilePath.hashCode());
 		if (tGR != null) {
-			if (tGR.mImage != null) {
-				tGR.mImage.recycle();
-				tGR.mImage = null;
-			}
+			if (tGR.mImage != null)
+				tGR.release(false);
 			
 			tGR.internalLoad(pFilePath);
 		} else {
@@ -102,6 +164,12 @@ public class GraphicResource implements Serializable
 	// c'tor ///////////////////////////////////////////////////////////////////
 
 
+	/** For LoadAsync(); an empty, unregistered GR. */
+	protected GraphicResource()
+	{
+		mBitmapCanvas = null;
+	}
+
 	/**
 	 * Construct a {@code GraphicResource} and load the specified image
 	 * resource.
@@ -112,14 +180,34 @@ public class GraphicResource implements Serializable
 	{
 		mResID = pResID;
 		mBitmapCanvas = null;
+		mReloadable = true;
 		internalLoad(pResID);
+		if (mImage == null) // register anyway, so Use() retries with backoff
+			sAllGRs.Put(pResID, this);
+	}
+
+	/**
+	 * Construct a {@code GraphicResource} that draws from part of a
+	 * {@link TextureAtlas} sheet.
+	 */
+	GraphicResource(int pResID, TextureAtlas pAtlas, Rect pSrcRect,
+		int pBaseWidth, int pBaseHeight)
+	{
+		mResID = pResID;
+		mBitmapCanvas = null;
+		attach(pAtlas, pSrcRect, pBaseWidth, pBaseHeight);
+		sAllGRs.Put(pResID, this);
 	}
 
 	public GraphicResource(String pFilePath)
 	{
 		mResID = pFilePath.hashCode();
 		mBitmapCanvas = null;
+		mFilePath = pFilePath;
+		mReloadable = true;
 		internalLoad(pFilePath);
+		if (mImage == null)
+			sAllGRs.Put(mResID, this);
 	}
 
 	/**
@@ -137,7 +225,9 @@ public class GraphicResource implements Serializable
 		mImage = Bitmap.createScaledBitmap(mImage,
 				(int)(mBaseWidth * AnimatedView.sOnly.mPreScaler),
 				(int)(mBaseHeight * AnimatedView.sOnly.mPreScaler), true);
-		sAllGRs.put(mResID, this);
+		mSrcRect.set(0, 0, mImage.getWidth(), mImage.getHeight());
+		account();
+		sAllGRs.Put(mResID, this);
 		sUID ++;
 	}
 	
@@ -146,39 +236,132 @@ public class GraphicResource implements Serializable
 		mImage = Bitmap.createBitmap(pWidth, pHeight, sBitmapOptions.inPreferredConfig);
 		mBaseWidth = mImage.getWidth();
 		mBaseHeight = mImage.getHeight();
+		mSrcRect.set(0, 0, pWidth, pHeight);
+		account();
 		//TODO - logical width and height not working with mutable GRs
-		sAllGRs.put(mResID, this);
+		sAllGRs.Put(mResID, this);
 
 		mBitmapCanvas = new Canvas(mImage);
 		sUID ++;
 	}
 	
+	/**
+	 * Decodes an image resource and scales it to physical size, or maps the
+	 * result of doing so in an earlier run from the disk cache.
+	 *
+	 * @param pResourceID the image's resource ID.
+	 * @param oBaseSize if not {@code null}, receives the unscaled size.
+	 * @return the scaled image, or {@code null} if it couldn't be decoded.
+	 */
+	static Bitmap decode(int pResourceID, Point oBaseSize)
+	{
+		long tStart = Profiler.Begin();
+		try
+		{
+			Point tBaseSize = (oBaseSize != null) ? oBaseSize : new Point();
+			Bitmap tImage = BitmapDiskCache.Get(pResourceID, tBaseSize);
+			if (tImage != null)
+				return tImage;
+
+			Resources r = GameProc.sOnly.getResources();
+			tImage = prescale(BitmapFactory.decodeResource(r, pResourceID,
+				options()), tBaseSize);
+			if (tImage != null)
+				BitmapDiskCache.Put(pResourceID, tImage, tBaseSize);
+			return tImage;
+		}
+		finally
+		{
+			Profiler.End(Profiler.DECODE, tStart);
+		}
+	}
+
+	/**
+	 * Decodes an image file and scales it to physical size.
+	 *
+	 * @param pFilePath path of the image file.
+	 * @param oBaseSize if not {@code null}, receives the unscaled size.
+	 * @return the scaled image, or {@code null} if it couldn't be decoded.
+	 */
+	static Bitmap decode(String pFilePath, Point oBaseSize)
+	{
+		long tStart = Profiler.Begin();
+		try
+		{
+			Point tBaseSize = (oBaseSize != null) ? oBaseSize : new Point();
+			Bitmap tImage = BitmapDiskCache.Get(pFilePath, tBaseSize);
+			if (tImage != null)
+				return tImage;
+
+			tImage = prescale(BitmapFactory.decodeFile(pFilePath, options()),
+				tBaseSize);
+			if (tImage != null)
+				BitmapDiskCache.Put(pFilePath, tImage, tBaseSize);
+			return tImage;
+		}
+		finally
+		{
+			Profiler.End(Profiler.DECODE, tStart);
+		}
+	}
+
+	// decoders write to their Options, so each decode gets its own copy
+	private static BitmapFactory.Options options()
+	{
+		BitmapFactory.Options tOptions = new BitmapFactory.Options();
+		tOptions.inPreferredConfig = sBitmapOptions.inPreferredConfig;
+		tOptions.inScaled = sBitmapOptions.inScaled;
+		return tOptions;
+	}
+
+	private static Bitmap prescale(Bitmap tImage, Point oBaseSize)
+	{
+		if (tImage == null)
+			return null;
+		if (oBaseSize != null)
+			oBaseSize.set(tImage.getWidth(), tImage.getHeight());
+
+		//scale image
+		if(AnimatedView.sOnly.mPreScaler != 1.0f)
+		{
+			Bitmap tScaled = Bitmap.createScaledBitmap(tImage,
+					(int)(tImage.getWidth() * AnimatedView.sOnly.mPreScaler),
+					(int)(tImage.getHeight() * AnimatedView.sOnly.mPreScaler), true);
+			tImage.recycle();
+			tImage = tScaled;
+		}
+		return tImage;
+	}
+
 	private void internalLoad(int pResourceID)
 	{
 		// load image
 		try {
-			Resources r = GameProc.sOnly.getResources();
-			Bitmap tImage = BitmapFactory.decodeResource(r, pResourceID, sBitmapOptions);
-			mBaseWidth = tImage.getWidth();
-			mBaseHeight = tImage.getHeight();
-	
-			//scale image
-			if(AnimatedView.sOnly.mPreScaler != 1.0f)
-			{
-				mImage = Bitmap.createScaledBitmap(tImage,
-						(int)(mBaseWidth * AnimatedView.sOnly.mPreScaler),
-						(int)(mBaseHeight * AnimatedView.sOnly.mPreScaler), true);
-				tImage.recycle();
-				tImage = null;
-			} else
-				mImage = tImage;
+			Point tBaseSize = new Point();
+			mAtlas = null;
+			mImage = decode(pResourceID, tBaseSize);
+			if (mImage == null) {
+				// missing or undecodable; retrying won't help
+				mOutOfMemory = false;
+				mState = FAILED;
+				return;
+			}
+			mBaseWidth = tBaseSize.x;
+			mBaseHeight = tBaseSize.y;
+			if (mSrcRect == null)
+				mSrcRect = new Rect();
+			mSrcRect.set(0, 0, mImage.getWidth(), mImage.getHeight());
+			account();
 	
 			// store image
-			sAllGRs.put(pResourceID, this);
+			sAllGRs.Put(pResourceID, this);
 		} catch (OutOfMemoryError e) {
 			//TODO -dOOM!
 			//when this error happens we will no longer crash the app - the particular GR will just
 			//not be visible.
+			mOutOfMemory = true;
+			mNeededBytes = expected_bytes();
+			mState = FAILED;
 		}
 	}
 
@@ -186,31 +369,34 @@ public class GraphicResource implements Serializable
 	{
 		// load image
 		try {
-			Bitmap tImage = BitmapFactory.decodeFile(pFilePath, sBitmapOptions);
+			Point tBaseSize = new Point();
+			Bitmap tImage = decode(pFilePath, tBaseSize);
 			
-			if (tImage == null)
-				throw new OutOfMemoryError("tImage is null.");
+			if (tImage == null) {
+				// missing or undecodable; retrying won't help
+				mOutOfMemory = false;
+				mState = FAILED;
+				return;
+			}
 			
-			mBaseWidth = tImage.getWidth();
-			mBaseHeight = tImage.getHeight();
-	
-			//scale image
-			if(AnimatedView.sOnly.mPreScaler != 1.0f)
-			{
-				mImage = Bitmap.createScaledBitmap(tImage,
-						(int)(mBaseWidth * AnimatedView.sOnly.mPreScaler),
-						(int)(mBaseHeight * AnimatedView.sOnly.mPreScaler), true);
-				tImage.recycle();
-				tImage = null;
-			} else
-				mImage = tImage;
+			mBaseWidth = tBaseSize.x;
+			mBaseHeight = tBaseSize.y;
+			mImage = tImage;
+			mAtlas = null;
+			if (mSrcRect == null)
+				mSrcRect = new Rect();
+			mSrcRect.set(0, 0, mImage.getWidth(), mImage.getHeight());
+			account();
 	
 			// store image
-			sAllGRs.put(pFilePath.hashCode(), this);
+			sAllGRs.Put(pFilePath.hashCode(), this);
 		} catch (OutOfMemoryError e) {
 			//TODO -dOOM!
 			//when this error happens we will no longer crash the app - the particular GR will just
 			//not be visible.
+			mOutOfMemory = true;
+			mNeededBytes = expected_bytes();
+			mState = FAILED;
 		}
 	}
 
@@ -221,6 +407,411 @@ public class GraphicResource implements Serializable
 		return mImage != null;
 	}
 
+	/** @return the atlas this GR draws from, or {@code null} if none. */
+	public TextureAtlas Atlas()
+	{
+		return mAtlas;
+	}
+
+	/** Re-points this GR at a region of an atlas sheet. */
+	void attach(TextureAtlas pAtlas, Rect pSrcRect, int pBaseWidth,
+		int pBaseHeight)
+	{
+		if (mImage != null)
+			release(false);
+		mEvicted = false;
+		mState = READY;
+		mAtlas = pAtlas;
+		mImage = pAtlas.mSheet;
+		if (mSrcRect == null)
+			mSrcRect = new Rect();
+		mSrcRect.set(pSrcRect);
+		mBaseWidth = pBaseWidth;
+		mBaseHeight = pBaseHeight;
+	}
+
+	/**
+	 * Marks this graphic as drawn in the frame being published. If the cache
+	 * evicted it or it ran out of memory loading, this queues a background
+	 * reload and returns {@code false} until that finishes. Repeated failures
+	 * back off for a growing number of frames instead of retrying every
+	 * frame. Images that are missing or can't be decoded aren't retried. Call
+	 * from the update thread.
+	 *
+	 * @return {@code true} if the image is ready to draw.
+	 */
+	public boolean Use()
+	{
+		mLastUsed = sFrame;
+		if (mImage != null) {
+			sHits++;
+			return true;
+		}
+
+		switch (mState) {
+		case DECODED:
+			adopt();
+			return mImage != null;
+		case FAILED:
+			// a bad file won't get any better
+			if (!mOutOfMemory || sFrame < mRetryFrame)
+				return false;
+			// make room for it within the budget before retrying
+			synchronized(GraphicResource.class) {
+				evict(mNeededBytes, false);
+			}
+			mRetryDelay = Math.min(Math.max(1, mRetryDelay * 2),
+				MAX_RETRY_DELAY);
+			mRetryFrame = sFrame + mRetryDelay;
+			break;
+		case UNLOADED:
+			if (!mEvicted || !mReloadable)
+				return false; // Unload()ed on purpose
+			break;
+		default:
+			return false;
+		}
+
+		sMisses++;
+		request(PRIORITY_VISIBLE);
+		return false;
+	}
+
+	/**
+	 * Loads an image resource in the background. Draws of elements using it
+	 * show {@link #sPlaceholder}, or nothing, until it's ready.
+	 *
+	 * @param pResourceID the image's resource ID.
+	 * @return the GR for this resource, which may still be loading.
+	 */
+	public static GraphicResource LoadAsync(int pResourceID)
+	{
+		return LoadAsync(pResourceID, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Loads an image resource in the background. Does nothing if it's already
+	 * loaded or on its way.
+	 *
+	 * @param pResourceID the image's resource ID.
+	 * @param pPriority one of the {@code PRIORITY_} constants, or anything
+	 *        in between; higher loads sooner.
+	 * @return the GR for this resource, which may still be loading.
+	 */
+	public static GraphicResource LoadAsync(int pResourceID, int pPriority)
+	{
+		GraphicResource tGR;
+		synchronized(GraphicResource.class) {
+			tGR = sAllGRs.Get(pResourceID);
+			if (tGR == null) {
+				tGR = new GraphicResource();
+				tGR.mResID = pResourceID;
+				tGR.mReloadable = true;
+				sAllGRs.Put(pResourceID, tGR);
+			}
+		}
+		if (tGR.mImage == null)
+			tGR.request(pPriority);
+		return tGR;
+	}
+
+	/**
+	 * Queues a batch of image resources to load in the background, behind
+	 * anything more urgent. Use this ahead of a level transition; poll
+	 * {@link #PendingLoads()} to drive a progress bar.
+	 *
+	 * @param pResourceIDs image resources to load.
+	 */
+	public static void Prefetch(int[] pResourceIDs)
+	{
+		for (int i = 0; i < pResourceIDs.length; i++)
+			LoadAsync(pResourceIDs[i], PRIORITY_PREFETCH);
+	}
+
+	/** @return the number of background loads queued or in progress. */
+	public static int PendingLoads()
+	{
+		return BitmapLoader.Pending();
+	}
+
+	/**
+	 * Finds the GR for a resource, starting a background load if there isn't
+	 * one yet.
+	 *
+	 * @param pResourceID the image's resource ID.
+	 * @return the GR, or {@code null} for resource ID 0.
+	 */
+	public static GraphicResource Acquire(int pResourceID)
+	{
+		if (pResourceID == 0)
+			return null;
+		GraphicResource tGR = FindGR(pResourceID);
+		return (tGR != null) ? tGR : LoadAsync(pResourceID);
+	}
+
+	/** @return one of {@code UNLOADED}, {@code LOADING}, {@code READY} or
+	 *          {@code FAILED}. */
+	public int State()
+	{
+		int tState = mState;
+		return (tState == DECODED) ? LOADING : tState;
+	}
+
+	/**
+	 * @return {@code true} once the image can be drawn. Call from the update
+	 *         thread.
+	 */
+	public boolean Ready()
+	{
+		if (mState == DECODED)
+			adopt();
+		return mImage != null;
+	}
+
+	public boolean Failed()
+	{
+		return mState == FAILED;
+	}
+
+	/**
+	 * Blocks until a background load finishes. Meant for loading screens, not
+	 * gameplay.
+	 *
+	 * @param pTimeout longest to wait, in msecs; 0 waits indefinitely.
+	 * @return {@code true} if the image is ready.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean Await(long pTimeout) throws InterruptedException
+	{
+		long tDeadline = System.currentTimeMillis() + pTimeout;
+		synchronized(this) {
+			while (mState == LOADING) {
+				long tLeft = tDeadline - System.currentTimeMillis();
+				if (pTimeout > 0 && tLeft <= 0)
+					break;
+				wait(pTimeout > 0 ? tLeft : 0);
+			}
+		}
+		return Ready();
+	}
+
+	/** Queues a background load unless one is already under way. */
+	protected void request(int pPriority)
+	{
+		synchronized(this) {
+			if (mState == LOADING || mState == DECODED)
+				return;
+			mState = LOADING;
+		}
+		BitmapLoader.Queue(this, pPriority);
+	}
+
+	/**
+	 * Loader thread side of a background load. Touches no shared state.
+	 * Always ends in {@code DECODED} or {@code FAILED}, whatever goes wrong,
+	 * so nothing waits on a load that will never finish.
+	 */
+	void decode_async()
+	{
+		Bitmap tImage = null;
+		Point tBaseSize = new Point();
+		boolean tOutOfMemory = false;
+		try {
+			tImage = (mFilePath != null) ? decode(mFilePath, tBaseSize)
+				: decode(mResID, tBaseSize);
+		} catch (OutOfMemoryError e) {
+			tImage = null;
+			tOutOfMemory = true;
+		} catch (Throwable e) {
+			Log.e(GameProc.TAG, "GraphicResource.decode_async()", e);
+			tImage = null;
+		}
+		long tNeeded = tOutOfMemory ? expected_bytes() : 0;
+		synchronized(this) {
+			if (tImage != null) {
+				mPending = tImage;
+				mPendingBaseWidth = tBaseSize.x;
+				mPendingBaseHeight = tBaseSize.y;
+				mState = DECODED;
+			} else {
+				mOutOfMemory = tOutOfMemory;
+				mNeededBytes = tNeeded;
+				mState = FAILED;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Works out how much memory our image will take once loaded, from its
+	 * header alone. Safe on any thread.
+	 *
+	 * @return the expected size in bytes, or 0 if the header is unreadable.
+	 */
+	protected long expected_bytes()
+	{
+		BitmapFactory.Options tOptions = options();
+		tOptions.inJustDecodeBounds = true;
+		try {
+			if (mFilePath != null)
+				BitmapFactory.decodeFile(mFilePath, tOptions);
+			else
+				BitmapFactory.decodeResource(GameProc.sOnly.getResources(),
+					mResID, tOptions);
+		} catch (RuntimeException e) {
+			return 0;	// e.g. the resource is gone
+		}
+		if (tOptions.outWidth <= 0 || tOptions.outHeight <= 0)
+			return 0;
+		float tScale = AnimatedView.sOnly.mPreScaler;
+		return (long)(tOptions.outWidth * tScale) *
+			(long)(tOptions.outHeight * tScale) * 4;	// ARGB_8888
+	}
+
+	/** Takes ownership of a background-decoded image. */
+	protected void adopt()
+	{
+		Bitmap tImage;
+		synchronized(this) {
+			if (mState != DECODED)
+				return;
+			tImage = mPending;
+			mPending = null;
+		}
+		if (mImage != null) {
+			// loaded synchronously while we were decoding; keep that one
+			tImage.recycle();
+			mState = READY;
+			return;
+		}
+		mImage = tImage;
+		mAtlas = null;
+		mBaseWidth = mPendingBaseWidth;
+		mBaseHeight = mPendingBaseHeight;
+		if (mSrcRect == null)
+			mSrcRect = new Rect();
+		mSrcRect.set(0, 0, tImage.getWidth(), tImage.getHeight());
+		mRetryDelay = 0;
+		account();
+	}
+
+	/**
+	 * Keeps this graphic loaded no matter how long since it was drawn. Pins
+	 * nest; each {@code Pin()} needs a matching {@link #Unpin()}.
+	 */
+	public void Pin()
+	{
+		synchronized(GraphicResource.class) {
+			mPinCount++;
+		}
+	}
+
+	public void Unpin()
+	{
+		synchronized(GraphicResource.class) {
+			if (mPinCount > 0)
+				mPinCount--;
+		}
+	}
+
+	/**
+	 * Sets the cache budget, evicting right away if it's now exceeded.
+	 *
+	 * @param pBytes most bitmap memory to hold, in bytes.
+	 */
+	public static void Budget(long pBytes)
+	{
+		synchronized(GraphicResource.class) {
+			sBudgetBytes = pBytes;
+			evict(0, false);
+		}
+	}
+
+	/** Called once per published frame, to age the LRU stamps. */
+	static void NextFrame()
+	{
+		sFrame++;
+	}
+
+	/** Adds a freshly loaded mImage to the cache total. */
+	protected void account()
+	{
+		long tBytes = (long)mImage.getRowBytes() * mImage.getHeight();
+		synchronized(GraphicResource.class) {
+			mBytes = tBytes;
+			sUsedBytes += tBytes;
+			mLastUsed = sFrame;
+			mEvicted = false;
+			mState = READY;
+			evict(0, false);
+		}
+	}
+
+	/**
+	 * Drops our image and takes it off the cache total.
+	 *
+	 * @param pRecycle whether to recycle the bitmap now. Only do this when
+	 *        no published frame can still be drawing it.
+	 */
+	protected void release(boolean pRecycle)
+	{
+		synchronized(GraphicResource.class) {
+			sUsedBytes -= mBytes;
+			mBytes = 0;
+		}
+		if (pRecycle && mAtlas == null)
+			mImage.recycle();	// atlas sheets are freed by the atlas
+		mImage = null;
+		mState = UNLOADED;
+	}
+
+	/** @return whether the cache may drop this graphic right now. */
+	protected boolean evictable()
+	{
+		return (mImage != null) && (mAtlas == null) && (mPinCount == 0) &&
+			mReloadable && (sFrame - mLastUsed >= RECENT_FRAMES);
+	}
+
+	/**
+	 * Evicts least recently drawn graphics until {@code pIncoming} more bytes
+	 * fit within the budget, or nothing else can go. Evicted bitmaps are not
+	 * recycled, since a frame still on its way to the screen may hold them;
+	 * the GC reclaims them once it's done. Call holding the class lock.
+	 *
+	 * @param pIncoming bytes about to be loaded.
+	 * @param pAll evict everything evictable, regardless of the budget.
+	 */
+	protected static void evict(long pIncoming, boolean pAll)
+	{
+		if (!pAll && sUsedBytes + pIncoming <= sBudgetBytes)
+			return;
+
+		GraphicResource[] tCandidates = new GraphicResource[sAllGRs.size];
+		int tCount = 0;
+		Object[] tAll = sAllGRs.values;
+		for (int i = 0; i < tAll.length; i++) {
+			GraphicResource tGR = (GraphicResource)tAll[i];
+			if (tGR != null && tGR.evictable())
+				tCandidates[tCount++] = tGR;
+		}
+		Arrays.sort(tCandidates, 0, tCount, new Comparator<GraphicResource>() {
+			@Override
+			public int compare(GraphicResource a, GraphicResource b)
+			{
+				return a.mLastUsed - b.mLastUsed;
+			}
+		});
+
+		for (int i = 0; i < tCount; i++) {
+			if (!pAll && sUsedBytes + pIncoming <= sBudgetBytes)
+				break;
+			GraphicResource tGR = tCandidates[i];
+			tGR.release(false);
+			tGR.mEvicted = true;
+			sEvictions++;
+		}
+	}
+
 	// image properties ////////////////////////////////////////////////////////
 
 	// Returns the width and height in VIRTUAL units (the units used when
@@ -238,7 +829,7 @@ public class GraphicResource implements Serializable
 	public int PhysicalWidth()
 	{
 		if (Valid())
-			return mImage.getWidth();
+			return mSrcRect.width();
 		
 		return 0;
 	}
@@ -246,7 +837,7 @@ public class GraphicResource implements Serializable
 	public int PhysicalHeight()
 	{
 		if (Valid())
-			return mImage.getHeight();
+			return mSrcRect.height();
 		
 		return 0;
 	}
@@ -255,7 +846,7 @@ public class GraphicResource implements Serializable
 
 	public static GraphicResource FindGR(int pResourceID)
 	{
-		GraphicResource tGR = sAllGRs.get(pResourceID);
+		GraphicResource tGR = sAllGRs.Get(pResourceID);
 		//TODO - hmmm, this makes it difficult to manage memory but it is a nice feature...
 		//return (tGR != null ? tGR : new GraphicResource(pResourceID));
 		return tGR;
@@ -0,0 +1,231 @@
+// InputQueue.java
+// Lock-free hand-off of touch and key events to the update thread.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.util.Iterator;
+
+import rogue_opcode.containers.SPSCRing;
+import android.view.MotionEvent;
+
+
+/**
+ * {@code InputQueue} carries input from the UI thread to the update thread.
+ * Touch gestures and key presses are copied, as they arrive, into
+ * preallocated {@link Event} records and passed through a lock-free ring; the
+ * update thread takes everything that arrived since the last logic step in
+ * one go at the start of the step. Nothing is lost between steps, nothing
+ * locks, and nothing is allocated after construction.
+ * <br /><br />
+ * Events cycle between two {@link SPSCRing}s: the UI thread takes a blank
+ * record from the free ring, fills it and posts it to the event ring; the
+ * update thread drains the event ring and, at the end of the step, hands the
+ * records back to the free ring. If the update thread falls so far behind
+ * that no records are free, new input is dropped and counted in
+ * {@link #Dropped()}.
+ * <br /><br />
+ * During a step, walk the step's events in arrival order with
+ * {@code for(InputQueue.Event e : GameProc.sOnly.mInput)}, or by index with
+ * {@link #Count()} and {@link #At(int)}. The iterator is reused, so don't
+ * nest loops over it. {@link GameProc.TouchState} and
+ * {@code GameProc.mKeys} are summaries built from the same events.
+ */
+public class InputQueue implements Iterator<InputQueue.Event>,
+	Iterable<InputQueue.Event>
+{
+	/** Event type for a key press; gestures use the TouchState bits. */
+	public static final int KEY_DOWN = 256;
+	/** Event type for a key release. */
+	public static final int KEY_UP = 512;
+
+	/** One input event. Coordinates are logical, already prescaled. */
+	public static class Event
+	{
+		/** A {@code TouchState} gesture bit, {@link #KEY_DOWN} or
+		 * {@link #KEY_UP}. */
+		public int mType;
+		/** When it happened, on the {@code SystemClock.uptimeMillis()} base. */
+		public long mTime;
+		/** Main touch position; where a fling or scroll started. */
+		public float mX, mY;
+		/** Secondary position; where a fling or scroll is now. */
+		public float mX2, mY2;
+		/** Scroll distance or fling velocity, also logical. */
+		public float mDX, mDY;
+		/** Key code, for key events. */
+		public int mKeyCode;
+	}
+
+	protected final SPSCRing<Event> mFree;		// update thread -> UI thread
+	protected final SPSCRing<Event> mPosted;	// UI thread -> update thread
+	protected volatile int mDropped;
+
+	// this step's events; update thread only
+	protected final Event[] mStep;
+	protected int mCount;
+	protected int mIteratorIndex;
+
+	// c'tor ///////////////////////////////////////////////////////////////////
+
+	/**
+	 * @param pCapacity most events that can be waiting at once.
+	 */
+	public InputQueue(int pCapacity)
+	{
+		mFree = new SPSCRing<Event>(pCapacity);
+		mPosted = new SPSCRing<Event>(pCapacity);
+		mStep = new Event[mPosted.Capacity()];
+		for(int i = 0; i < mFree.Capacity(); i++)
+			mFree.Offer(new Event());
+	}
+
+	// UI thread interfaces ////////////////////////////////////////////////////
+
+	/**
+	 * Posts a gesture. Call from the UI thread only.
+	 *
+	 * @param pType a {@code TouchState} gesture bit.
+	 * @param pMain main event; may be {@code null}.
+	 * @param pSecondary secondary event; may be {@code null}.
+	 * @param pDX horizontal scroll distance or fling velocity.
+	 * @param pDY vertical scroll distance or fling velocity.
+	 */
+	public void PostTouch(int pType, MotionEvent pMain, MotionEvent pSecondary,
+		float pDX, float pDY)
+	{
+		Event tEvent = mFree.Poll();
+		if(tEvent == null)
+		{
+			mDropped++;
+			return;
+		}
+		float tScale = 1 / AnimatedView.sOnly.mPreScaler;
+		tEvent.mType = pType;
+		tEvent.mTime = 0;
+		if(pMain != null)
+		{
+			tEvent.mTime = pMain.getEventTime();
+			tEvent.mX = pMain.getX() * tScale;
+			tEvent.mY = pMain.getY() * tScale;
+		}
+		else
+			tEvent.mX = tEvent.mY = 0;
+		if(pSecondary != null)
+		{
+			tEvent.mTime = pSecondary.getEventTime();
+			tEvent.mX2 = pSecondary.getX() * tScale;
+			tEvent.mY2 = pSecondary.getY() * tScale;
+		}
+		else
+			tEvent.mX2 = tEvent.mY2 = 0;
+		tEvent.mDX = pDX * tScale;
+		tEvent.mDY = pDY * tScale;
+		tEvent.mKeyCode = 0;
+		mPosted.Offer(tEvent);
+	}
+
+	/**
+	 * Posts a key press or release. Call from the UI thread only.
+	 *
+	 * @param pType {@link #KEY_DOWN} or {@link #KEY_UP}.
+	 * @param pKeyCode the key.
+	 * @param pTime event time, on the {@code uptimeMillis()} base.
+	 */
+	public void PostKey(int pType, int pKeyCode, long pTime)
+	{
+		Event tEvent = mFree.Poll();
+		if(tEvent == null)
+		{
+			mDropped++;
+			return;
+		}
+		tEvent.mType = pType;
+		tEvent.mTime = pTime;
+		tEvent.mX = tEvent.mY = tEvent.mX2 = tEvent.mY2 = 0;
+		tEvent.mDX = tEvent.mDY = 0;
+		tEvent.mKeyCode = pKeyCode;
+		mPosted.Offer(tEvent);
+	}
+
+	// update thread interfaces ////////////////////////////////////////////////
+
+	/**
+	 * Takes every event posted since the last call as this step's events.
+	 * GameProc calls this at the start of each logic step.
+	 *
+	 * @return how many arrived.
+	 */
+	public int Drain()
+	{
+		mCount = mPosted.Poll(mStep, 0, mStep.length);
+		return mCount;
+	}
+
+	/**
+	 * Hands this step's events back for reuse. GameProc calls this at the end
+	 * of each logic step.
+	 */
+	public void Recycle()
+	{
+		mFree.Offer(mStep, 0, mCount);
+		for(int i = 0; i < mCount; i++)
+			mStep[i] = null;
+		mCount = 0;
+	}
+
+	/** @return the number of events this step. */
+	public int Count()
+	{
+		return mCount;
+	}
+
+	/**
+	 * @param pIndex 0 for the oldest of this step's events.
+	 * @return the event; valid until the end of the step.
+	 */
+	public Event At(int pIndex)
+	{
+		return mStep[pIndex];
+	}
+
+	/** @return events lost because the update thread fell behind. */
+	public int Dropped()
+	{
+		return mDropped;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return mIteratorIndex < mCount;
+	}
+
+	@Override
+	public Event next()
+	{
+		return mStep[mIteratorIndex++];
+	}
+
+	@Override
+	public void remove()
+	{
+	}
+
+	@Override
+	public Iterator<Event> iterator()
+	{
+		mIteratorIndex = 0;
+		return this;
+	}
+}
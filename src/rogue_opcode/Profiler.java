@@ -0,0 +1,457 @@
+// Profiler.java
+// Named-scope frame timing, percentiles and an on-screen frame graph.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * {@code Profiler} records how long each rendered frame took, and how that
+ * time was spent, for the last few hundred frames. It's there to find
+ * hitches: look at {@link #Percentile(float)} and the graph, not at averages.
+ * <br /><br />
+ * Time is charged to named scopes from any thread:
+ * <pre>
+ *     long tStart = Profiler.Begin();
+ *     ...
+ *     Profiler.End(Profiler.UPDATE, tStart);
+ * </pre>
+ * The framework already times logic updates, the depth sort, drawing, bitmap
+ * decoding and audio synthesis, and each {@link ActionElement} subclass's
+ * {@code Update()} under the subclass's name; add your own scopes with
+ * {@link #Scope(String)}. Scopes may nest, so they don't add up to the frame
+ * time. Each frame gets whatever was charged since the frame before it, from
+ * all threads, so a slow decode on a loader thread shows up beside the frame
+ * it overlapped.
+ * <br /><br />
+ * Profiling is off, and {@code Begin()}/{@code End()} cost one volatile read,
+ * until {@link #Start(int)} is called. Samples live in fixed arrays allocated
+ * then, and nothing is allocated per frame.
+ */
+public class Profiler
+{
+	/** The running profiler, or {@code null} when profiling is off. */
+	public static volatile Profiler sOnly;
+
+	/** Most scopes, built-in ones included; extra names share OTHER. */
+	public static final int MAX_SCOPES = 32;
+
+	// built-in scopes
+	public static final int UPDATE = 0;		// whole logic step
+	public static final int SORT = 1;		// depth sort before publishing
+	public static final int DRAW = 2;		// render pass, lock to post
+	public static final int DECODE = 3;		// bitmap decode and prescale
+	public static final int AUDIO = 4;		// synthesis
+	public static final int OTHER = 5;		// scopes past MAX_SCOPES
+
+	// frame times for the graph's reference lines and colors, in nsecs
+	protected static final long BUDGET_60HZ = 16666667;
+	protected static final long BUDGET_30HZ = 33333333;
+
+	// scope registry; outlives any one profiler so cached indices stay valid
+	protected static final String[] sNames = new String[MAX_SCOPES];
+	protected static int sScopeCount;
+	protected static final HashMap<Class<?>, Integer> sClassScopes =
+		new HashMap<Class<?>, Integer>();
+	static
+	{
+		sNames[UPDATE] = "update";
+		sNames[SORT] = "sort";
+		sNames[DRAW] = "draw";
+		sNames[DECODE] = "decode";
+		sNames[AUDIO] = "audio";
+		sNames[OTHER] = "other";
+		sScopeCount = OTHER + 1;
+	}
+
+	// charged since the last frame; any thread
+	protected final AtomicLongArray mTotals =
+		new AtomicLongArray(MAX_SCOPES);
+
+	// per-frame ring, in nsecs; written by EndFrame() under this lock
+	protected final int mCapacity;
+	protected final long[] mFrames;
+	protected final long[] mSamples;	// [frame * MAX_SCOPES + scope]
+	protected long mFrameCount;
+	protected long mLastFrame;
+
+	// summary for the HUD, refreshed every so often
+	protected final long[] mSorted;
+	protected long mP50, mP95, mP99, mWorst;
+
+	// HUD
+	protected boolean mShowHUD;
+	protected final Paint mPaint;
+	protected final StringBuilder mText = new StringBuilder(64);
+
+	// c'tor ///////////////////////////////////////////////////////////////////
+
+	/**
+	 * @param pFrames how many frames of history to keep.
+	 */
+	protected Profiler(int pFrames)
+	{
+		mCapacity = Math.max(pFrames, 16);
+		mFrames = new long[mCapacity];
+		mSamples = new long[mCapacity * MAX_SCOPES];
+		mSorted = new long[mCapacity];
+		mPaint = new Paint();
+		mPaint.setTextSize(10);
+	}
+
+	// control /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Turns profiling on with a fresh history.
+	 *
+	 * @param pFrames how many frames of history to keep; 300 is 5 seconds at
+	 *        60fps.
+	 * @return the new profiler.
+	 */
+	public static Profiler Start(int pFrames)
+	{
+		Profiler tProfiler = new Profiler(pFrames);
+		sOnly = tProfiler;
+		return tProfiler;
+	}
+
+	/** Turns profiling off. */
+	public static void Stop()
+	{
+		sOnly = null;
+	}
+
+	/**
+	 * Registers a named scope, or finds the one already registered under the
+	 * name.
+	 *
+	 * @param pName scope name, as shown in dumps.
+	 * @return the scope index to pass to {@link #End(int, long)}.
+	 */
+	public static synchronized int Scope(String pName)
+	{
+		for(int i = 0; i < sScopeCount; i++)
+			if(sNames[i].equals(pName))
+				return i;
+		if(sScopeCount == MAX_SCOPES)
+			return OTHER;
+		sNames[sScopeCount] = pName;
+		return sScopeCount++;
+	}
+
+	/** @return the scope for an {@code ActionElement} subclass's updates. */
+	static synchronized int ScopeFor(Class<?> pClass)
+	{
+		Integer tScope = sClassScopes.get(pClass);
+		if(tScope == null)
+		{
+			tScope = Scope(pClass.getSimpleName());
+			sClassScopes.put(pClass, tScope);
+		}
+		return tScope;
+	}
+
+	// timing //////////////////////////////////////////////////////////////////
+
+	/**
+	 * Opens a timed section.
+	 *
+	 * @return the start time to pass to {@link #End(int, long)}; 0 when
+	 *         profiling is off.
+	 */
+	public static long Begin()
+	{
+		return (sOnly != null) ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Closes a timed section and charges it to a scope.
+	 *
+	 * @param pScope a built-in scope or one from {@link #Scope(String)}.
+	 * @param pStart what {@link #Begin()} returned.
+	 */
+	public static void End(int pScope, long pStart)
+	{
+		Profiler tProfiler = sOnly;
+		if(tProfiler != null && pStart != 0)
+			tProfiler.mTotals.addAndGet(pScope, System.nanoTime() - pStart);
+	}
+
+	/**
+	 * Closes out a frame: records the time since the last one and what was
+	 * charged to each scope in between. AnimatedView calls this after each
+	 * frame is posted.
+	 */
+	synchronized void EndFrame()
+	{
+		long tNow = System.nanoTime();
+		if(mLastFrame == 0)
+		{
+			// nothing to measure the first frame against
+			mLastFrame = tNow;
+			for(int s = 0; s < MAX_SCOPES; s++)
+				mTotals.set(s, 0);
+			return;
+		}
+
+		int tSlot = (int)(mFrameCount % mCapacity);
+		mFrames[tSlot] = tNow - mLastFrame;
+		mLastFrame = tNow;
+		int tBase = tSlot * MAX_SCOPES;
+		for(int s = 0; s < MAX_SCOPES; s++)
+			mSamples[tBase + s] = mTotals.getAndSet(s, 0);
+		mFrameCount++;
+
+		// a few times a second is plenty for the HUD
+		if((mFrameCount & 15) == 0)
+			summarize();
+	}
+
+	// queries /////////////////////////////////////////////////////////////////
+
+	/** @return frames recorded since {@link #Start(int)}. */
+	public synchronized long FrameCount()
+	{
+		return mFrameCount;
+	}
+
+	/**
+	 * @param pFraction 0.5 for the median, 0.99 for the 99th percentile, etc.
+	 * @return that percentile of the recorded frame times, in nsecs; 0 if
+	 *         nothing's been recorded.
+	 */
+	public synchronized long Percentile(float pFraction)
+	{
+		int tCount = sort_frames();
+		return percentile_of_sorted(tCount, pFraction);
+	}
+
+	/** @return the longest recorded frame time, in nsecs. */
+	public synchronized long Worst()
+	{
+		int tCount = recorded();
+		long tWorst = 0;
+		for(int i = 0; i < tCount; i++)
+			tWorst = Math.max(tWorst, mFrames[i]);
+		return tWorst;
+	}
+
+	/**
+	 * @param pThreshold frame time, in nsecs.
+	 * @return how many recorded frames took longer.
+	 */
+	public synchronized int Hitches(long pThreshold)
+	{
+		int tCount = recorded();
+		int tHitches = 0;
+		for(int i = 0; i < tCount; i++)
+			if(mFrames[i] > pThreshold)
+				tHitches++;
+		return tHitches;
+	}
+
+	// dumping /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Writes the recorded frames as CSV, oldest first: one row per frame with
+	 * its time and each scope's, in msecs, under a header of scope names.
+	 *
+	 * @param pFile file to write; replaced if it exists.
+	 * @return {@code true} on success.
+	 */
+	public synchronized boolean Dump(File pFile)
+	{
+		int tCount = recorded();
+		BufferedWriter tOut = null;
+		try
+		{
+			tOut = new BufferedWriter(new FileWriter(pFile));
+			int tScopes;
+			synchronized(Profiler.class)
+			{
+				tScopes = sScopeCount;
+				tOut.write("frame,total");
+				for(int s = 0; s < tScopes; s++)
+					tOut.write("," + sNames[s]);
+				tOut.newLine();
+			}
+
+			long tFirst = mFrameCount - tCount;
+			for(int i = 0; i < tCount; i++)
+			{
+				int tSlot = (int)((tFirst + i) % mCapacity);
+				tOut.write(Long.toString(tFirst + i));
+				tOut.write("," + millis(mFrames[tSlot]));
+				for(int s = 0; s < tScopes; s++)
+					tOut.write("," + millis(mSamples[tSlot * MAX_SCOPES + s]));
+				tOut.newLine();
+			}
+			return true;
+		}
+		catch(IOException e)
+		{
+			Log.d(GameProc.TAG, "Profiler.Dump()", e);
+			return false;
+		}
+		finally
+		{
+			if(tOut != null)
+			{
+				try
+				{
+					tOut.close();
+				}
+				catch(IOException e)
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dumps to a new, timestamped file in the app's files directory.
+	 *
+	 * @return the file written, or {@code null} on failure.
+	 */
+	public File Dump()
+	{
+		File tFile = new File(GameProc.sOnly.getFilesDir(),
+			"profile-" + SystemClock.uptimeMillis() + ".csv");
+		return Dump(tFile) ? tFile : null;
+	}
+
+	// HUD /////////////////////////////////////////////////////////////////////
+
+	public void HUD(boolean pShow)
+	{
+		mShowHUD = pShow;
+	}
+
+	public boolean HUD()
+	{
+		return mShowHUD;
+	}
+
+	/**
+	 * Draws the frame graph along the bottom of the canvas: one bar per
+	 * recorded frame, newest on the right, green within a 60Hz budget, yellow
+	 * within 30Hz and red beyond, with the percentiles above it. AnimatedView
+	 * calls this on the render thread when the HUD is on.
+	 *
+	 * @param pCanvas canvas to draw on.
+	 */
+	void DrawHUD(Canvas pCanvas)
+	{
+		float tHeight = pCanvas.getHeight() / 4f;
+		float tBottom = pCanvas.getHeight();
+		float tWidth = pCanvas.getWidth();
+		float tBarWidth = tWidth / mCapacity;
+		float tScale = tHeight / (BUDGET_30HZ * 1.5f);	// nsecs to pixels
+		Paint tPaint = mPaint;
+
+		synchronized(this)
+		{
+			int tCount = recorded();
+			long tFirst = mFrameCount - tCount;
+			float tX = tWidth - tCount * tBarWidth;
+			for(int i = 0; i < tCount; i++, tX += tBarWidth)
+			{
+				long tFrame = mFrames[(int)((tFirst + i) % mCapacity)];
+				tPaint.setColor((tFrame <= BUDGET_60HZ) ? Color.GREEN :
+					((tFrame <= BUDGET_30HZ) ? Color.YELLOW : Color.RED));
+				pCanvas.drawRect(tX, tBottom - Math.min(tFrame * tScale,
+					tHeight), tX + tBarWidth, tBottom, tPaint);
+			}
+
+			tPaint.setColor(Color.WHITE);
+			pCanvas.drawLine(0, tBottom - BUDGET_60HZ * tScale, tWidth,
+				tBottom - BUDGET_60HZ * tScale, tPaint);
+			pCanvas.drawLine(0, tBottom - BUDGET_30HZ * tScale, tWidth,
+				tBottom - BUDGET_30HZ * tScale, tPaint);
+
+			StringBuilder tText = mText;
+			tText.setLength(0);
+			tText.append("p50 ");
+			append_millis(tText, mP50);
+			tText.append("  p95 ");
+			append_millis(tText, mP95);
+			tText.append("  p99 ");
+			append_millis(tText, mP99);
+			tText.append("  max ");
+			append_millis(tText, mWorst);
+			tText.append(" ms");
+			pCanvas.drawText(tText, 0, tText.length(), 4,
+				tBottom - tHeight - 4, tPaint);
+		}
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** @return how many ring slots hold frames. */
+	protected int recorded()
+	{
+		return (int)Math.min(mFrameCount, mCapacity);
+	}
+
+	/** Copies the recorded frame times to mSorted and sorts them. */
+	protected int sort_frames()
+	{
+		int tCount = recorded();
+		System.arraycopy(mFrames, 0, mSorted, 0, tCount);
+		Arrays.sort(mSorted, 0, tCount);
+		return tCount;
+	}
+
+	protected long percentile_of_sorted(int pCount, float pFraction)
+	{
+		if(pCount == 0)
+			return 0;
+		int i = (int)Math.ceil(pFraction * pCount) - 1;
+		return mSorted[Math.max(0, Math.min(i, pCount - 1))];
+	}
+
+	protected void summarize()
+	{
+		int tCount = sort_frames();
+		mP50 = percentile_of_sorted(tCount, 0.50f);
+		mP95 = percentile_of_sorted(tCount, 0.95f);
+		mP99 = percentile_of_sorted(tCount, 0.99f);
+		mWorst = (tCount > 0) ? mSorted[tCount - 1] : 0;
+	}
+
+	protected static String millis(long pNanos)
+	{
+		return Double.toString(pNanos / 1e6);
+	}
+
+	/** Appends nsecs as msecs to one decimal place, without allocating. */
+	protected static void append_millis(StringBuilder oText, long pNanos)
+	{
+		long tTenths = (pNanos + 50000) / 100000;
+		oText.append(tTenths / 10).append('.').append(tTenths % 10);
+	}
+}
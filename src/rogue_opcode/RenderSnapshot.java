@@ -0,0 +1,224 @@
+// RenderSnapshot.java
+// Immutable per-frame draw state handed from the update to the render thread.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+
+
+/**
+ * A {@code RenderSnapshot} is a compact copy of everything the render thread
+ * needs to draw one frame: one {@link Item} per visible {@link ScreenElement},
+ * already in Z order.
+ * <br /><br />
+ * The update thread fills a snapshot at the end of each logic pass and
+ * publishes it; the render thread only ever reads the latest published one.
+ * Three snapshots are preallocated and rotated through a single atomic
+ * exchange slot (a triple buffer), so neither thread ever waits on the other
+ * and neither sees the other's half-written state.
+ *
+ * @see ScreenElement#publish(RenderSnapshot.Item)
+ */
+public class RenderSnapshot
+{
+	/**
+	 * Draw state for one element, as of the end of a logic step. Everything a
+	 * {@code Draw()} implementation reads should come from here rather than
+	 * from the live element, which the update thread may be changing.
+	 */
+	public static class Item
+	{
+		public ScreenElement mSE;		// owner; Draw() is dispatched through it
+		public float mX, mY, mZ;		// logical position
+		public float mLastX, mLastY;	// logical position one step earlier
+		public boolean mTopmost;
+		public boolean mDrawCentered;
+		public Bitmap mImage;			// null if there is nothing to blit
+		public final Rect mFrame = new Rect(); // source rect within mImage
+		public int mWidth, mHeight;		// physical size of the blit
+		public String mText;
+		public float mTextX, mTextY;	// text offset, physical
+		public Paint mTextPaint;
+		public Object mPayload;			// immutable extra state for subclasses
+
+		// culling; mBounds is the drawn extent in canvas units, relative to
+		// the interpolated position times mPosScale
+		public boolean mCullable;		// false if Draw() may reach outside
+		public float mPosScale;			// canvas units per logical unit
+		public final RectF mBounds = new RectF();
+
+		/** @return logical X interpolated for the frame being drawn. */
+		public float X()
+		{
+			return mLastX + (mX - mLastX) * AnimatedView.sAlpha;
+		}
+
+		/** @return logical Y interpolated for the frame being drawn. */
+		public float Y()
+		{
+			return mLastY + (mY - mLastY) * AnimatedView.sAlpha;
+		}
+
+		/**
+		 * @param pView visible area, in canvas units.
+		 * @return {@code false} only if this entry is cullable and lies
+		 *         entirely outside {@code pView}.
+		 */
+		public boolean Intersects(RectF pView)
+		{
+			if(!mCullable)
+				return true;
+			float tX = X() * mPosScale;
+			float tY = Y() * mPosScale;
+			return tX + mBounds.left < pView.right &&
+				tX + mBounds.right > pView.left &&
+				tY + mBounds.top < pView.bottom &&
+				tY + mBounds.bottom > pView.top;
+		}
+
+		void clear()
+		{
+			mSE = null;
+			mImage = null;
+			mText = null;
+			mTextPaint = null;
+			mPayload = null;
+		}
+	}
+
+	public Item[] mItems;
+	public int mCount;
+
+	// logical X of the view's keep-centered element, or NaN if there's none
+	public float mCenterX;
+
+	// timing of the logic step this snapshot was taken after
+	protected long mPublishTime;
+	protected float mAlphaBase;
+	protected long mPeriod;
+
+	// triple buffer; the exchange slot holds a buffer index plus a FRESH flag
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4;
+	private static final RenderSnapshot[] sBuffers = new RenderSnapshot[] {
+		new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot() };
+	private static final AtomicInteger sExchange = new AtomicInteger(1);
+	private static int sWriteIndex = 0;	// owned by the update thread
+	private static int sReadIndex = 2;	// owned by the render thread
+
+	// c'tor ///////////////////////////////////////////////////////////////////
+
+	protected RenderSnapshot()
+	{
+		mItems = new Item[0];
+		mCount = 0;
+		mCenterX = Float.NaN;
+		mPeriod = 1;
+	}
+
+	// update thread side //////////////////////////////////////////////////////
+
+	/**
+	 * Captures every visible {@code ScreenElement} into the back buffer and
+	 * makes it the latest frame. Call from the update thread only.
+	 *
+	 * @param pAccumulator time banked toward the next logic step, in msecs.
+	 * @param pPeriod length of a logic step, in msecs.
+	 */
+	static void Publish(long pAccumulator, long pPeriod)
+	{
+		RenderSnapshot tFrame = sBuffers[sWriteIndex];
+		long tStart = Profiler.Begin();
+		ScreenElement.sAllSEs.SortIfDirty();
+		Profiler.End(Profiler.SORT, tStart);
+		GraphicResource.NextFrame();
+
+		int tSize = ScreenElement.sAllSEs.size;
+		tFrame.reserve(tSize);
+		Item[] tItems = tFrame.mItems;
+		int tCount = 0;
+		for(int i = 0; i < tSize; i++)
+		{
+			ScreenElement tSE = ScreenElement.sAllSEs.At(i);
+			if(!tSE.Visible())
+				continue;
+			Item tItem = tItems[tCount];
+			tItem.mSE = tSE;
+			tSE.publish(tItem);
+			tCount++;
+		}
+		// drop references left over from a busier frame
+		for(int i = tCount; i < tFrame.mCount; i++)
+			tItems[i].clear();
+		tFrame.mCount = tCount;
+
+		AnimatedView tView = AnimatedView.sOnly;
+		ScreenElement tCentered = (tView != null) ? tView.mKeepCenteredSE :
+			null;
+		tFrame.mCenterX = (tCentered != null) ? tCentered.mPos.x : Float.NaN;
+
+		tFrame.mPublishTime = SystemClock.uptimeMillis();
+		tFrame.mAlphaBase = (float)pAccumulator / pPeriod;
+		tFrame.mPeriod = pPeriod;
+
+		sWriteIndex = sExchange.getAndSet(sWriteIndex | FRESH) & INDEX_MASK;
+	}
+
+	private void reserve(int pCount)
+	{
+		Item[] tOld = mItems;
+		if(pCount <= tOld.length)
+			return;
+		int tCapacity = Math.max(pCount, tOld.length << 1);
+		Item[] tItems = new Item[tCapacity];
+		System.arraycopy(tOld, 0, tItems, 0, tOld.length);
+		for(int i = tOld.length; i < tCapacity; i++)
+			tItems[i] = new Item();
+		mItems = tItems;
+	}
+
+	// render thread side //////////////////////////////////////////////////////
+
+	/**
+	 * Returns the most recently published snapshot. If nothing new has been
+	 * published since the last call, the same snapshot is returned again so it
+	 * can be redrawn with a later interpolation alpha. Call from the render
+	 * thread only.
+	 *
+	 * @return the latest snapshot.
+	 */
+	static RenderSnapshot Latest()
+	{
+		if((sExchange.get() & FRESH) != 0)
+			sReadIndex = sExchange.getAndSet(sReadIndex) & INDEX_MASK;
+		return sBuffers[sReadIndex];
+	}
+
+	/**
+	 * @param pNow current uptime, in msecs.
+	 * @return how far past this snapshot's logic step we are, in the range
+	 *         [0, 1].
+	 */
+	public float Alpha(long pNow)
+	{
+		float tAlpha = mAlphaBase + (float)(pNow - mPublishTime) / mPeriod;
+		return (tAlpha > 1.0f) ? 1.0f : tAlpha;
+	}
+}
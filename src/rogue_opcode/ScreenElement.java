@@ -16,11 +16,13 @@ package rogue_opcode;
 
 import java.util.Comparator;
 
+import rogue_opcode.containers.Array;
 import rogue_opcode.containers.LazySortedArray;
 import rogue_opcode.geometrics.XYZf;
 import rogue_opcode.geometrics.XYf;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.RectF;
 import android.util.Log;
 
 
@@ -42,8 +44,10 @@ public class ScreenElement extends ActionElement
 	public boolean mTopmost;				//If true this will be drawn in the
 											//mEffectsHookBitmap after all non topmost SEs have been drawn
 
-	public XYZf mPos;
+	public XYZf mPos;						//set z through ZDepth(), or sAllSEs won't re-sort
 	public XYZf mVel;
+	public XYZf mLastPos;					//mPos as of the previous logic step; Draw() blends
+											//from here toward mPos by AnimatedView.sAlpha
 
 	public XYZf mTextOffset;				//offset for text drawing relative to the adjusted mPos TODO - in what coordinates?
 											//TODO - add coordinate scaling and accessor methods
@@ -62,10 +66,41 @@ public class ScreenElement extends ActionElement
 
 	protected Paint mTextPaint;
 
+	// SpatialGrid bookkeeping; an intrusive bucket list plus the cell and
+	// position this element was last binned at
+	transient ScreenElement mGridNext, mGridPrev;
+	transient int mGridBucket = -1;
+	transient int mGridCX, mGridCY;
+	transient float mGridX, mGridY;
+	transient int mGridSerial;
+
+	// EntityStore slot, if this element's motion state lives there
+	transient EntityStore mStore;
+	transient int mSlot = -1;
+
+	// Steering slot while a moveTo() is in flight
+	transient int mMoveSlot = -1;
+
+	// unloaded elements still waiting in sAllSEs for sweep()
+	protected static int sUnloadedSEs;
+	protected static final Array.Filter<ScreenElement> sIsUnloaded =
+		new Array.Filter<ScreenElement>()
+		{
+			@Override
+			public boolean Matches(ScreenElement pSE)
+			{
+				return !pSE.Loaded();
+			}
+		};
+
 	// sorted on Z depth
 	// XXX: may be inefficient; keep an eye on performance
 	public static LazySortedArray<ScreenElement> sAllSEs;
 	public static int sActiveSECount = 0;
+	public static int sDrawnSECount = 0;	// of those, how many were on screen
+	public static int sCulledSECount = 0;	// ...and how many were skipped
+
+	private static final RectF sDrawDest = new RectF();	// render thread only
 
 	static
 	{
@@ -124,15 +159,14 @@ public class ScreenElement extends ActionElement
 
 	protected void init(int pResourceID, String pText, int pX, int pY)
 	{
-		if(pResourceID != 0)
-			mGR = GraphicResource.FindGR(pResourceID);
-		else
-			mGR = null;
+		// starts a background load if nobody has loaded this resource yet
+		mGR = GraphicResource.Acquire(pResourceID);
 
 		mCurrentGRResourceID = pResourceID;
 
 		mPos = new XYZf(pX, pY, 100);
 		mVel = new XYZf();
+		mLastPos = new XYZf(mPos);
 
 		mTextOffset = new XYZf(0,0,0);
 		mText = pText;
@@ -152,6 +186,9 @@ public class ScreenElement extends ActionElement
 		{
 			e.printStackTrace();
 		}
+
+		if(SpatialGrid.sOnly != null)
+			SpatialGrid.sOnly.Insert(this);
 	}
 
 	//In theory we can call unload on an SE to remove it's reference from the list of all SEs
@@ -160,34 +197,55 @@ public class ScreenElement extends ActionElement
 	//An example scenario could be a situation where you have a dynamic menu structure that uses SEs
 	//to draw itself.  These SEs are generated (new) automatically as menu items are added.  We want
 	//to be able to call RemoveMenuItem() and have the associated SE go away permanently (not just invisible).
-	public void Unload() {//iterate over array to find and then remove
-		for (int i=0;i<sAllSEs.size;i++)
-			if (sAllSEs.At(i) == this) {
-				sAllSEs.Remove(i);
-				break;
-			}
+	public void Unload() {
+		if(!Loaded())
+			return;
+		if(mMoveSlot >= 0)
+			Steering.sOnly.Stop(this);
+		if(mStore != null)
+			mStore.Detach(this);
+		if(SpatialGrid.sOnly != null)
+			SpatialGrid.sOnly.Remove(this);
 
-		for (int i=0;i<sAllAEs.size;i++)
-			if (sAllAEs.At(i) == this) {
-				sAllAEs.Remove(i);
-				break;
-			}
+		// stop drawing now; sweep() drops it from sAllSEs at a safe point
+		mVisible = false;
+		sUnloadedSEs++;
 
-		//TODO - MUST ENSURE THAT THIS IS REALLY WORKING OR WE WILL "LEAK" ALL OVER THE PLACE!
-}
+		super.Unload();
+	}
+
+	/**
+	 * Drops unloaded elements from {@link #sAllSEs} in one pass. GameProc
+	 * calls this at the end of every logic step, outside any iteration.
+	 */
+	static void sweep()
+	{
+		if(sUnloadedSEs == 0)
+			return;
+		sAllSEs.RemoveIf(sIsUnloaded);
+		sUnloadedSEs = 0;
+	}
 
 	// public interfaces ///////////////////////////////////////////////////////
 
 	public void Hibernate()
 	{
 		Visible(false); // Turn off drawing
-		mActive = false; // stop calling update function
+		Active(false); // stop calling update function
 	}
 
 	public void Wake()
 	{
 		Visible(true);
-		mActive = true;
+		Active(true);
+	}
+
+	@Override
+	public void Active(boolean pActive)
+	{
+		mActive = pActive;
+		if(mStore != null)
+			mStore.mActive[mSlot] = pActive;
 	}
 
 	public boolean Visible()
@@ -198,6 +256,8 @@ public class ScreenElement extends ActionElement
 	public void Visible(boolean pVisible)
 	{
 		mVisible = pVisible;
+		if(mStore != null)
+			mStore.mVisible[mSlot] = pVisible;
 	}
 
 	public boolean Topmost()
@@ -213,7 +273,7 @@ public class ScreenElement extends ActionElement
 	public void SetCurrentGR(int pResourceID)
 	{
 		mCurrentGRResourceID = pResourceID;
-		mGR = GraphicResource.FindGR(pResourceID);
+		mGR = GraphicResource.Acquire(pResourceID);
 	}
 
 	public GraphicResource getCurrentGR()
@@ -223,39 +283,45 @@ public class ScreenElement extends ActionElement
 
 	public Boolean WithinRange(ScreenElement pTargetSE, float pRadius)
 	{
-		XYf tXYf = new XYf(pTargetSE.mPos);
+		float tX = pTargetSE.mPos.x;
+		float tY = pTargetSE.mPos.y;
 
 		if (!pTargetSE.mDrawCentered) {
-			tXYf.x -= (pTargetSE.Width() / 2);
-			tXYf.y -= (pTargetSE.Height() / 2);
+			tX -= (pTargetSE.Width() / 2);
+			tY -= (pTargetSE.Height() / 2);
 		}
 
-		return WithinRange(tXYf, pRadius);
+		return WithinRange(tX, tY, pRadius, pRadius);
 	}
 
 	public Boolean WithinRange(XYf pTarget, float pRadius)
 	{
-		return WithinRange(pTarget, pRadius, pRadius);
+		return WithinRange(pTarget.x, pTarget.y, pRadius, pRadius);
 	}
 
 	public Boolean WithinRange(XYf pTarget, float pXRadius, float pYRadius)
+	{
+		return WithinRange(pTarget.x, pTarget.y, pXRadius, pYRadius);
+	}
+
+	public boolean WithinRange(float pTargetX, float pTargetY, float pXRadius,
+		float pYRadius)
 	{
 		if (!Visible())
 			return false;
 
-		XYf tXYf = new XYf(mPos);
+		float tX = mPos.x;
+		float tY = mPos.y;
 
 		if (!mDrawCentered) {
-			tXYf.x += (Width() / 2);
-			tXYf.y += (Height() / 2);
+			tX += (Width() / 2);
+			tY += (Height() / 2);
 		}
 
-		if( (tXYf.x < (pTarget.x + pXRadius)) &&
-				(tXYf.x > (pTarget.x - pXRadius)) &&
-				(tXYf.y < (pTarget.y + pYRadius)) &&
-				(tXYf.y > (pTarget.y - pYRadius)) )
-			return true;
-		return false;
+		return (tX < (pTargetX + pXRadius)) &&
+				(tX > (pTargetX - pXRadius)) &&
+				(tY < (pTargetY + pYRadius)) &&
+				(tY > (pTargetY - pYRadius));
 	}
 
 	public void DrawCentered(boolean pDrawCentered)
@@ -278,6 +344,25 @@ public class ScreenElement extends ActionElement
 		return (mGR != null) ? mGR.VirtualHeight() : 0;
 	}
 
+	/**
+	 * Computes this element's extent in logical coordinates. SpatialGrid uses
+	 * this for binning and rectangle queries; override it if the element
+	 * draws something other than its current GR.
+	 *
+	 * @param oBounds receives the bounds.
+	 */
+	public void Bounds(RectF oBounds)
+	{
+		float tW = Width(), tH = Height();
+		float tLeft = mPos.x, tTop = mPos.y;
+		if(mDrawCentered)
+		{
+			tLeft -= tW / 2;
+			tTop -= tH / 2;
+		}
+		oBounds.set(tLeft, tTop, tLeft + tW, tTop + tH);
+	}
+
 	public String Text()
 	{
 		return mText;
@@ -297,6 +382,40 @@ public class ScreenElement extends ActionElement
 	{
 		mPos.x = pX;
 		mPos.y = pY;
+		if(mStore != null)
+		{
+			mStore.mX[mSlot] = pX;
+			mStore.mY[mSlot] = pY;
+		}
+		if(SpatialGrid.sOnly != null)
+			SpatialGrid.sOnly.Move(this);
+	}
+
+	public XYf Vel()
+	{
+		return mVel;
+	}
+
+	public void Vel(float pX, float pY)
+	{
+		mVel.x = pX;
+		mVel.y = pY;
+		if(mStore != null)
+		{
+			mStore.mVX[mSlot] = pX;
+			mStore.mVY[mSlot] = pY;
+		}
+	}
+
+	/**
+	 * Moves to the given position without blending from the old one on the
+	 * next drawn frames. Use this for teleports and respawns.
+	 */
+	public void Warp(float pX, float pY)
+	{
+		Pos(pX, pY);
+		mLastPos.x = pX;
+		mLastPos.y = pY;
 	}
 
 	public float ZDepth()
@@ -307,16 +426,51 @@ public class ScreenElement extends ActionElement
 	public void ZDepth(float pZ)
 	{
 		mPos.z = pZ;
+		if(mStore != null)
+			mStore.mZ[mSlot] = pZ;
 		sAllSEs.mDirty = true;
 	}
 
 	public void moveTo(float pSpeed, XYf pDestination) {
-		mSelfGuided = true;
-
-		mSelfGuidedDestination.x = pDestination.x;
-		mSelfGuidedDestination.y = pDestination.y;
+		moveTo(pSpeed, pDestination, null);
+	}
 
+	/**
+	 * Travels to a destination at constant speed, replacing any move already
+	 * in progress.
+	 *
+	 * @param pSpeed logical units per logic step.
+	 * @param pDestination where to go, logical.
+	 * @param pListener notified on arrival; may be {@code null}.
+	 */
+	public void moveTo(float pSpeed, XYf pDestination,
+		Steering.ArrivalListener pListener)
+	{
 		mSelfGuidedSpeed = pSpeed;
+		Steering.sOnly.Start(this, pDestination.x, pDestination.y, pSpeed,
+			pListener);
+	}
+
+	/**
+	 * Travels to a destination in a fixed time along an easing curve,
+	 * replacing any move already in progress.
+	 *
+	 * @param pDestination where to go, logical.
+	 * @param pMsecs how long the move takes.
+	 * @param pEasing progress curve.
+	 * @param pListener notified on arrival; may be {@code null}.
+	 */
+	public void moveTo(XYf pDestination, long pMsecs, Steering.Easing pEasing,
+		Steering.ArrivalListener pListener)
+	{
+		Steering.sOnly.Start(this, pDestination.x, pDestination.y, pMsecs,
+			pEasing, pListener);
+	}
+
+	/** Abandons a move in progress, leaving this element where it is. */
+	public void StopMoving()
+	{
+		Steering.sOnly.Stop(this);
 	}
 
 	//Query if a self-guided SE has reached its destination
@@ -337,54 +491,130 @@ public class ScreenElement extends ActionElement
 	@Override
 	public void Update()
 	{
-		if(mSelfGuided) {
-			double xDist = mSelfGuidedDestination.x - mPos.x;
-			double yDist = mSelfGuidedDestination.y - mPos.y;
+		// moveTo() is advanced in bulk by Steering.Advance()
+	}
 
-			double tDistance = Math.sqrt(Math.pow(xDist,2) + Math.pow(yDist,2));
+	/**
+	 * Records every element's current position as its previous one. GameProc
+	 * calls this at the start of each fixed logic step.
+	 */
+	static void SaveLastPositions()
+	{
+		for(int i = 0; i < sAllSEs.size; i++)
+		{
+			ScreenElement tSE = sAllSEs.At(i);
+			tSE.mLastPos.set(tSE.mPos);
+		}
+	}
 
-			if (tDistance != 0) {
-				mVel.x = (float)(xDist / tDistance) * mSelfGuidedSpeed;
-				mVel.y = (float)(yDist / tDistance) * mSelfGuidedSpeed;
-			}
+	/**
+	 * Copies this element's draw state into a render snapshot entry. The
+	 * update thread calls this once per published frame for every visible
+	 * element; {@link #Draw()} later reads only the entry, never the live
+	 * fields. Override (and call through) if your {@code Draw()} needs more.
+	 * <br /><br />
+	 * The entry's bounds decide whether AnimatedView bothers calling
+	 * {@code Draw()} at all. If your {@code Draw()} paints outside the current
+	 * GR's rectangle, fix up {@code oItem.mBounds} or clear
+	 * {@code oItem.mCullable}.
+	 *
+	 * @param oItem snapshot entry to fill in.
+	 */
+	protected void publish(RenderSnapshot.Item oItem)
+	{
+		oItem.mX = mPos.x;
+		oItem.mY = mPos.y;
+		oItem.mZ = mPos.z;
+		oItem.mLastX = mLastPos.x;
+		oItem.mLastY = mLastPos.y;
+		oItem.mTopmost = mTopmost;
+		oItem.mDrawCentered = mDrawCentered;
+
+		if(mGR == null)
+		{
+			//We are trying to draw an empty GR - lets see if it has recently been loaded
+			SetCurrentGR(mCurrentGRResourceID);
+		}
+		// Use() reloads evicted GRs and keeps drawn ones from being evicted
+		GraphicResource tGR = mGR;
+		if((tGR != null) && !tGR.Use())
+		{
+			tGR = GraphicResource.sPlaceholder;
+			if((mGR.State() != GraphicResource.LOADING) ||
+				(tGR != null && !tGR.Use()))
+				tGR = null;
+		}
+		if(tGR != null)
+		{
+			oItem.mImage = tGR.mImage;
+			oItem.mWidth = tGR.PhysicalWidth();
+			oItem.mHeight = tGR.PhysicalHeight();
+			oItem.mFrame.set(tGR.mSrcRect);
+		}
+		else
+		{
+			oItem.mImage = null;
+			oItem.mWidth = oItem.mHeight = 0;
+		}
 
-			mPos.add(mVel);
+		oItem.mPosScale = (AnimatedView.sOnly != null) ?
+			AnimatedView.sOnly.mPreScaler : 1.0f;
+		if(mDrawCentered)
+			oItem.mBounds.set(-oItem.mWidth / 2, -oItem.mHeight / 2,
+				oItem.mWidth / 2, oItem.mHeight / 2);
+		else
+			oItem.mBounds.set(0, 0, oItem.mWidth, oItem.mHeight);
+		// we don't measure text here, so anything with text always draws
+		oItem.mCullable = (mText == null || mText.length() == 0);
 
-			if (tDistance <= mSelfGuidedSpeed) {
-				mSelfGuided = false;
-				mPos.x = mSelfGuidedDestination.x;
-				mPos.y = mSelfGuidedDestination.y;
-			}
-		}
+		oItem.mText = mText;
+		oItem.mTextX = mTextOffset.x;
+		oItem.mTextY = mTextOffset.y;
+		oItem.mTextPaint = mTextPaint;
+		oItem.mPayload = null;
+	}
+
+	/** @return logical X position interpolated for the frame being drawn. */
+	protected float draw_x()
+	{
+		return AnimatedView.sCurrentItem.X();
+	}
+
+	/** @return logical Y position interpolated for the frame being drawn. */
+	protected float draw_y()
+	{
+		return AnimatedView.sCurrentItem.Y();
 	}
 
 	/**
-	 * AnimatedView will call this interface at draw time. Override in your
-	 * derived class to do something more than draw the currentGR at it's
-	 * current {@code mPos} coordinates.
+	 * AnimatedView will call this interface at draw time, on the render
+	 * thread. Override in your derived class to do something more than draw
+	 * the currentGR at its published position; read state from
+	 * {@code AnimatedView.sCurrentItem} (see {@link #publish}), not from this
+	 * element's fields.
 	 */
 	public void Draw()
 	{
+		RenderSnapshot.Item tItem = AnimatedView.sCurrentItem;
 		Canvas tCanvas = AnimatedView.sCurrentCanvas;
-		float tX = mPos.x * AnimatedView.sOnly.mPreScaler;
-		float tY = mPos.y * AnimatedView.sOnly.mPreScaler;
-		if((mGR != null) && mGR.Valid()) {
-			if (mDrawCentered)
+		float tX = tItem.X() * AnimatedView.sOnly.mPreScaler;
+		float tY = tItem.Y() * AnimatedView.sOnly.mPreScaler;
+		if(tItem.mImage != null) {
+			if (tItem.mDrawCentered)
 			{
-				tX -= ((mGR.PhysicalWidth()) / 2);
-				tY -= ((mGR.PhysicalHeight()) / 2);
+				tX -= (tItem.mWidth / 2);
+				tY -= (tItem.mHeight / 2);
 			}
-			tCanvas.drawBitmap(mGR.mImage, tX, tY, null);
-		} else {
-			//We are trying to draw an empty GR - lets see if it has recently been loaded
-			SetCurrentGR(mCurrentGRResourceID);
+			// blit just our part of the image, in case it's an atlas sheet
+			sDrawDest.set(tX, tY, tX + tItem.mWidth, tY + tItem.mHeight);
+			tCanvas.drawBitmap(tItem.mImage, tItem.mFrame, sDrawDest, null);
 		}
-		if(mText != null && mText.length() > 0) {
+		String tText = tItem.mText;
+		if(tText != null && tText.length() > 0) {
 			Paint tPaint = AnimatedView.sOnly.mPaint;
-			if (mTextPaint != null)
-				tPaint = mTextPaint;
-			tCanvas.drawText(mText, tX + mTextOffset.x, tY + mTextOffset.y, tPaint);
+			if (tItem.mTextPaint != null)
+				tPaint = tItem.mTextPaint;
+			tCanvas.drawText(tText, tX + tItem.mTextX, tY + tItem.mTextY, tPaint);
 		}
 	}
 }
-
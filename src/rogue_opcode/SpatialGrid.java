@@ -0,0 +1,405 @@
+// SpatialGrid.java
+// Spatial hash broad-phase for ScreenElement range and collision queries.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import rogue_opcode.containers.Array;
+import android.graphics.RectF;
+
+
+/**
+ * {@code SpatialGrid} buckets every {@link ScreenElement} by the uniform grid
+ * cell that contains the center of its {@link ScreenElement#Bounds(RectF)
+ * bounds}, so that range and collision queries only have to look at nearby
+ * elements instead of all of {@code ScreenElement.sAllSEs}.
+ * <br /><br />
+ * The grid is unbounded: cells are hashed into a fixed, power-of-two table of
+ * buckets, and each bucket is an intrusive linked list threaded through the
+ * elements themselves. Moving an element between cells is a couple of pointer
+ * swaps, and no query allocates anything.
+ * <br /><br />
+ * The grid is opt-in. Constructing one makes it the active grid ({@link
+ * #sOnly}); from then on elements bin themselves as they are created, move
+ * via {@code Update()} or {@code Pos()}, and are unloaded. If your own
+ * {@code Update()} writes {@code mPos} directly without calling through,
+ * GameProc catches the move at the end of the logic step.
+ * <br /><br />
+ * Queries skip invisible elements, as {@code WithinRange()} does. Call them
+ * from the update thread.
+ */
+public class SpatialGrid
+{
+	/** Default number of hash buckets. */
+	public static final int DEFAULT_BUCKETS = 1024;
+
+	/** The active grid, or {@code null} if spatial indexing is off. */
+	public static SpatialGrid sOnly;
+
+	protected final float mCellSize;
+	protected final float mInvCellSize;
+	protected final int mMask;
+	protected final ScreenElement[] mBuckets;
+	protected int mCount;
+	protected int mSerial;
+
+	// Largest half-extents ever binned. An element may overhang its cell by
+	// this much, so queries widen their cell range accordingly.
+	protected float mMaxHalfW, mMaxHalfH;
+
+	private final RectF mScratch = new RectF();
+
+	/**
+	 * Receives the results of {@link SpatialGrid#CollidingPairs(PairVisitor)}.
+	 */
+	public interface PairVisitor
+	{
+		/**
+		 * Called once for each pair of overlapping {@code Spritey}s.
+		 *
+		 * @param pA one colliding sprite.
+		 * @param pB the other.
+		 */
+		public void Visit(Spritey pA, Spritey pB);
+	}
+
+	// c'tors //////////////////////////////////////////////////////////////////
+
+	/**
+	 * Constructs a grid with {@link #DEFAULT_BUCKETS} buckets and makes it the
+	 * active grid.
+	 *
+	 * @param pCellSize cell edge length, in logical units. Something near the
+	 *        size of your typical moving element works best.
+	 */
+	public SpatialGrid(float pCellSize)
+	{
+		this(pCellSize, DEFAULT_BUCKETS);
+	}
+
+	/**
+	 * Constructs a grid and makes it the active grid. Every existing
+	 * {@code ScreenElement} is binned immediately.
+	 *
+	 * @param pCellSize cell edge length, in logical units.
+	 * @param pBuckets number of hash buckets; rounded up to a power of two.
+	 */
+	public SpatialGrid(float pCellSize, int pBuckets)
+	{
+		int tBuckets = 1;
+		while(tBuckets < pBuckets)
+			tBuckets <<= 1;
+
+		mCellSize = pCellSize;
+		mInvCellSize = 1.0f / pCellSize;
+		mMask = tBuckets - 1;
+		mBuckets = new ScreenElement[tBuckets];
+
+		sOnly = this;
+		for(int i = 0; i < ScreenElement.sAllSEs.size; i++)
+			Insert(ScreenElement.sAllSEs.At(i));
+	}
+
+	// maintenance /////////////////////////////////////////////////////////////
+
+	/**
+	 * Adds an element to the grid. Elements do this themselves on creation.
+	 *
+	 * @param pSE element to add.
+	 */
+	public void Insert(ScreenElement pSE)
+	{
+		if(pSE.mGridBucket >= 0)
+			return;
+		pSE.mGridSerial = mSerial++;
+		rebin(pSE);
+		mCount++;
+	}
+
+	/**
+	 * Removes an element from the grid. {@code ScreenElement.Unload()} does
+	 * this for you.
+	 *
+	 * @param pSE element to remove.
+	 */
+	public void Remove(ScreenElement pSE)
+	{
+		if(pSE.mGridBucket < 0)
+			return;
+		unlink(pSE);
+		mCount--;
+	}
+
+	/**
+	 * Re-bins an element after it has moved. This is cheap when the element
+	 * stays within its cell.
+	 *
+	 * @param pSE element that moved.
+	 */
+	public void Move(ScreenElement pSE)
+	{
+		// buckets aren't thread-safe; Refresh() catches it at end of step
+		if(UpdateScheduler.sInParallel)
+			return;
+		if(pSE.mGridBucket >= 0)
+			rebin(pSE);
+	}
+
+	/**
+	 * Re-bins any element whose position changed since it was last binned.
+	 * GameProc calls this once at the end of every logic step.
+	 */
+	public void Refresh()
+	{
+		for(int i = 0; i < ScreenElement.sAllSEs.size; i++)
+		{
+			ScreenElement tSE = ScreenElement.sAllSEs.At(i);
+			if(tSE.mGridBucket >= 0 &&
+				(tSE.mPos.x != tSE.mGridX || tSE.mPos.y != tSE.mGridY))
+				rebin(tSE);
+		}
+	}
+
+	public int Count()
+	{
+		return mCount;
+	}
+
+	public float CellSize()
+	{
+		return mCellSize;
+	}
+
+	// queries /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Finds every visible element whose bounds center lies within
+	 * {@code pRadius} of the given point.
+	 *
+	 * @param pX query point X, logical.
+	 * @param pY query point Y, logical.
+	 * @param pRadius query radius, logical.
+	 * @param oResults cleared, then filled with the matches.
+	 * @return the number of matches.
+	 */
+	public int QueryRadius(float pX, float pY, float pRadius,
+		Array<ScreenElement> oResults)
+	{
+		oResults.size = 0;
+		float tRadiusSq = pRadius * pRadius;
+		int tX0 = cell(pX - pRadius), tX1 = cell(pX + pRadius);
+		int tY0 = cell(pY - pRadius), tY1 = cell(pY + pRadius);
+
+		if(too_many_cells(tX0, tY0, tX1, tY1))
+		{
+			for(int i = 0; i < ScreenElement.sAllSEs.size; i++)
+			{
+				ScreenElement tSE = ScreenElement.sAllSEs.At(i);
+				if(tSE.mGridBucket >= 0 &&
+					within_radius(tSE, pX, pY, tRadiusSq))
+					oResults.Append(tSE);
+			}
+			return oResults.size;
+		}
+
+		for(int tCY = tY0; tCY <= tY1; tCY++)
+			for(int tCX = tX0; tCX <= tX1; tCX++)
+				for(ScreenElement tSE = mBuckets[bucket(tCX, tCY)];
+					tSE != null; tSE = tSE.mGridNext)
+				{
+					if(tSE.mGridCX == tCX && tSE.mGridCY == tCY &&
+						within_radius(tSE, pX, pY, tRadiusSq))
+						oResults.Append(tSE);
+				}
+		return oResults.size;
+	}
+
+	/**
+	 * Finds every visible element whose bounds overlap the given rectangle.
+	 *
+	 * @param pLeft rectangle left edge, logical.
+	 * @param pTop rectangle top edge, logical.
+	 * @param pRight rectangle right edge, logical.
+	 * @param pBottom rectangle bottom edge, logical.
+	 * @param oResults cleared, then filled with the matches.
+	 * @return the number of matches.
+	 */
+	public int QueryRect(float pLeft, float pTop, float pRight, float pBottom,
+		Array<ScreenElement> oResults)
+	{
+		oResults.size = 0;
+		int tX0 = cell(pLeft - mMaxHalfW), tX1 = cell(pRight + mMaxHalfW);
+		int tY0 = cell(pTop - mMaxHalfH), tY1 = cell(pBottom + mMaxHalfH);
+
+		if(too_many_cells(tX0, tY0, tX1, tY1))
+		{
+			for(int i = 0; i < ScreenElement.sAllSEs.size; i++)
+			{
+				ScreenElement tSE = ScreenElement.sAllSEs.At(i);
+				if(tSE.mGridBucket >= 0 &&
+					overlaps(tSE, pLeft, pTop, pRight, pBottom))
+					oResults.Append(tSE);
+			}
+			return oResults.size;
+		}
+
+		for(int tCY = tY0; tCY <= tY1; tCY++)
+			for(int tCX = tX0; tCX <= tX1; tCX++)
+				for(ScreenElement tSE = mBuckets[bucket(tCX, tCY)];
+					tSE != null; tSE = tSE.mGridNext)
+				{
+					if(tSE.mGridCX == tCX && tSE.mGridCY == tCY &&
+						overlaps(tSE, pLeft, pTop, pRight, pBottom))
+						oResults.Append(tSE);
+				}
+		return oResults.size;
+	}
+
+	/**
+	 * Reports every pair of visible {@code Spritey}s whose bounding boxes
+	 * overlap. Each pair is reported once. Sprites without a bounding box are
+	 * ignored.
+	 *
+	 * @param pVisitor receives each colliding pair.
+	 * @return the number of pairs reported.
+	 */
+	public int CollidingPairs(PairVisitor pVisitor)
+	{
+		int tPairs = 0;
+		int tSpanX = (int)Math.ceil(2 * mMaxHalfW * mInvCellSize);
+		int tSpanY = (int)Math.ceil(2 * mMaxHalfH * mInvCellSize);
+
+		for(int i = 0; i < ScreenElement.sAllSEs.size; i++)
+		{
+			ScreenElement tSE = ScreenElement.sAllSEs.At(i);
+			if(!(tSE instanceof Spritey) || tSE.mGridBucket < 0 ||
+				!tSE.Visible())
+				continue;
+			Spritey tA = (Spritey)tSE;
+			if(tA.boundingBox == null)
+				continue;
+			RectF tBoxA = tA.boundingBox.toRectF();
+
+			for(int tCY = tA.mGridCY - tSpanY; tCY <= tA.mGridCY + tSpanY; tCY++)
+				for(int tCX = tA.mGridCX - tSpanX; tCX <= tA.mGridCX + tSpanX;
+					tCX++)
+					for(ScreenElement tOther = mBuckets[bucket(tCX, tCY)];
+						tOther != null; tOther = tOther.mGridNext)
+					{
+						// report each pair from its older member only
+						if(tOther.mGridSerial <= tA.mGridSerial ||
+							tOther.mGridCX != tCX || tOther.mGridCY != tCY ||
+							!(tOther instanceof Spritey) || !tOther.Visible())
+							continue;
+						Spritey tB = (Spritey)tOther;
+						if(tB.boundingBox != null &&
+							RectF.intersects(tBoxA, tB.boundingBox.toRectF()))
+						{
+							pVisitor.Visit(tA, tB);
+							tPairs++;
+						}
+					}
+		}
+		return tPairs;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	protected int cell(float pCoord)
+	{
+		return (int)Math.floor(pCoord * mInvCellSize);
+	}
+
+	protected int bucket(int pCX, int pCY)
+	{
+		return ((pCX * 0x8da6b343) ^ (pCY * 0xd8163841)) & mMask;
+	}
+
+	/**
+	 * Past a point, walking every cell in the query range costs more than
+	 * just checking every element.
+	 */
+	protected boolean too_many_cells(int pX0, int pY0, int pX1, int pY1)
+	{
+		long tCells = (long)(pX1 - pX0 + 1) * (pY1 - pY0 + 1);
+		return tCells > mCount;
+	}
+
+	protected boolean within_radius(ScreenElement pSE, float pX, float pY,
+		float pRadiusSq)
+	{
+		if(!pSE.Visible())
+			return false;
+		RectF tBounds = mScratch;
+		pSE.Bounds(tBounds);
+		float tDX = (tBounds.left + tBounds.right) * 0.5f - pX;
+		float tDY = (tBounds.top + tBounds.bottom) * 0.5f - pY;
+		return tDX * tDX + tDY * tDY <= pRadiusSq;
+	}
+
+	protected boolean overlaps(ScreenElement pSE, float pLeft, float pTop,
+		float pRight, float pBottom)
+	{
+		if(!pSE.Visible())
+			return false;
+		RectF tBounds = mScratch;
+		pSE.Bounds(tBounds);
+		return tBounds.left < pRight && pLeft < tBounds.right &&
+			tBounds.top < pBottom && pTop < tBounds.bottom;
+	}
+
+	/** Moves an element to the bucket for its current cell, if it changed. */
+	protected void rebin(ScreenElement pSE)
+	{
+		RectF tBounds = mScratch;
+		pSE.Bounds(tBounds);
+		float tHalfW = (tBounds.right - tBounds.left) * 0.5f;
+		float tHalfH = (tBounds.bottom - tBounds.top) * 0.5f;
+		if(tHalfW > mMaxHalfW)
+			mMaxHalfW = tHalfW;
+		if(tHalfH > mMaxHalfH)
+			mMaxHalfH = tHalfH;
+
+		int tCX = cell(tBounds.left + tHalfW);
+		int tCY = cell(tBounds.top + tHalfH);
+		pSE.mGridX = pSE.mPos.x;
+		pSE.mGridY = pSE.mPos.y;
+		if(pSE.mGridBucket >= 0 && tCX == pSE.mGridCX && tCY == pSE.mGridCY)
+			return; // same cell; nothing to do
+
+		if(pSE.mGridBucket >= 0)
+			unlink(pSE);
+		int tBucket = bucket(tCX, tCY);
+		ScreenElement tHead = mBuckets[tBucket];
+		pSE.mGridCX = tCX;
+		pSE.mGridCY = tCY;
+		pSE.mGridBucket = tBucket;
+		pSE.mGridPrev = null;
+		pSE.mGridNext = tHead;
+		if(tHead != null)
+			tHead.mGridPrev = pSE;
+		mBuckets[tBucket] = pSE;
+	}
+
+	protected void unlink(ScreenElement pSE)
+	{
+		if(pSE.mGridPrev != null)
+			pSE.mGridPrev.mGridNext = pSE.mGridNext;
+		else
+			mBuckets[pSE.mGridBucket] = pSE.mGridNext;
+		if(pSE.mGridNext != null)
+			pSE.mGridNext.mGridPrev = pSE.mGridPrev;
+		pSE.mGridNext = pSE.mGridPrev = null;
+		pSE.mGridBucket = -1;
+	}
+}
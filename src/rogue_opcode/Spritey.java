@@ -16,7 +16,6 @@ package rogue_opcode;
 
 import rogue_opcode.geometrics.Rectangle;
 import rogue_opcode.geometrics.Rectanglef;
-import rogue_opcode.geometrics.XYf;
 import android.graphics.Canvas;
 import android.graphics.RectF;
 
@@ -35,6 +34,7 @@ public class Spritey extends ScreenElement
 	protected int mFrameWidth;
 	protected int mFrameHeight;
 	protected int mFrameCount;
+	protected RectF mDrawDest;		// reused by Draw(); render thread only
 	public int msecsPerFrame = 33;	// ~30 FPS
 	public int timeSinceLastFrame = 0;
 
@@ -74,9 +74,24 @@ public class Spritey extends ScreenElement
 	{
 		Hibernate();
 		mFrameCount = pFrameCount;
-		mFrameWidth = mGR.PhysicalWidth() / pFrameCount;
+		mFrame = new Rectangle(0, 0, 0, 0);
+		mDrawDest = new RectF();
+		size_frames();
+	}
+
+	/**
+	 * Sizes the animation frames from the sprite strip. If the strip is still
+	 * loading in the background this leaves them empty, and publish() tries
+	 * again once it arrives.
+	 */
+	protected void size_frames()
+	{
+		if(mGR == null || !mGR.Valid())
+			return;
+		mFrameWidth = mGR.PhysicalWidth() / mFrameCount;
 		mFrameHeight = mGR.PhysicalHeight();
-		mFrame = new Rectangle(0, 0, mFrameWidth, mFrameHeight);
+		mFrame.W(mFrameWidth);
+		mFrame.H(mFrameHeight);
 	}
 
 	// game loop callbacks /////////////////////////////////////////////////////
@@ -90,7 +105,7 @@ public class Spritey extends ScreenElement
 	public void Update()
 	{
 		Rectangle tFrame = mFrame;
-		timeSinceLastFrame += GameProc.UPDATE_PERIOD;
+		timeSinceLastFrame += GameProc.UpdatePeriod();
 		while(timeSinceLastFrame > msecsPerFrame)
 		{
 			timeSinceLastFrame -= msecsPerFrame;
@@ -102,16 +117,37 @@ public class Spritey extends ScreenElement
 		super.Update();
 	}
 
+	@Override
+	protected void publish(RenderSnapshot.Item oItem)
+	{
+		super.publish(oItem);
+		if(mFrameWidth == 0)
+			size_frames();
+		if(oItem.mImage != null && mFrameWidth > 0 && mGR.Valid() &&
+			oItem.mImage == mGR.mImage)
+		{
+			// frames are relative to the GR, which may sit inside an atlas
+			oItem.mFrame.set(mFrame.toRect());
+			oItem.mFrame.offset(mGR.mSrcRect.left, mGR.mSrcRect.top);
+			oItem.mWidth = mFrameWidth;
+		}
+		// Draw() blits top-left at the unscaled position
+		oItem.mPosScale = 1.0f;
+		oItem.mBounds.set(0, 0, oItem.mWidth, oItem.mHeight);
+	}
+
 	@Override
 	public void Draw()
 	{
+		RenderSnapshot.Item tItem = AnimatedView.sCurrentItem;
 		Canvas tCanvas = AnimatedView.sCurrentCanvas;
-		if(tCanvas != null)
+		if(tCanvas != null && tItem.mImage != null)
 		{
-			XYf tPos = mPos;
-			RectF tDest = new RectF(tPos.x, tPos.y, tPos.x + mFrameWidth,
-					tPos.y + mGR.PhysicalHeight());
-			tCanvas.drawBitmap(mGR.mImage, mFrame.toRect(), tDest, null);
+			float tX = tItem.X();
+			float tY = tItem.Y();
+			RectF tDest = mDrawDest;
+			tDest.set(tX, tY, tX + tItem.mWidth, tY + tItem.mHeight);
+			tCanvas.drawBitmap(tItem.mImage, tItem.mFrame, tDest, null);
 		}
 	}
 
@@ -139,7 +175,23 @@ public class Spritey extends ScreenElement
 	 */
 	public boolean Collide(Rectanglef pBBox)
 	{
-		return boundingBox.toRectF().intersect(pBBox.toRectF());
+		// intersects(), not intersect(); the latter clips our box in place
+		return RectF.intersects(boundingBox.toRectF(), pBBox.toRectF());
+	}
+
+	/**
+	 * Reports the collision bounding box when there is one, so SpatialGrid
+	 * bins sprites by what they collide with.
+	 *
+	 * @see rogue_opcode.ScreenElement#Bounds(android.graphics.RectF)
+	 */
+	@Override
+	public void Bounds(RectF oBounds)
+	{
+		if(boundingBox != null)
+			oBounds.set(boundingBox.toRectF());
+		else
+			super.Bounds(oBounds);
 	}
 
 	// Spritey properties //////////////////////////////////////////////////////
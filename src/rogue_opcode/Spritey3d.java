@@ -15,7 +15,6 @@
 package rogue_opcode;
 
 
-import rogue_opcode.geometrics.XYZf;
 import android.graphics.Canvas;
 import android.graphics.RectF;
 
@@ -56,8 +55,6 @@ public class Spritey3d extends Spritey
 		sFarZ = sNormalZ * 4;
 	}
 
-	protected RectF mDrawDest;
-
 	// c'tor ///////////////////////////////////////////////////////////////////
 
 	/**
@@ -67,7 +64,6 @@ public class Spritey3d extends Spritey
 	public Spritey3d(int pResourceID, int pFrameCount)
 	{
 		super(pResourceID, pFrameCount);
-		mDrawDest = new RectF();
 	}
 
 	/**
@@ -80,12 +76,25 @@ public class Spritey3d extends Spritey
 	public Spritey3d(int pResourceID, int pFrameCount, int pX, int pY, int pZ)
 	{
 		super(pResourceID, pFrameCount, pX, pY);
-		mDrawDest = new RectF();
 		ZDepth(pZ);
 	}
 
 	// game loop callbacks /////////////////////////////////////////////////////
 
+	/**
+	 * The perspective projection doesn't fit the snapshot's flat bounds, so
+	 * these are never culled by AnimatedView; {@code Draw()} still does its
+	 * own far clip.
+	 *
+	 * @see rogue_opcode.Spritey#publish(RenderSnapshot.Item)
+	 */
+	@Override
+	protected void publish(RenderSnapshot.Item oItem)
+	{
+		super.publish(oItem);
+		oItem.mCullable = false;
+	}
+
 	/**
 	 * Draws the object at it's specified position, scaled for pseudo-3D
 	 * perspective based on Z distance.
@@ -95,22 +104,25 @@ public class Spritey3d extends Spritey
 	@Override
 	public void Draw()
 	{
+		RenderSnapshot.Item tItem = AnimatedView.sCurrentItem;
 		Canvas tCanvas = AnimatedView.sCurrentCanvas;
-		if(tCanvas == null || mPos.z > sFarZ) // not ready or far clip
+		// not ready or far clip
+		if(tCanvas == null || tItem.mImage == null || tItem.mZ > sFarZ)
 			return;
 
-		XYZf tPos = mPos;
 		float tScreenW = AnimatedView.sOnly.ScreenWidth();
 		float tScreenH = AnimatedView.sOnly.ScreenHeight();
 
-		float tScaleFactor = sNormalZ / tPos.z;
-		float tLeft = (tPos.x - mFrameWidth / 2) * tScaleFactor + tScreenW / 2;
-		float tTop = tScreenH / 2 - (tPos.y - mFrameHeight / 2) * tScaleFactor;
+		float tFrameW = tItem.mWidth;
+		float tFrameH = tItem.mHeight;
+		float tScaleFactor = sNormalZ / tItem.mZ;
+		float tLeft = (tItem.X() - tFrameW / 2) * tScaleFactor + tScreenW / 2;
+		float tTop = tScreenH / 2 - (tItem.Y() - tFrameH / 2) * tScaleFactor;
 		RectF tDrawDest = mDrawDest;
 		tDrawDest.left = tLeft;
 		tDrawDest.top = tTop;
-		tDrawDest.right = tLeft + mFrameWidth * tScaleFactor;
-		tDrawDest.bottom = tTop + mFrameHeight * tScaleFactor;
-		tCanvas.drawBitmap(mGR.mImage, mFrame.toRect(), tDrawDest, null);
+		tDrawDest.right = tLeft + tFrameW * tScaleFactor;
+		tDrawDest.bottom = tTop + tFrameH * tScaleFactor;
+		tCanvas.drawBitmap(tItem.mImage, tItem.mFrame, tDrawDest, null);
 	}
 }
@@ -0,0 +1,455 @@
+// Steering.java
+// Batched moveTo() integrator for self-guided ScreenElements.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import rogue_opcode.containers.Array;
+
+
+/**
+ * {@code Steering} advances every {@link ScreenElement} that is moving under
+ * {@code moveTo()} in a single pass per logic step. Moves in flight live in
+ * packed parallel arrays, so the pass is a flat float loop with one square
+ * root per mover and no virtual calls.
+ * <br /><br />
+ * A move either travels at constant speed (the classic {@code moveTo()}) or
+ * covers the distance in a fixed time along an {@link Easing} curve. Either
+ * kind can notify an {@link ArrivalListener} when it gets there; listeners run
+ * after the pass, so they're free to start another move.
+ * <br /><br />
+ * GameProc calls {@link #Advance()} at the start of each step, before any
+ * {@code Update()}. Clearing an element's {@code mSelfGuided} cancels its move,
+ * as does {@link ScreenElement#StopMoving()}. Inactive elements stay put until
+ * woken.
+ * <br /><br />
+ * Starting or stopping a move from a parallel {@code Update()} is safe but
+ * deferred: the request is queued and applied, in order, as soon as the
+ * parallel batch finishes. Until then the element's {@code mSelfGuided}
+ * still reflects its old move.
+ */
+public class Steering
+{
+	/** The steering system. */
+	public static final Steering sOnly = new Steering();
+
+	/**
+	 * Notified when an element finishes a move.
+	 */
+	public interface ArrivalListener
+	{
+		/**
+		 * @param pSE the element that arrived; its position is exactly the
+		 *        destination.
+		 */
+		public void Arrived(ScreenElement pSE);
+	}
+
+	/**
+	 * Progress curves for timed moves. Each maps elapsed fraction [0, 1] to
+	 * distance fraction [0, 1].
+	 */
+	public enum Easing
+	{
+		LINEAR
+		{
+			@Override
+			public float Apply(float t)
+			{
+				return t;
+			}
+		},
+		EASE_IN
+		{
+			@Override
+			public float Apply(float t)
+			{
+				return t * t;
+			}
+		},
+		EASE_OUT
+		{
+			@Override
+			public float Apply(float t)
+			{
+				return t * (2 - t);
+			}
+		},
+		EASE_IN_OUT
+		{
+			@Override
+			public float Apply(float t)
+			{
+				return (t < 0.5f) ? 2 * t * t : -1 + (4 - 2 * t) * t;
+			}
+		},
+		SMOOTH_STEP
+		{
+			@Override
+			public float Apply(float t)
+			{
+				return t * t * (3 - 2 * t);
+			}
+		};
+
+		public abstract float Apply(float t);
+	}
+
+	// moves in flight
+	protected ScreenElement[] mOwners;
+	protected float[] mStartX, mStartY;
+	protected float[] mDestX, mDestY;
+	protected float[] mSpeed;		// per step; constant-speed moves only
+	protected float[] mDuration;	// msecs; timed moves only
+	protected float[] mElapsed;
+	protected Easing[] mEasing;		// null for constant-speed moves
+	protected ArrivalListener[] mListeners;
+	protected int mCount;
+
+	// Start()s and Stop()s from parallel updates, applied by Flush()
+	protected final Array<Request> mDeferred = new Array<Request>();
+
+	// arrivals from the current pass, notified after it
+	protected Array<ScreenElement> mArrived = new Array<ScreenElement>();
+	protected Array<ArrivalListener> mArrivedListeners =
+		new Array<ArrivalListener>();
+
+	// c'tor ///////////////////////////////////////////////////////////////////
+
+	protected Steering()
+	{
+		allocate(64);
+	}
+
+	// moves ///////////////////////////////////////////////////////////////////
+
+	/**
+	 * Starts a constant-speed move, replacing any move already in progress.
+	 *
+	 * @param pSE element to move.
+	 * @param pX destination X, logical.
+	 * @param pY destination Y, logical.
+	 * @param pSpeed logical units per logic step.
+	 * @param pListener notified on arrival; may be {@code null}.
+	 */
+	public void Start(ScreenElement pSE, float pX, float pY, float pSpeed,
+		ArrivalListener pListener)
+	{
+		if(UpdateScheduler.sInParallel)
+		{
+			defer(pSE, false, pX, pY, pListener).mSpeed = pSpeed;
+			return;
+		}
+		int i = slot(pSE, pX, pY, pListener);
+		mSpeed[i] = pSpeed;
+		mEasing[i] = null;
+	}
+
+	/**
+	 * Starts a timed move along an easing curve, replacing any move already in
+	 * progress.
+	 *
+	 * @param pSE element to move.
+	 * @param pX destination X, logical.
+	 * @param pY destination Y, logical.
+	 * @param pMsecs how long the move takes.
+	 * @param pEasing progress curve.
+	 * @param pListener notified on arrival; may be {@code null}.
+	 */
+	public void Start(ScreenElement pSE, float pX, float pY, long pMsecs,
+		Easing pEasing, ArrivalListener pListener)
+	{
+		if(UpdateScheduler.sInParallel)
+		{
+			Request tRequest = defer(pSE, false, pX, pY, pListener);
+			tRequest.mMsecs = pMsecs;
+			tRequest.mEasing = pEasing;
+			return;
+		}
+		int i = slot(pSE, pX, pY, pListener);
+		mDuration[i] = Math.max(1, pMsecs);
+		mEasing[i] = (pEasing != null) ? pEasing : Easing.LINEAR;
+	}
+
+	/**
+	 * Cancels an element's move, leaving it where it is. No listener is
+	 * notified.
+	 *
+	 * @param pSE element to stop.
+	 */
+	public void Stop(ScreenElement pSE)
+	{
+		if(UpdateScheduler.sInParallel)
+		{
+			defer(pSE, true, 0, 0, null);
+			return;
+		}
+		if(pSE.mMoveSlot >= 0)
+			remove(pSE.mMoveSlot);
+		set_guided(pSE, false);
+	}
+
+	/**
+	 * Applies the {@code Start()}s and {@code Stop()}s made during parallel
+	 * updates, in the order they were made. UpdateScheduler calls this once
+	 * each parallel batch is done.
+	 */
+	public void Flush()
+	{
+		Request[] tRequests;
+		int tCount;
+		synchronized(mDeferred)
+		{
+			tCount = mDeferred.size;
+			if(tCount == 0)
+				return;
+			tRequests = new Request[tCount];
+			for(int i = 0; i < tCount; i++)
+			{
+				tRequests[i] = mDeferred.At(i);
+				mDeferred.data[i] = null;
+			}
+			mDeferred.size = 0;
+		}
+		for(int i = 0; i < tCount; i++)
+		{
+			Request r = tRequests[i];
+			if(r.mStop)
+				Stop(r.mSE);
+			else if(r.mEasing != null)
+				Start(r.mSE, r.mX, r.mY, r.mMsecs, r.mEasing, r.mListener);
+			else
+				Start(r.mSE, r.mX, r.mY, r.mSpeed, r.mListener);
+		}
+	}
+
+	/** @return the number of moves in progress. */
+	public int Count()
+	{
+		return mCount;
+	}
+
+	// integration /////////////////////////////////////////////////////////////
+
+	/** Advances every move in progress by one logic step. */
+	public void Advance()
+	{
+		float tStep = GameProc.UpdatePeriod();
+		ScreenElement[] tOwners = mOwners;
+		float[] tDestX = mDestX, tDestY = mDestY;
+
+		for(int i = 0; i < mCount; i++)
+		{
+			ScreenElement tSE = tOwners[i];
+			if(!tSE.mSelfGuided)
+			{
+				// cancelled by clearing the flag
+				remove(i--);
+				continue;
+			}
+			if(!tSE.mActive)
+				continue;
+
+			float tX = tSE.mPos.x, tY = tSE.mPos.y;
+			float tNewX, tNewY;
+			boolean tArrived;
+			Easing tEasing = mEasing[i];
+			if(tEasing == null)
+			{
+				float tDX = tDestX[i] - tX;
+				float tDY = tDestY[i] - tY;
+				float tDistance = (float)Math.sqrt(tDX * tDX + tDY * tDY);
+				float tSpeed = mSpeed[i];
+				tArrived = (tDistance <= tSpeed);
+				if(tArrived)
+				{
+					tNewX = tDestX[i];
+					tNewY = tDestY[i];
+				}
+				else
+				{
+					float tScale = tSpeed / tDistance;
+					tNewX = tX + tDX * tScale;
+					tNewY = tY + tDY * tScale;
+				}
+			}
+			else
+			{
+				float tElapsed = mElapsed[i] += tStep;
+				float t = tElapsed / mDuration[i];
+				tArrived = (t >= 1);
+				if(tArrived)
+				{
+					tNewX = tDestX[i];
+					tNewY = tDestY[i];
+				}
+				else
+				{
+					float tF = tEasing.Apply(t);
+					tNewX = mStartX[i] + (tDestX[i] - mStartX[i]) * tF;
+					tNewY = mStartY[i] + (tDestY[i] - mStartY[i]) * tF;
+				}
+			}
+
+			// through the setters, so a store slot and the grid keep up
+			tSE.Vel(tNewX - tX, tNewY - tY);
+			tSE.Pos(tNewX, tNewY);
+
+			if(tArrived)
+			{
+				mArrived.Append(tSE);
+				mArrivedListeners.Append(mListeners[i]);
+				remove(i--);
+				set_guided(tSE, false);
+			}
+		}
+
+		// notify after the pass, so listeners may start new moves
+		for(int i = 0; i < mArrived.size; i++)
+		{
+			ArrivalListener tListener = mArrivedListeners.At(i);
+			if(tListener != null)
+				tListener.Arrived(mArrived.At(i));
+		}
+		for(int i = 0; i < mArrived.size; i++)
+		{
+			mArrived.data[i] = null;
+			mArrivedListeners.data[i] = null;
+		}
+		mArrived.size = mArrivedListeners.size = 0;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** Queues a request made during parallel updates. Any thread. */
+	protected Request defer(ScreenElement pSE, boolean pStop, float pX,
+		float pY, ArrivalListener pListener)
+	{
+		Request tRequest = new Request();
+		tRequest.mSE = pSE;
+		tRequest.mStop = pStop;
+		tRequest.mX = pX;
+		tRequest.mY = pY;
+		tRequest.mListener = pListener;
+		synchronized(mDeferred)
+		{
+			mDeferred.Append(tRequest);
+		}
+		return tRequest;
+	}
+
+	/** Finds or makes the slot for a new move and fills the common parts. */
+	protected int slot(ScreenElement pSE, float pX, float pY,
+		ArrivalListener pListener)
+	{
+		int i = pSE.mMoveSlot;
+		if(i < 0)
+		{
+			if(mCount == mOwners.length)
+				grow(mCount * 2);
+			i = mCount++;
+			mOwners[i] = pSE;
+			pSE.mMoveSlot = i;
+		}
+		mStartX[i] = pSE.mPos.x;
+		mStartY[i] = pSE.mPos.y;
+		mDestX[i] = pX;
+		mDestY[i] = pY;
+		mElapsed[i] = 0;
+		mListeners[i] = pListener;
+		pSE.mSelfGuidedDestination.x = pX;
+		pSE.mSelfGuidedDestination.y = pY;
+		set_guided(pSE, true);
+		return i;
+	}
+
+	protected void set_guided(ScreenElement pSE, boolean pGuided)
+	{
+		pSE.mSelfGuided = pGuided;
+		if(pSE.mStore != null)
+			pSE.mStore.mSelfGuided[pSE.mSlot] = pGuided;
+	}
+
+	/** Swap-removes a slot. */
+	protected void remove(int i)
+	{
+		mOwners[i].mMoveSlot = -1;
+		int tLast = --mCount;
+		if(i != tLast)
+		{
+			mOwners[i] = mOwners[tLast];
+			mOwners[i].mMoveSlot = i;
+			mStartX[i] = mStartX[tLast];
+			mStartY[i] = mStartY[tLast];
+			mDestX[i] = mDestX[tLast];
+			mDestY[i] = mDestY[tLast];
+			mSpeed[i] = mSpeed[tLast];
+			mDuration[i] = mDuration[tLast];
+			mElapsed[i] = mElapsed[tLast];
+			mEasing[i] = mEasing[tLast];
+			mListeners[i] = mListeners[tLast];
+		}
+		mOwners[tLast] = null;
+		mEasing[tLast] = null;
+		mListeners[tLast] = null;
+	}
+
+	protected void allocate(int pCapacity)
+	{
+		mOwners = new ScreenElement[pCapacity];
+		mStartX = new float[pCapacity];
+		mStartY = new float[pCapacity];
+		mDestX = new float[pCapacity];
+		mDestY = new float[pCapacity];
+		mSpeed = new float[pCapacity];
+		mDuration = new float[pCapacity];
+		mElapsed = new float[pCapacity];
+		mEasing = new Easing[pCapacity];
+		mListeners = new ArrivalListener[pCapacity];
+	}
+
+	protected void grow(int pCapacity)
+	{
+		ScreenElement[] tOwners = mOwners;
+		float[] tStartX = mStartX, tStartY = mStartY;
+		float[] tDestX = mDestX, tDestY = mDestY;
+		float[] tSpeed = mSpeed, tDuration = mDuration, tElapsed = mElapsed;
+		Easing[] tEasing = mEasing;
+		ArrivalListener[] tListeners = mListeners;
+
+		allocate(pCapacity);
+		int n = mCount;
+		System.arraycopy(tOwners, 0, mOwners, 0, n);
+		System.arraycopy(tStartX, 0, mStartX, 0, n);
+		System.arraycopy(tStartY, 0, mStartY, 0, n);
+		System.arraycopy(tDestX, 0, mDestX, 0, n);
+		System.arraycopy(tDestY, 0, mDestY, 0, n);
+		System.arraycopy(tSpeed, 0, mSpeed, 0, n);
+		System.arraycopy(tDuration, 0, mDuration, 0, n);
+		System.arraycopy(tElapsed, 0, mElapsed, 0, n);
+		System.arraycopy(tEasing, 0, mEasing, 0, n);
+		System.arraycopy(tListeners, 0, mListeners, 0, n);
+	}
+
+	/** A deferred {@code Start()} or {@code Stop()}. */
+	protected static class Request
+	{
+		ScreenElement mSE;
+		boolean mStop;
+		float mX, mY;
+		float mSpeed;		// constant-speed moves
+		long mMsecs;		// timed moves
+		Easing mEasing;		// null for constant-speed moves
+		ArrivalListener mListener;
+	}
+}
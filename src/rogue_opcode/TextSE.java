@@ -46,6 +46,29 @@ public class TextSE extends ScreenElement
 	boolean mFixedHeight;
 	RectF mDisplayRect;
 	RectF mTextClipRect;
+	TextFrame mTextFrame; //draw state handed to the render thread; rebuilt lazily
+
+	/**
+	 * Immutable bundle of everything Draw() needs beyond the basic snapshot
+	 * entry. A new one is built only when the text, title, or layout changes.
+	 */
+	static class TextFrame
+	{
+		final DynamicLayout mLayout;
+		final RectF mDisplayRect;
+		final RectF mTextClipRect;
+		final int mIconWidth;
+		final String mTitle;
+
+		TextFrame(TextSE pSE)
+		{
+			mLayout = pSE.mTextDL;
+			mDisplayRect = pSE.mDisplayRect;
+			mTextClipRect = pSE.mTextClipRect;
+			mIconWidth = pSE.mIconWidth;
+			mTitle = pSE.Title();
+		}
+	}
 
 	boolean mInEditMode;
 	boolean mEditable;
@@ -89,8 +112,7 @@ public class TextSE extends ScreenElement
 
 		mTextBottomMargin = 0;
 
-		mPos.x = pX;
-		mPos.y = pY;
+		Warp(pX, pY);
 
 
 		if(sSmallTextPaint == null)
@@ -149,6 +171,13 @@ public class TextSE extends ScreenElement
 		return (mHeight);
 	}
 
+	//TextSEs draw from their top-left corner regardless of mDrawCentered
+	@Override
+	public void Bounds(RectF oBounds)
+	{
+		oBounds.set(mPos.x, mPos.y, mPos.x + mWidth, mPos.y + mHeight);
+	}
+
 	public void AddIcon(int pGRID, int pIconWidth)
 	{
 		mIconWidth = (pIconWidth);
@@ -176,6 +205,7 @@ public class TextSE extends ScreenElement
 	public void Title(String pTitle)
 	{
 		mTitle = pTitle;
+		mTextFrame = null;
 	}
 
 	public void SetTextPaint(TextPaint pTextPaint)
@@ -211,12 +241,18 @@ public class TextSE extends ScreenElement
 
 		mDisplayRect = new RectF(0, 0, mWidth, mHeight);
 		mTextClipRect = new RectF(0, 0, mWidth, mHeight - mTextBottomMargin);
+		mTextFrame = null;
 	}
 
 	public boolean WithinRange(XYf pPoint)
 	{
-		return ((pPoint.x > mPos.x) && (pPoint.x < mPos.x + mWidth) &&
-				(pPoint.y > mPos.y) && (pPoint.y < mPos.y + mHeight));
+		return WithinRange(pPoint.x, pPoint.y);
+	}
+
+	public boolean WithinRange(float pX, float pY)
+	{
+		return ((pX > mPos.x) && (pX < mPos.x + mWidth) &&
+				(pY > mPos.y) && (pY < mPos.y + mHeight));
 	}
 
 	public void Editable(boolean pEditable)
@@ -251,9 +287,8 @@ public class TextSE extends ScreenElement
 
 					if(GameProc.sOnly.mTouchState.Is(TouchState.SINGLE_TAP))
 					{
-						if(!WithinRange(new XYf(
-							GameProc.sOnly.mTouchState.GetMainX(),
-							GameProc.sOnly.mTouchState.GetMainY())))
+						if(!WithinRange(GameProc.sOnly.mTouchState.GetMainX(),
+							GameProc.sOnly.mTouchState.GetMainY()))
 						{
 							mInEditMode = false;
 							Dirty(true);
@@ -267,9 +302,8 @@ public class TextSE extends ScreenElement
 					{
 						if(Visible())
 						{
-							if(WithinRange(new XYf(
-								GameProc.sOnly.mTouchState.GetMainX(),
-								GameProc.sOnly.mTouchState.GetMainY())))
+							if(WithinRange(GameProc.sOnly.mTouchState.GetMainX(),
+								GameProc.sOnly.mTouchState.GetMainY()))
 							{
 								mInEditMode = true;
 								GameProc.sOnly.ShowTextEditor(this, mPos,
@@ -286,28 +320,47 @@ public class TextSE extends ScreenElement
 	}
 
 
+	@Override
+	protected void publish(RenderSnapshot.Item oItem)
+	{
+		super.publish(oItem);
+		if(mTextFrame == null)
+			mTextFrame = new TextFrame(this);
+		oItem.mPayload = mTextFrame;
+
+		// Draw() scales the canvas, so bounds are in scaled units; leave room
+		// for the title drawn above the box
+		float tScale = oItem.mPosScale;
+		oItem.mBounds.set(0, -sLabelTextPaint.getTextSize() * tScale,
+			mWidth * tScale, mHeight * tScale);
+		oItem.mCullable = true;
+	}
+
 	@Override
 	public void Draw()
 	{
+		TextFrame tFrame = (TextFrame)AnimatedView.sCurrentItem.mPayload;
 		Canvas tCanvas = AnimatedView.sCurrentCanvas;
-		float tX = mPos.x;// * AnimatedView.sOnly.mPreScaler;
-		float tY = mPos.y;// * AnimatedView.sOnly.mPreScaler;
+		float tX = draw_x();// * AnimatedView.sOnly.mPreScaler;
+		float tY = draw_y();// * AnimatedView.sOnly.mPreScaler;
 
 		tCanvas.save();
 		tCanvas.scale(AnimatedView.sOnly.mPreScaler,
 			AnimatedView.sOnly.mPreScaler);
 
 		tCanvas.translate(tX, tY);
-		tCanvas.drawRoundRect(mDisplayRect, 10, 10, sFillPaint);
-		tCanvas.drawText(Title(), 10, -2, sLabelTextPaint);
-		tCanvas.translate(sTextMargin + sTextMargin + mIconWidth, sTextMargin);
-		tCanvas.clipRect(mTextClipRect, Region.Op.REPLACE);
-		mTextDL.draw(tCanvas);
+		tCanvas.drawRoundRect(tFrame.mDisplayRect, 10, 10, sFillPaint);
+		tCanvas.drawText(tFrame.mTitle, 10, -2, sLabelTextPaint);
+		tCanvas.translate(sTextMargin + sTextMargin + tFrame.mIconWidth,
+			sTextMargin);
+		tCanvas.clipRect(tFrame.mTextClipRect, Region.Op.REPLACE);
+		if(tFrame.mLayout != null)
+			tFrame.mLayout.draw(tCanvas);
 		tCanvas.restore();
 
 		tCanvas.save();
 		int tIconOffset =
-			(int)(AnimatedView.sOnly.mPreScaler * ((mIconWidth / 2) + sTextMargin));
+			(int)(AnimatedView.sOnly.mPreScaler * ((tFrame.mIconWidth / 2) + sTextMargin));
 		tCanvas.translate(tIconOffset, tIconOffset);
 		super.Draw();
 		tCanvas.restore();
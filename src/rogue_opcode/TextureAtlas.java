@@ -0,0 +1,418 @@
+// TextureAtlas.java
+// Packs many image resources into a few shared bitmaps.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import rogue_opcode.containers.Array;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.Log;
+
+
+/**
+ * A {@code TextureAtlas} is one large bitmap (a sheet) holding many smaller
+ * images. Each packed resource still gets its own {@link GraphicResource},
+ * but that GR shares the sheet and exposes its piece of it through
+ * {@link GraphicResource#mSrcRect}, so everything drawn from one sheet blits
+ * from the same source bitmap.
+ * <br /><br />
+ * Build atlases at load time with {@link #Pack(int[])}, which sizes each
+ * image for the current {@code mPreScaler} and shelf-packs the results onto as
+ * many sheets as it takes. To skip packing at startup, save a packed atlas
+ * with {@link #Bake(String, String)}, ship the sheet and its index as
+ * resources, and load them with {@link #LoadBaked(int, int)}.
+ * <br /><br />
+ * Pack after {@code AnimatedView.NormailzeResolution()}, since the scale
+ * factor decides the packed sizes.
+ */
+public class TextureAtlas
+{
+	/** Default sheet edge length, in physical pixels. */
+	public static final int DEFAULT_SHEET_SIZE = 1024;
+
+	// empty border around each image, so filtering never samples a neighbor
+	protected static final int PADDING = 1;
+
+	protected static final String INDEX_MAGIC = "rogue-atlas";
+
+	public static Array<TextureAtlas> sAllAtlases = new Array<TextureAtlas>();
+
+	public Bitmap mSheet;
+	protected float mScale;	// the mPreScaler the sheet was packed at
+	protected Array<GraphicResource> mMembers;
+
+	// c'tor ///////////////////////////////////////////////////////////////////
+
+	protected TextureAtlas(Bitmap pSheet, float pScale)
+	{
+		mSheet = pSheet;
+		mScale = pScale;
+		mMembers = new Array<GraphicResource>();
+		sAllAtlases.Append(this);
+		synchronized(GraphicResource.class)
+		{
+			// sheets count toward the bitmap budget, but are never evicted
+			GraphicResource.sUsedBytes +=
+				(long)pSheet.getRowBytes() * pSheet.getHeight();
+		}
+	}
+
+	// packing /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Packs the given image resources onto {@link #DEFAULT_SHEET_SIZE} sheets.
+	 *
+	 * @param pResourceIDs image resources to pack.
+	 * @return the sheets that were built.
+	 * @see #Pack(int[], int)
+	 */
+	public static TextureAtlas[] Pack(int[] pResourceIDs)
+	{
+		return Pack(pResourceIDs, DEFAULT_SHEET_SIZE);
+	}
+
+	/**
+	 * Packs the given image resources onto as few sheets as possible. Any
+	 * existing GRs for these IDs are re-pointed at the sheets; the rest are
+	 * created. An image too big to share a sheet is loaded on its own as
+	 * usual.
+	 *
+	 * @param pResourceIDs image resources to pack.
+	 * @param pSheetSize sheet width and maximum height, in physical pixels.
+	 * @return the sheets that were built. An entry is {@code null} if its
+	 *         sheet couldn't be allocated; its images were loaded singly.
+	 */
+	public static TextureAtlas[] Pack(int[] pResourceIDs, int pSheetSize)
+	{
+		Resources tRes = GameProc.sOnly.getResources();
+		float tScale = AnimatedView.sOnly.mPreScaler;
+		int tCount = pResourceIDs.length;
+
+		// measure without decoding, so only one image is in memory at a time
+		Placement[] tAll = new Placement[tCount];
+		BitmapFactory.Options tBounds = new BitmapFactory.Options();
+		tBounds.inJustDecodeBounds = true;
+		tBounds.inScaled = false;
+		int tPacked = 0;
+		for(int i = 0; i < tCount; i++)
+		{
+			BitmapFactory.decodeResource(tRes, pResourceIDs[i], tBounds);
+			Placement tP = new Placement();
+			tP.mResID = pResourceIDs[i];
+			tP.mBaseWidth = tBounds.outWidth;
+			tP.mBaseHeight = tBounds.outHeight;
+			tP.mWidth = (int)(tBounds.outWidth * tScale);
+			tP.mHeight = (int)(tBounds.outHeight * tScale);
+			if(tP.mWidth + 2 * PADDING > pSheetSize ||
+				tP.mHeight + 2 * PADDING > pSheetSize || tP.mWidth <= 0)
+			{
+				GraphicResource.Load(tP.mResID);
+				continue;
+			}
+			tAll[tPacked++] = tP;
+		}
+
+		// tallest first packs shelves tightly
+		Placement[] tPlacements = new Placement[tPacked];
+		System.arraycopy(tAll, 0, tPlacements, 0, tPacked);
+		Arrays.sort(tPlacements, new Comparator<Placement>()
+		{
+			@Override
+			public int compare(Placement a, Placement b)
+			{
+				return b.mHeight - a.mHeight;
+			}
+		});
+
+		// lay out shelves, starting a new sheet when one fills
+		int tSheet = 0, tX = 0, tY = 0, tShelfHeight = 0;
+		Array<Integer> tSheetHeights = new Array<Integer>();
+		for(int i = 0; i < tPacked; i++)
+		{
+			Placement tP = tPlacements[i];
+			int tW = tP.mWidth + 2 * PADDING;
+			int tH = tP.mHeight + 2 * PADDING;
+			if(tX + tW > pSheetSize)
+			{
+				tX = 0;
+				tY += tShelfHeight;
+				tShelfHeight = 0;
+			}
+			if(tY + tH > pSheetSize)
+			{
+				tSheetHeights.Append(tY);
+				tSheet++;
+				tX = tY = tShelfHeight = 0;
+			}
+			tP.mSheet = tSheet;
+			tP.mRect = new Rect(tX + PADDING, tY + PADDING,
+				tX + PADDING + tP.mWidth, tY + PADDING + tP.mHeight);
+			tX += tW;
+			if(tH > tShelfHeight)
+				tShelfHeight = tH;
+		}
+		if(tPacked > 0)
+			tSheetHeights.Append(tY + tShelfHeight);
+
+		// draw each image into its sheet, trimmed to the height used
+		TextureAtlas[] tAtlases = new TextureAtlas[tSheetHeights.size];
+		for(int s = 0; s < tAtlases.length; s++)
+		{
+			Bitmap tSheetBitmap;
+			try
+			{
+				tSheetBitmap = Bitmap.createBitmap(pSheetSize,
+					tSheetHeights.At(s),
+					GraphicResource.sBitmapOptions.inPreferredConfig);
+			}
+			catch(OutOfMemoryError e)
+			{
+				// fall back to separate bitmaps for this sheet's images
+				Log.d(GameProc.TAG, "TextureAtlas.Pack() out of memory");
+				for(int i = 0; i < tPacked; i++)
+					if(tPlacements[i].mSheet == s)
+						GraphicResource.Load(tPlacements[i].mResID);
+				continue;
+			}
+			TextureAtlas tAtlas = new TextureAtlas(tSheetBitmap, tScale);
+			Canvas tCanvas = new Canvas(tSheetBitmap);
+			for(int i = 0; i < tPacked; i++)
+			{
+				Placement tP = tPlacements[i];
+				if(tP.mSheet != s)
+					continue;
+				Bitmap tImage = GraphicResource.decode(tP.mResID, null);
+				if(tImage == null)
+					continue;
+				tCanvas.drawBitmap(tImage, tP.mRect.left, tP.mRect.top, null);
+				tImage.recycle();
+				tAtlas.add(tP.mResID, tP.mRect, tP.mBaseWidth,
+					tP.mBaseHeight);
+			}
+			tAtlases[s] = tAtlas;
+		}
+		return tAtlases;
+	}
+
+	// pre-baked atlases ///////////////////////////////////////////////////////
+
+	/**
+	 * Saves this sheet as a PNG, plus an index mapping resource names to
+	 * rectangles. Bake at the scale you intend to ship (usually with a
+	 * {@code mPreScaler} of 1), then add both files to the project as
+	 * resources for {@link #LoadBaked(int, int)}.
+	 *
+	 * @param pSheetPath where to write the sheet image.
+	 * @param pIndexPath where to write the index.
+	 * @throws IOException if either file can't be written.
+	 */
+	public void Bake(String pSheetPath, String pIndexPath) throws IOException
+	{
+		FileOutputStream tOut = new FileOutputStream(pSheetPath);
+		try
+		{
+			mSheet.compress(Bitmap.CompressFormat.PNG, 100, tOut);
+		}
+		finally
+		{
+			tOut.close();
+		}
+
+		Resources tRes = GameProc.sOnly.getResources();
+		PrintWriter tIndex = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(pIndexPath), "UTF-8"));
+		try
+		{
+			tIndex.println(INDEX_MAGIC + " 1 " + mScale);
+			for(int i = 0; i < mMembers.size; i++)
+			{
+				GraphicResource tGR = mMembers.At(i);
+				Rect tR = tGR.mSrcRect;
+				tIndex.println(tRes.getResourceEntryName(tGR.mResID) + " " +
+					tR.left + " " + tR.top + " " + tR.right + " " + tR.bottom +
+					" " + tGR.mBaseWidth + " " + tGR.mBaseHeight);
+			}
+		}
+		finally
+		{
+			tIndex.close();
+		}
+	}
+
+	/**
+	 * Loads a sheet and index written by {@link #Bake(String, String)}. The
+	 * sheet is rescaled if the current {@code mPreScaler} differs from the one
+	 * it was baked at. Index entries naming a drawable that no longer exists
+	 * are skipped.
+	 *
+	 * @param pSheetResID image resource of the baked sheet.
+	 * @param pIndexResID raw resource of the baked index.
+	 * @return the loaded atlas, or {@code null} if either resource could not
+	 *         be read.
+	 */
+	public static TextureAtlas LoadBaked(int pSheetResID, int pIndexResID)
+	{
+		Resources tRes = GameProc.sOnly.getResources();
+		String tPackage = GameProc.sOnly.getPackageName();
+		BufferedReader tIn = new BufferedReader(new InputStreamReader(
+			tRes.openRawResource(pIndexResID)));
+		try
+		{
+			String[] tHeader = tIn.readLine().split(" ");
+			if(tHeader.length < 3 || !INDEX_MAGIC.equals(tHeader[0]))
+			{
+				Log.d(GameProc.TAG, "LoadBaked(): not an atlas index");
+				return null;
+			}
+			float tBakedScale = Float.parseFloat(tHeader[2]);
+
+			Bitmap tImage = BitmapFactory.decodeResource(tRes, pSheetResID,
+				GraphicResource.sBitmapOptions);
+			if(tImage == null)
+				return null;
+			float tScale = AnimatedView.sOnly.mPreScaler;
+			float tFactor = tScale / tBakedScale;
+			if(tFactor != 1.0f)
+			{
+				Bitmap tScaled = Bitmap.createScaledBitmap(tImage,
+					Math.round(tImage.getWidth() * tFactor),
+					Math.round(tImage.getHeight() * tFactor), true);
+				tImage.recycle();
+				tImage = tScaled;
+			}
+
+			TextureAtlas tAtlas = new TextureAtlas(tImage, tScale);
+			String tLine;
+			while((tLine = tIn.readLine()) != null)
+			{
+				String[] tFields = tLine.split(" ");
+				if(tFields.length < 7)
+					continue;
+				int tResID = tRes.getIdentifier(tFields[0], "drawable",
+					tPackage);
+				if(tResID == 0)
+					continue;
+				Rect tRect = new Rect(
+					Math.round(Integer.parseInt(tFields[1]) * tFactor),
+					Math.round(Integer.parseInt(tFields[2]) * tFactor),
+					Math.round(Integer.parseInt(tFields[3]) * tFactor),
+					Math.round(Integer.parseInt(tFields[4]) * tFactor));
+				tAtlas.add(tResID, tRect, Integer.parseInt(tFields[5]),
+					Integer.parseInt(tFields[6]));
+			}
+			return tAtlas;
+		}
+		catch(Exception e)
+		{
+			Log.d(GameProc.TAG, "LoadBaked()", e);
+			return null;
+		}
+		catch(OutOfMemoryError e)
+		{
+			Log.d(GameProc.TAG, "LoadBaked() out of memory");
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				tIn.close();
+			}
+			catch(IOException e)
+			{
+			}
+		}
+	}
+
+	// resource management /////////////////////////////////////////////////////
+
+	/**
+	 * Frees the sheet. Member GRs become invalid, just as if each had been
+	 * unloaded; {@code GraphicResource.Load()} brings one back as a
+	 * standalone image. The sheet isn't recycled, since a frame still on its
+	 * way to the screen may be drawing from it; the GC reclaims it once
+	 * it's done.
+	 */
+	public void Unload()
+	{
+		for(int i = 0; i < mMembers.size; i++)
+		{
+			GraphicResource tGR = mMembers.At(i);
+			if(tGR.mAtlas == this)
+			{
+				tGR.mImage = null;
+				tGR.mAtlas = null;
+				tGR.mState = GraphicResource.UNLOADED;
+			}
+		}
+		mMembers.size = 0;
+		if(mSheet != null)
+		{
+			synchronized(GraphicResource.class)
+			{
+				GraphicResource.sUsedBytes -=
+					(long)mSheet.getRowBytes() * mSheet.getHeight();
+			}
+			mSheet = null;
+		}
+		for(int i = 0; i < sAllAtlases.size; i++)
+			if(sAllAtlases.At(i) == this)
+			{
+				sAllAtlases.Remove(i);
+				break;
+			}
+	}
+
+	/** @return the number of images on this sheet. */
+	public int Count()
+	{
+		return mMembers.size;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** Points the GR for {@code pResID} at a region of this sheet. */
+	protected void add(int pResID, Rect pRect, int pBaseWidth, int pBaseHeight)
+	{
+		GraphicResource tGR = GraphicResource.FindGR(pResID);
+		if(tGR == null)
+			tGR = new GraphicResource(pResID, this, pRect, pBaseWidth,
+				pBaseHeight);
+		else
+			tGR.attach(this, pRect, pBaseWidth, pBaseHeight);
+		mMembers.Append(tGR);
+	}
+
+	/** Where one image lands during packing. */
+	protected static class Placement
+	{
+		int mResID;
+		int mBaseWidth, mBaseHeight;	// logical size
+		int mWidth, mHeight;			// physical size
+		int mSheet;
+		Rect mRect;
+	}
+}
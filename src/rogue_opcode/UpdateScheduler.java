@@ -0,0 +1,316 @@
+// UpdateScheduler.java
+// Phased, multithreaded ActionElement updates.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * {@code UpdateScheduler} spreads {@link ActionElement#Update()} calls across a
+ * fixed pool of worker threads. Each element declares an update phase with
+ * {@link ActionElement#UpdatePhase(int, boolean)}; phases run in ascending
+ * order with a barrier between them, so everything in phase 0 has finished
+ * before anything in phase 1 starts.
+ * <br /><br />
+ * Within a phase, elements flagged parallel are shared out among the workers
+ * and the update thread, in no particular order. Then the phase's serial
+ * elements run one at a time on the update thread, in {@code sAllAEs} order.
+ * A parallel element's {@code Update()} must touch only its own state, or
+ * state nothing else in its phase writes; anything that spawns or unloads
+ * elements, plays sounds, or reads other elements' positions belongs in a
+ * serial slot or a later phase. {@code moveTo()} and {@code StopMoving()}
+ * are allowed; {@link Steering} queues them until the parallel batch ends.
+ * <br /><br />
+ * Elements default to phase 0, serial, so a game that never calls
+ * {@code UpdatePhase()} updates exactly as before. The scheduler is opt-in:
+ * construct one to make it {@link #sOnly}; without it GameProc updates every
+ * element serially.
+ */
+public class UpdateScheduler
+{
+	/** The active scheduler, or {@code null} if updates are serial. */
+	public static UpdateScheduler sOnly;
+
+	/** Number of update phases; valid phases are 0 to MAX_PHASES - 1. */
+	public static final int MAX_PHASES = 8;
+
+	/**
+	 * {@code true} while parallel updates are running. Shared structures that
+	 * can safely defer their upkeep (like {@link SpatialGrid} and
+	 * {@link Steering}) check this.
+	 */
+	static volatile boolean sInParallel;
+
+	// elements claimed per grab; small enough to balance uneven Update()s
+	protected static final int CHUNK = 8;
+
+	protected Thread[] mWorkers;
+	protected boolean mRunning = true;			// guarded by this
+
+	// per-phase buckets, rebuilt each step
+	protected ActionElement[][] mParallel = new ActionElement[MAX_PHASES][];
+	protected int[] mParallelCount = new int[MAX_PHASES];
+	protected ActionElement[][] mSerial = new ActionElement[MAX_PHASES][];
+	protected int[] mSerialCount = new int[MAX_PHASES];
+
+	// the batch being shared out
+	protected ActionElement[] mBatch;
+	protected int mBatchSize;
+	protected final AtomicInteger mNext = new AtomicInteger();
+	protected int mGeneration;					// guarded by this
+	protected int mBusy;						// guarded by this
+	protected volatile Throwable mFailure;
+
+	// c'tors //////////////////////////////////////////////////////////////////
+
+	/** Constructs a scheduler with a worker for every core but one. */
+	public UpdateScheduler()
+	{
+		this(Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	/**
+	 * Constructs a scheduler and makes it the active one, replacing and
+	 * shutting down any previous one.
+	 *
+	 * @param pWorkers worker thread count, not counting the update thread,
+	 *        which always takes a share. Zero runs everything on the update
+	 *        thread, in phase order.
+	 */
+	public UpdateScheduler(int pWorkers)
+	{
+		for(int i = 0; i < MAX_PHASES; i++)
+		{
+			mParallel[i] = new ActionElement[16];
+			mSerial[i] = new ActionElement[16];
+		}
+
+		mWorkers = new Thread[Math.max(pWorkers, 0)];
+		for(int i = 0; i < mWorkers.length; i++)
+		{
+			mWorkers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					work();
+				}
+			}, "UpdateWorker-" + i);
+			mWorkers[i].setDaemon(true);
+			mWorkers[i].start();
+		}
+
+		if(sOnly != null)
+			sOnly.Shutdown();
+		sOnly = this;
+	}
+
+	/** Stops the worker threads. Updates go back to being serial. */
+	public void Shutdown()
+	{
+		synchronized(this)
+		{
+			mRunning = false;
+			notifyAll();
+		}
+		if(sOnly == this)
+			sOnly = null;
+	}
+
+	/** @return the number of worker threads. */
+	public int Workers()
+	{
+		return mWorkers.length;
+	}
+
+	// updating ////////////////////////////////////////////////////////////////
+
+	/**
+	 * Updates every active ActionElement, phase by phase. GameProc calls this
+	 * in place of its serial loop. An exception thrown by any element's
+	 * {@code Update()} is rethrown here once its phase has drained.
+	 */
+	public void Run()
+	{
+		bucket();
+		for(int p = 0; p < MAX_PHASES; p++)
+		{
+			if(mParallelCount[p] > 0)
+				fan_out(mParallel[p], mParallelCount[p]);
+
+			ActionElement[] tSerial = mSerial[p];
+			for(int i = 0, n = mSerialCount[p]; i < n; i++)
+				if(tSerial[i].Active())
+					tSerial[i].update_profiled();
+
+			// don't hold on to elements that get removed before next step
+			Arrays.fill(mParallel[p], 0, mParallelCount[p], null);
+			Arrays.fill(tSerial, 0, mSerialCount[p], null);
+		}
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** Sorts the current elements into per-phase buckets. */
+	protected void bucket()
+	{
+		for(int p = 0; p < MAX_PHASES; p++)
+			mParallelCount[p] = mSerialCount[p] = 0;
+
+		for(int i = 0; i < ActionElement.sAllAEs.size; i++)
+		{
+			ActionElement tAE = ActionElement.sAllAEs.At(i);
+			int p = tAE.mUpdatePhase;
+			if(tAE.mParallel)
+				mParallel[p] = append(mParallel[p], mParallelCount[p]++, tAE);
+			else
+				mSerial[p] = append(mSerial[p], mSerialCount[p]++, tAE);
+		}
+	}
+
+	private static ActionElement[] append(ActionElement[] pBucket, int pIndex,
+		ActionElement pAE)
+	{
+		if(pIndex == pBucket.length)
+		{
+			ActionElement[] tBigger = new ActionElement[pBucket.length * 2];
+			System.arraycopy(pBucket, 0, tBigger, 0, pIndex);
+			pBucket = tBigger;
+		}
+		pBucket[pIndex] = pAE;
+		return pBucket;
+	}
+
+	/** Updates a batch across the workers and this thread, then waits. */
+	protected void fan_out(ActionElement[] pBatch, int pCount)
+	{
+		mBatch = pBatch;
+		mBatchSize = pCount;
+		mNext.set(0);
+		sInParallel = true;
+
+		// not worth waking anybody for a handful of elements
+		boolean tShare = mWorkers.length > 0 && pCount > CHUNK;
+		if(tShare)
+		{
+			synchronized(this)
+			{
+				mBusy = mWorkers.length;
+				mGeneration++;
+				notifyAll();
+			}
+		}
+
+		drain();
+
+		if(tShare)
+		{
+			boolean tInterrupted = false;
+			synchronized(this)
+			{
+				while(mBusy > 0 && mRunning)
+				{
+					try
+					{
+						wait();
+					}
+					catch(InterruptedException e)
+					{
+						tInterrupted = true;
+					}
+				}
+			}
+			if(tInterrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		sInParallel = false;
+		mBatch = null;
+		Steering.sOnly.Flush();
+
+		Throwable tFailure = mFailure;
+		if(tFailure != null)
+		{
+			mFailure = null;
+			if(tFailure instanceof RuntimeException)
+				throw (RuntimeException)tFailure;
+			if(tFailure instanceof Error)
+				throw (Error)tFailure;
+			throw new RuntimeException(tFailure);
+		}
+	}
+
+	/** Claims and updates chunks of the current batch until none are left. */
+	protected void drain()
+	{
+		ActionElement[] tBatch = mBatch;
+		int tSize = mBatchSize;
+		try
+		{
+			for(;;)
+			{
+				int tStart = mNext.getAndAdd(CHUNK);
+				if(tStart >= tSize)
+					break;
+				int tEnd = Math.min(tStart + CHUNK, tSize);
+				for(int i = tStart; i < tEnd; i++)
+					if(tBatch[i].Active())
+						tBatch[i].update_profiled();
+			}
+		}
+		catch(Throwable e)
+		{
+			// keep the first failure and stop handing out work
+			if(mFailure == null)
+				mFailure = e;
+			mNext.set(tSize);
+		}
+	}
+
+	/** Worker thread body. */
+	protected void work()
+	{
+		int tSeen = 0;
+		for(;;)
+		{
+			synchronized(this)
+			{
+				while(mRunning && mGeneration == tSeen)
+				{
+					try
+					{
+						wait();
+					}
+					catch(InterruptedException e)
+					{
+						// only Shutdown() ends a worker
+					}
+				}
+				if(!mRunning)
+					return;
+				tSeen = mGeneration;
+			}
+
+			drain();
+
+			synchronized(this)
+			{
+				if(--mBusy == 0)
+					notifyAll();
+			}
+		}
+	}
+}
@@ -30,6 +30,12 @@ public class Array<E> extends Container<E> implements Iterator<E>, Iterable<E>
 	private static final long serialVersionUID = -90938033040808162L;
 	int mIteratorIndex;
 
+	/** Selects elements for {@link Array#RemoveIf(Filter)}. */
+	public interface Filter<E>
+	{
+		public boolean Matches(E pVal);
+	}
+
 	// c'tor //
 
 	/** Default constructor preallocates space for up to 32 elements.
@@ -92,6 +98,28 @@ public class Array<E> extends Container<E> implements Iterator<E>, Iterable<E>
 		data[size-1] = pVal;
 	}
 
+	/** Removes every element the filter matches in a single pass, keeping the
+	 * rest in order. Much cheaper than repeated {@link #Remove(int)} calls.
+	 * @param pFilter selects the elements to remove.
+	 * @return the number of elements removed.
+	 */
+	public int RemoveIf(Filter<? super E> pFilter)
+	{
+		E[] tData = data; // grab local ref
+		int tSize = size;
+		int j = 0;
+		for(int i = 0; i < tSize; i++)
+		{
+			E tVal = tData[i];
+			if(!pFilter.Matches(tVal))
+				tData[j++] = tVal;
+		}
+		for(int i = j; i < tSize; i++)
+			tData[i] = null;
+		size = j;
+		return tSize - j;
+	}
+
 
 	@Override
 	public boolean hasNext()
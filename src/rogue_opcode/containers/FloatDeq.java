@@ -0,0 +1,268 @@
+// FloatDeq.java
+// Dynamical double-ended, circular queue of unboxed floats
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+
+/**
+ * {@code FloatDeq} is a {@link Deq} for {@code float} values, stored directly in
+ * an {@code float[]} so nothing is ever boxed. Storage is a power of two, and
+ * indices wrap with {@code data[mask&(head+i)]} just as in {@code Deq}. Bulk
+ * pushes and pops copy at most two runs with {@code System.arraycopy}.
+ *
+ * @see rogue_opcode.containers.Deq
+ * @author Brigham Toskin
+ */
+public class FloatDeq extends PrimitiveContainer
+{
+	private static final long serialVersionUID = -6017455243210873310L;
+
+	public float[] data;
+	public int head = 0, tail = 0, mask;
+
+	// c'tor //
+
+	/**
+	 * Construct a queue with a default capacity of
+	 * {@link Deq#DEFAULT_ALLOCATION_SIZE}.
+	 */
+	public FloatDeq()
+	{
+		this(Deq.DEFAULT_ALLOCATION_SIZE);
+	}
+
+	/**
+	 * Construct a queue with requested capacity, rounded up to a power of
+	 * two.
+	 *
+	 * @param pCapacity capacity to preallocate.
+	 */
+	public FloatDeq(int pCapacity)
+	{
+		data = new float[power_of_2_at_least(pCapacity)];
+		mask = data.length - 1;
+	}
+
+	// memory management ///////////////////////////////////////////////////////
+
+	/**
+	 * Makes room for at least {@code pCount} elements, rounded up to a power
+	 * of two. The contents are unwrapped to start at index 0.
+	 *
+	 * @param pCount number of elements to preallocate space for.
+	 */
+	public void Reserve(int pCount)
+	{
+		if(pCount <= data.length)
+			return;
+		float[] tData;
+		try
+		{
+			tData = new float[power_of_2_at_least(pCount)];
+		}
+		catch(OutOfMemoryError e)
+		{
+			throw new ContainerError("Allocation failure", e);
+		}
+		copy_out(0, tData, 0, size);
+		head = 0;
+		tail = size;
+		mask = tData.length - 1;
+		data = tData;
+	}
+
+	@Override
+	public int Capacity()
+	{
+		return data.length;
+	}
+
+	@Override
+	public void Clear()
+	{
+		head = tail = size = 0;
+	}
+
+	// accessors ///////////////////////////////////////////////////////////////
+
+	/** Returns the element at the specified index.
+	 * @param pIndex index of element to retrieve.
+	 */
+	public float At(int pIndex)
+	{
+		validate_index(pIndex);
+		return data[mask&(head + pIndex)];
+	}
+
+	/**
+	 * @param pIndex index of element to overwrite.
+	 * @param pVal the new value.
+	 */
+	public void Set(int pIndex, float pVal)
+	{
+		validate_index(pIndex);
+		data[mask&(head + pIndex)] = pVal;
+	}
+
+	public float First()
+	{
+		validate_nonempty();
+		return data[head];
+	}
+
+	public float Last()
+	{
+		validate_nonempty();
+		return data[mask&(tail - 1)];
+	}
+
+	/**
+	 * @param pVal value to add to back of queue.
+	 */
+	public void PushBack(float pVal)
+	{
+		if(size == data.length)
+			Reserve(data.length << 1);
+		data[tail] = pVal;
+		tail = (tail + 1) & mask;
+		size++;
+	}
+
+	/**
+	 * @param pVal value to add to front of queue.
+	 */
+	public void PushFront(float pVal)
+	{
+		if(size == data.length)
+			Reserve(data.length << 1);
+		head = (head - 1) & mask;
+		data[head] = pVal;
+		size++;
+	}
+
+	/**
+	 * Removes and returns the last element.
+	 *
+	 * @return The element from the back of the queue.
+	 */
+	public float PopBack()
+	{
+		validate_nonempty();
+		tail = (tail - 1) & mask;
+		size--;
+		return data[tail];
+	}
+
+	/**
+	 * Removes and returns the first element.
+	 *
+	 * @return The element from the front of the queue.
+	 */
+	public float PopFront()
+	{
+		validate_nonempty();
+		float tVal = data[head];
+		head = (head + 1) & mask;
+		size--;
+		return tVal;
+	}
+
+	/**
+	 * Removes an arbitrary element from the middle of the queue, shifting
+	 * whichever side is shorter.
+	 *
+	 * @param pIndex index of element to remove.
+	 */
+	public void Remove(int pIndex)
+	{
+		validate_index(pIndex);
+		float[] tData = data; // get local ref
+		if(pIndex < size / 2)
+		{
+			for(int i = pIndex; i > 0; i--)
+				tData[mask&(head + i)] = tData[mask&(head + i - 1)];
+			head = (head + 1) & mask;
+		}
+		else
+		{
+			for(int i = pIndex; i < size - 1; i++)
+				tData[mask&(head + i)] = tData[mask&(head + i + 1)];
+			tail = (tail - 1) & mask;
+		}
+		size--;
+	}
+
+	// bulk operations /////////////////////////////////////////////////////////
+
+	/**
+	 * Adds a run of values to the back of the queue.
+	 *
+	 * @param pSrc values to add.
+	 * @param pOffset index of the first one in {@code pSrc}.
+	 * @param pCount how many to add.
+	 */
+	public void PushBack(float[] pSrc, int pOffset, int pCount)
+	{
+		if(size + pCount > data.length)
+			Reserve(size + pCount);
+		int tFirst = Math.min(pCount, data.length - tail);
+		System.arraycopy(pSrc, pOffset, data, tail, tFirst);
+		System.arraycopy(pSrc, pOffset + tFirst, data, 0, pCount - tFirst);
+		tail = (tail + pCount) & mask;
+		size += pCount;
+	}
+
+	/**
+	 * Removes up to {@code pCount} values from the front of the queue.
+	 *
+	 * @param oDest receives the values.
+	 * @param pOffset where in {@code oDest} to start.
+	 * @param pCount most values to take.
+	 * @return how many were taken.
+	 */
+	public float PopFront(float[] oDest, int pOffset, int pCount)
+	{
+		int tCount = Math.min(pCount, size);
+		copy_out(0, oDest, pOffset, tCount);
+		head = (head + tCount) & mask;
+		size -= tCount;
+		return tCount;
+	}
+
+	/**
+	 * Copies a run of elements out without removing them.
+	 *
+	 * @param pIndex index of the first element to copy.
+	 * @param oDest receives the elements.
+	 * @param pDestOffset where in {@code oDest} to start.
+	 * @param pCount how many to copy.
+	 */
+	public void CopyTo(int pIndex, float[] oDest, int pDestOffset, int pCount)
+	{
+		validate_range(pIndex, pIndex + pCount);
+		copy_out(pIndex, oDest, pDestOffset, pCount);
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** Copies logical {@code [pIndex, pIndex + pCount)} in at most two runs. */
+	protected void copy_out(int pIndex, float[] oDest, int pDestOffset,
+		int pCount)
+	{
+		int tStart = mask&(head + pIndex);
+		int tFirst = Math.min(pCount, data.length - tStart);
+		System.arraycopy(data, tStart, oDest, pDestOffset, tFirst);
+		System.arraycopy(data, 0, oDest, pDestOffset + tFirst, pCount - tFirst);
+	}
+}
@@ -0,0 +1,230 @@
+// IntArray.java
+// Dynamical array of unboxed ints
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+import java.util.Arrays;
+
+
+/**
+ * {@code IntArray} is an {@link Array} for {@code int} values, stored directly
+ * in an {@code int[]} so nothing is ever boxed. Bulk operations go through
+ * {@code System.arraycopy}. When accessing the underlying {@code data} array
+ * directly, indices {@code [0, size)} are valid.
+ *
+ * @see rogue_opcode.containers.Array
+ * @author Brigham Toskin
+ */
+public class IntArray extends PrimitiveContainer
+{
+	private static final long serialVersionUID = -4462189217580417023L;
+
+	public int[] data;
+
+	// c'tor //
+
+	/** Default constructor preallocates space for up to 32 elements.
+	 */
+	public IntArray()
+	{
+		this(32);
+	}
+
+	/** Preallocates space for up to {@code pCapacity} elements.
+	 * @param pCapacity number of elements to allocate space for.
+	 */
+	public IntArray(int pCapacity)
+	{
+		data = new int[Math.max(pCapacity, 1)];
+	}
+
+	// memory management ///////////////////////////////////////////////////////
+
+	/**
+	 * Makes room for at least {@code pCount} elements.
+	 *
+	 * @param pCount number of elements to allocate space for.
+	 */
+	public void Reserve(int pCount)
+	{
+		if(pCount <= data.length)
+			return;
+		int[] tData;
+		try
+		{
+			tData = new int[pCount];
+		}
+		catch(OutOfMemoryError e)
+		{
+			throw new ContainerError("Allocation failure", e);
+		}
+		System.arraycopy(data, 0, tData, 0, size);
+		data = tData;
+	}
+
+	/**
+	 * Sets the logical size, growing the storage if needed. New elements are
+	 * whatever the storage held; {@link #Fill} them if that matters.
+	 *
+	 * @param pSize new element count.
+	 */
+	public void Resize(int pSize)
+	{
+		if(pSize > data.length)
+			Reserve(grown_capacity(data.length, pSize));
+		size = pSize;
+	}
+
+	@Override
+	public int Capacity()
+	{
+		return data.length;
+	}
+
+	// data access /////////////////////////////////////////////////////////////
+
+	public int First()
+	{
+		validate_nonempty();
+		return data[0];
+	}
+
+	public int Last()
+	{
+		validate_nonempty();
+		return data[size - 1];
+	}
+
+	/**
+	 * @param pIndex element index to retrieve.
+	 * @return the element.
+	 */
+	public int At(int pIndex)
+	{
+		validate_index(pIndex);
+		return data[pIndex];
+	}
+
+	/**
+	 * @param pIndex element index to overwrite.
+	 * @param pVal the new value.
+	 */
+	public void Set(int pIndex, int pVal)
+	{
+		validate_index(pIndex);
+		data[pIndex] = pVal;
+	}
+
+	/** Appends a new element to the end of the array, reallocating the buffer
+	 * if necessary.
+	 * @param pVal the item to append.
+	 */
+	public void Append(int pVal)
+	{
+		if(size == data.length)
+			Reserve(data.length << 1);
+		data[size++] = pVal;
+	}
+
+	/**
+	 * Appends a run of values from another array.
+	 *
+	 * @param pSrc values to append.
+	 * @param pOffset index of the first one in {@code pSrc}.
+	 * @param pCount how many to append.
+	 */
+	public void Append(int[] pSrc, int pOffset, int pCount)
+	{
+		if(size + pCount > data.length)
+			Reserve(grown_capacity(data.length, size + pCount));
+		System.arraycopy(pSrc, pOffset, data, size, pCount);
+		size += pCount;
+	}
+
+	/** Removes and returns the last element. */
+	public int PopBack()
+	{
+		validate_nonempty();
+		return data[--size];
+	}
+
+	/** Removes an arbitrary element from the middle of the array, keeping
+	 * order.
+	 * @param pIndex index of element to remove.
+	 */
+	public void Remove(int pIndex)
+	{
+		validate_index(pIndex);
+		System.arraycopy(data, pIndex + 1, data, pIndex, size - pIndex - 1);
+		size--;
+	}
+
+	/** Removes an element by moving the last one into its place. Constant
+	 * time, but doesn't keep order.
+	 * @param pIndex index of element to remove.
+	 */
+	public void RemoveUnordered(int pIndex)
+	{
+		validate_index(pIndex);
+		data[pIndex] = data[--size];
+	}
+
+	// bulk operations /////////////////////////////////////////////////////////
+
+	/**
+	 * Copies a run of elements out.
+	 *
+	 * @param pIndex index of the first element to copy.
+	 * @param oDest receives the elements.
+	 * @param pDestOffset where in {@code oDest} to start.
+	 * @param pCount how many to copy.
+	 */
+	public void CopyTo(int pIndex, int[] oDest, int pDestOffset, int pCount)
+	{
+		validate_range(pIndex, pIndex + pCount);
+		System.arraycopy(data, pIndex, oDest, pDestOffset, pCount);
+	}
+
+	/**
+	 * Copies another array's elements over this one's.
+	 *
+	 * @param pOther the array to copy.
+	 */
+	public void CopyFrom(IntArray pOther)
+	{
+		size = 0;
+		Append(pOther.data, 0, pOther.size);
+	}
+
+	/** Sets every element to {@code pVal}. */
+	public void Fill(int pVal)
+	{
+		Arrays.fill(data, 0, size, pVal);
+	}
+
+	/** Sets elements {@code [pFrom, pTo)} to {@code pVal}. */
+	public void Fill(int pFrom, int pTo, int pVal)
+	{
+		validate_range(pFrom, pTo);
+		Arrays.fill(data, pFrom, pTo, pVal);
+	}
+
+	/** @return a new array holding exactly the elements. */
+	public int[] ToArray()
+	{
+		int[] tCopy = new int[size];
+		System.arraycopy(data, 0, tCopy, 0, size);
+		return tCopy;
+	}
+}
@@ -0,0 +1,231 @@
+// IntObjectMap.java
+// Open-addressing hash map from unboxed int keys to objects
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * {@code IntObjectMap} maps {@code int} keys to values without boxing the
+ * keys or allocating per-entry objects; lookups never create garbage. Keys and
+ * values live in two parallel, power-of-two arrays, searched by linear
+ * probing from a multiplicative hash of the key. Removal shifts later entries
+ * of the probe run back, so there are no tombstones and lookups stay short.
+ * <br /><br />
+ * {@code null} values can't be stored; {@code Put(key, null)} removes the
+ * key. Every key is valid, including 0 and negatives.
+ * <br /><br />
+ * To walk the contents without an iterator, loop {@code i} over
+ * {@code [0, values.length)} and skip the {@code null} entries of
+ * {@link #values}; {@code keys[i]} holds the matching key.
+ *
+ * @param <V> Generic value type parameter.
+ * @author Brigham Toskin
+ */
+public class IntObjectMap<V> implements Serializable
+{
+	private static final long serialVersionUID = -5480672307735260617L;
+
+	/**
+	 * Default size to allocate storage for.
+	 * <br/><br/>
+	 * <b>Const value:</b> <code>32</code>
+	 */
+	public static final int DEFAULT_ALLOCATION_SIZE = 32;
+
+	public int[] keys;
+	public Object[] values;	// null where a slot is empty
+	public int size, mask;
+
+	// c'tor //
+
+	public IntObjectMap()
+	{
+		this(DEFAULT_ALLOCATION_SIZE);
+	}
+
+	/**
+	 * Constructs a map that holds {@code pCapacity} entries before growing.
+	 *
+	 * @param pCapacity entries to preallocate space for.
+	 */
+	public IntObjectMap(int pCapacity)
+	{
+		allocate(PrimitiveContainer.power_of_2_at_least(pCapacity * 4 / 3 + 1));
+	}
+
+	// map interfaces //////////////////////////////////////////////////////////
+
+	/**
+	 * @param pKey key to look up.
+	 * @return the value for {@code pKey}, or {@code null} if none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V Get(int pKey)
+	{
+		int[] tKeys = keys; // grab local refs
+		Object[] tValues = values;
+		int tMask = mask;
+		for(int i = slot(pKey, tMask);; i = (i + 1) & tMask)
+		{
+			Object tVal = tValues[i];
+			if(tVal == null)
+				return null;
+			if(tKeys[i] == pKey)
+				return (V)tVal;
+		}
+	}
+
+	/**
+	 * @param pKey key to look up.
+	 * @return {@code true} if {@code pKey} has a value.
+	 */
+	public boolean ContainsKey(int pKey)
+	{
+		return Get(pKey) != null;
+	}
+
+	/**
+	 * Associates a value with a key, replacing any previous value.
+	 *
+	 * @param pKey the key.
+	 * @param pVal the value; {@code null} removes the key.
+	 * @return the previous value, or {@code null} if none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V Put(int pKey, V pVal)
+	{
+		if(pVal == null)
+			return Remove(pKey);
+
+		int i = find(pKey);
+		if(values[i] != null)
+		{
+			V tOld = (V)values[i];
+			values[i] = pVal;
+			return tOld;
+		}
+
+		// keep the load under three quarters
+		if((size + 1) * 4 > keys.length * 3)
+		{
+			grow();
+			i = find(pKey);
+		}
+		keys[i] = pKey;
+		values[i] = pVal;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param pKey the key.
+	 * @return the value it had, or {@code null} if none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V Remove(int pKey)
+	{
+		int i = find(pKey);
+		V tOld = (V)values[i];
+		if(tOld == null)
+			return null;
+
+		// shift later members of the probe run back over the hole
+		int[] tKeys = keys; // grab local refs
+		Object[] tValues = values;
+		int tMask = mask;
+		for(int j = (i + 1) & tMask; tValues[j] != null; j = (j + 1) & tMask)
+		{
+			int tHome = slot(tKeys[j], tMask);
+			// move j to i unless its home lies cyclically in (i, j]
+			boolean tStays = (i <= j) ? (i < tHome && tHome <= j) :
+				(i < tHome || tHome <= j);
+			if(!tStays)
+			{
+				tKeys[i] = tKeys[j];
+				tValues[i] = tValues[j];
+				i = j;
+			}
+		}
+		tValues[i] = null;
+		size--;
+		return tOld;
+	}
+
+	/** Removes every entry. The storage is kept. */
+	public void Clear()
+	{
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	public boolean Empty()
+	{
+		return size == 0;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** @return where {@code pKey} lives, or the empty slot it would go in. */
+	protected int find(int pKey)
+	{
+		int[] tKeys = keys; // grab local refs
+		Object[] tValues = values;
+		int tMask = mask;
+		int i = slot(pKey, tMask);
+		while(tValues[i] != null && tKeys[i] != pKey)
+			i = (i + 1) & tMask;
+		return i;
+	}
+
+	/** Fibonacci hashing; spreads sequential resource IDs across the table. */
+	protected static int slot(int pKey, int pMask)
+	{
+		int tHash = pKey * 0x9E3779B9;
+		return (tHash ^ (tHash >>> 16)) & pMask;
+	}
+
+	protected void allocate(int pCapacity)
+	{
+		try
+		{
+			keys = new int[pCapacity];
+			values = new Object[pCapacity];
+		}
+		catch(OutOfMemoryError e)
+		{
+			throw new ContainerError("Allocation failure", e);
+		}
+		mask = pCapacity - 1;
+	}
+
+	protected void grow()
+	{
+		int[] tOldKeys = keys;
+		Object[] tOldValues = values;
+		allocate(tOldKeys.length << 1);
+		for(int i = 0; i < tOldKeys.length; i++)
+		{
+			if(tOldValues[i] == null)
+				continue;
+			int j = find(tOldKeys[i]);
+			keys[j] = tOldKeys[i];
+			values[j] = tOldValues[i];
+		}
+	}
+}
@@ -39,6 +39,13 @@ public class LazySortedArray<E> extends Array<E>
 {
 	private static final long serialVersionUID = 4854620935053392136L;
 
+	/**
+	 * Insertion sort gives up and hands off to a general sort once it has
+	 * shifted this many elements per element in the array; at that point the
+	 * data is evidently not "nearly sorted".
+	 */
+	public static final int SHIFT_BUDGET = 8;
+
 	public boolean mDirty = false;
 	protected Comparator<E> mComparator;
 
@@ -121,23 +128,47 @@ public class LazySortedArray<E> extends Array<E>
 	}
 
 	/**
-	 * Retrieve element at offset <code>pIndex</code>. This marks the array as
-	 * dirty.
-	 * 
-	 * @param pIndex offset from beginning of array to retrieve element.
-	 * @return the element at the requested index.
+	 * Removes the element at offset <code>pIndex</code>. This marks the array
+	 * as dirty.
+	 *
+	 * @param pIndex offset from beginning of array of the element to remove.
+	 */
+	@Override
+	public void Remove(int pIndex)
+	{
+		synchronized(this)
+		{
+			super.Remove(pIndex);
+			mDirty = true;
+		}
+	}
+
+	/**
+	 * Removes every element the filter matches. The survivors keep their
+	 * order, so this doesn't dirty the array.
+	 *
+	 * @param pFilter selects the elements to remove.
+	 * @return the number of elements removed.
 	 */
 	@Override
-	public E At(int pIndex)
+	public int RemoveIf(Filter<? super E> pFilter)
 	{
-		mDirty = true;
-		return super.At(pIndex);
+		synchronized(this)
+		{
+			return super.RemoveIf(pFilter);
+		}
 	}
 
 	// sorting interfaces //////////////////////////////////////////////////////
 
 	/**
-	 * Sorts the array.
+	 * Sorts the array. This is an in-place insertion sort, so it allocates
+	 * nothing and costs O(n) when only a few elements are out of place, which
+	 * is the usual case from one frame to the next. If the data turns out to
+	 * be badly shuffled, it falls back to {@link Arrays#sort}.
+	 * <br /><br />
+	 * The sort is stable; elements that compare equal keep their relative
+	 * order.
 	 */
 	public void Sort()
 	{
@@ -145,34 +176,35 @@ public class LazySortedArray<E> extends Array<E>
 		{
 			if(size < 1)
 				return;
-			// place min at head
-			/*
-			 * int tMinIndex = 0;
-			 * for(int i = 1; i < data.length; i++)
-			 * {
-			 * if(mComparator.compare(data[tMinIndex], data[i]) > 0)
-			 * tMinIndex = i;
-			 * }
-			 * if(tMinIndex > 0)
-			 * {
-			 * E tVal = data[0];
-			 * data[0] = data[tMinIndex];
-			 * data[tMinIndex] = tVal;
-			 * }
-			 *
-			 * // sort remaining array
-			 * for(int i = 2; i <= data.length; i++)
-			 * {
-			 * E tVal = data[i];
-			 * int j;
-			 * for(j = i; mComparator.compare(tVal, data[j - 1]) < 0; j--)
-			 * data[j] = data[j - 1];
-			 * data[j] = tVal;
-			 * }
-			 */
+			E[] tData = data; // grab local refs
+			Comparator<E> tCmp = mComparator;
+			int tSize = size;
+			int tBudget = tSize * SHIFT_BUDGET;
 			try
 			{
-				Arrays.sort(data, 0, size, mComparator);
+				for(int i = 1; i < tSize; i++)
+				{
+					E tVal = tData[i];
+					int j = i - 1;
+					if(tCmp.compare(tData[j], tVal) <= 0)
+						continue; // already in place; the common case
+
+					// shift larger elements up to open a slot for tVal
+					do
+					{
+						tData[j + 1] = tData[j];
+						j--;
+					}
+					while(j >= 0 && tCmp.compare(tData[j], tVal) > 0);
+					tData[j + 1] = tVal;
+
+					tBudget -= i - 1 - j;
+					if(tBudget < 0)
+					{
+						Arrays.sort(tData, 0, tSize, tCmp);
+						break;
+					}
+				}
 			}
 			catch(Exception e)
 			{
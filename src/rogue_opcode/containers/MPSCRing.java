@@ -0,0 +1,197 @@
+// MPSCRing.java
+// Lock-free multiple-producer, single-consumer ring buffer
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * {@code MPSCRing} is a bounded queue for handing objects from any number of
+ * producer threads to exactly one consumer thread, without locks. Storage is
+ * a power-of-two array indexed with {@code data[mask&counter]}, as in
+ * {@link Deq}; nothing is allocated after construction.
+ * <br /><br />
+ * Producers claim a slot by advancing the shared tail with compare-and-set,
+ * fill it, then stamp the slot's sequence number to say it's ready. The
+ * consumer takes a slot only once its stamp shows it's filled, and stamps it
+ * free again for the producer one lap later. A producer that stalls between
+ * claiming and stamping holds up the consumer at that slot, but nobody ever
+ * blocks on a lock.
+ * <br /><br />
+ * Call {@code Offer} methods from any thread and {@code Poll}/{@code Peek}
+ * methods from the consumer only. With a single producer, {@link SPSCRing}
+ * is cheaper.
+ *
+ * @param <E> Generic storage type parameter.
+ * @author Brigham Toskin
+ */
+public class MPSCRing<E>
+{
+	protected final Object[] data;
+	protected final int mask;
+
+	// per slot: equals the counter value when free for that lap's producer,
+	// and counter + 1 once filled
+	protected final AtomicLongArray mSequences;
+	protected final AtomicLong mTail = new AtomicLong();
+	protected volatile long mHead;	// consumer only writes
+
+	// c'tor //
+
+	/**
+	 * @param pCapacity most elements in flight; rounded up to a power of two.
+	 */
+	public MPSCRing(int pCapacity)
+	{
+		data = new Object[PrimitiveContainer.power_of_2_at_least(pCapacity)];
+		mask = data.length - 1;
+		mSequences = new AtomicLongArray(data.length);
+		for(int i = 0; i < data.length; i++)
+			mSequences.set(i, i);
+	}
+
+	// producer interfaces /////////////////////////////////////////////////////
+
+	/**
+	 * Adds an element at the tail.
+	 *
+	 * @param pVal element to add; not {@code null}.
+	 * @return {@code false} if the ring was full.
+	 */
+	public boolean Offer(E pVal)
+	{
+		for(;;)
+		{
+			long tTail = mTail.get();
+			int tIndex = mask&(int)tTail;
+			long tSequence = mSequences.get(tIndex);
+			if(tSequence == tTail)
+			{
+				if(mTail.compareAndSet(tTail, tTail + 1))
+				{
+					data[tIndex] = pVal;
+					mSequences.set(tIndex, tTail + 1); // publish
+					return true;
+				}
+			}
+			else if(tSequence < tTail)
+				return false; // consumer hasn't freed it yet; full
+			// else another producer got here first; try the next slot
+		}
+	}
+
+	/**
+	 * Adds as many of a run of elements as fit. Other producers' elements may
+	 * be interleaved with them.
+	 *
+	 * @param pSrc elements to add; none may be {@code null}.
+	 * @param pOffset index of the first one in {@code pSrc}.
+	 * @param pCount how many to add.
+	 * @return how many were added.
+	 */
+	public int Offer(E[] pSrc, int pOffset, int pCount)
+	{
+		int i = 0;
+		while(i < pCount && Offer(pSrc[pOffset + i]))
+			i++;
+		return i;
+	}
+
+	// consumer interfaces /////////////////////////////////////////////////////
+
+	/**
+	 * Removes the element at the head.
+	 *
+	 * @return the element, or {@code null} if the ring was empty or the next
+	 *         producer hasn't finished writing.
+	 */
+	@SuppressWarnings("unchecked")
+	public E Poll()
+	{
+		long tHead = mHead;
+		int tIndex = mask&(int)tHead;
+		if(mSequences.get(tIndex) != tHead + 1)
+			return null;
+		E tVal = (E)data[tIndex];
+		data[tIndex] = null;
+		mSequences.set(tIndex, tHead + data.length); // free for next lap
+		mHead = tHead + 1;
+		return tVal;
+	}
+
+	/**
+	 * Removes up to {@code pCount} elements from the head.
+	 *
+	 * @param oDest receives the elements.
+	 * @param pOffset where in {@code oDest} to start.
+	 * @param pCount most elements to take.
+	 * @return how many were taken.
+	 */
+	@SuppressWarnings("unchecked")
+	public int Poll(E[] oDest, int pOffset, int pCount)
+	{
+		long tHead = mHead;
+		Object[] tData = data; // grab local ref
+		int i = 0;
+		for(; i < pCount; i++)
+		{
+			int tIndex = mask&(int)(tHead + i);
+			if(mSequences.get(tIndex) != tHead + i + 1)
+				break;
+			oDest[pOffset + i] = (E)tData[tIndex];
+			tData[tIndex] = null;
+			mSequences.set(tIndex, tHead + i + tData.length);
+		}
+		mHead = tHead + i;
+		return i;
+	}
+
+	/**
+	 * @return the element at the head without removing it, or {@code null} if
+	 *         there isn't a finished one.
+	 */
+	@SuppressWarnings("unchecked")
+	public E Peek()
+	{
+		long tHead = mHead;
+		int tIndex = mask&(int)tHead;
+		if(mSequences.get(tIndex) != tHead + 1)
+			return null;
+		return (E)data[tIndex];
+	}
+
+	// either thread ///////////////////////////////////////////////////////////
+
+	/**
+	 * @return slots claimed and not yet consumed; only a snapshot while
+	 *         others are busy.
+	 */
+	public int Size()
+	{
+		long tHead = mHead;
+		return (int)Math.max(0, mTail.get() - tHead);
+	}
+
+	public boolean Empty()
+	{
+		return Size() == 0;
+	}
+
+	public int Capacity()
+	{
+		return data.length;
+	}
+}
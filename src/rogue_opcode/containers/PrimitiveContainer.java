@@ -0,0 +1,92 @@
+// PrimitiveContainer.java
+// Common base for the unboxed array containers
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+import java.io.Serializable;
+
+
+/**
+ * {@code PrimitiveContainer} holds the bookkeeping shared by the containers
+ * that store {@code int}, {@code float} and {@code long} values directly,
+ * without boxing. Like {@link Container}, everything is public; each subclass
+ * exposes its backing array as {@code data}, valid over {@code [0, size)} or,
+ * for the queues, through the head and mask.
+ *
+ * @see rogue_opcode.containers.Container
+ * @author Brigham Toskin
+ */
+public abstract class PrimitiveContainer implements Serializable
+{
+	private static final long serialVersionUID = 6301841179243309245L;
+
+	public int size;
+
+	/** @return {@code true} if there are no elements. */
+	public boolean Empty()
+	{
+		return size == 0;
+	}
+
+	/** Forgets every element. The storage is kept. */
+	public void Clear()
+	{
+		size = 0;
+	}
+
+	/** @return the number of elements the storage can hold. */
+	public abstract int Capacity();
+
+	// error checking and memory helpers ///////////////////////////////////////
+
+	protected void validate_nonempty()
+	{
+		if(size < 1)
+			throw new ContainerError("Accessing empty container.",
+					new Exception());
+	}
+
+	protected void validate_index(int pIndex)
+	{
+		if(pIndex < 0 || pIndex >= size)
+			throw new ContainerError("Index out of bounds.", new Exception());
+	}
+
+	protected void validate_range(int pFrom, int pTo)
+	{
+		if(pFrom < 0 || pTo > size || pFrom > pTo)
+			throw new ContainerError("Range out of bounds.", new Exception());
+	}
+
+	/** @return a capacity at least {@code pCount}, doubling from the old. */
+	protected static int grown_capacity(int pOld, int pCount)
+	{
+		int tCapacity = Math.max(pOld, 1);
+		while(tCapacity < pCount)
+			tCapacity <<= 1;
+		return tCapacity;
+	}
+
+	/** @return the smallest power of two no less than {@code pValue}. */
+	protected static int power_of_2_at_least(int pValue)
+	{
+		int tPow2 = Math.max(pValue, 1) - 1;
+		tPow2 |= tPow2 >> 1;
+		tPow2 |= tPow2 >> 2;
+		tPow2 |= tPow2 >> 4;
+		tPow2 |= tPow2 >> 8;
+		tPow2 |= tPow2 >> 16;
+		return tPow2 + 1;
+	}
+}
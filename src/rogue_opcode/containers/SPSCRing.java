@@ -0,0 +1,191 @@
+// SPSCRing.java
+// Lock-free single-producer, single-consumer ring buffer
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+
+/**
+ * {@code SPSCRing} is a bounded queue for handing objects from exactly one
+ * producer thread to exactly one consumer thread, without locks. Storage is a
+ * power-of-two array indexed with {@code data[mask&counter]}, as in
+ * {@link Deq}; nothing is allocated after construction.
+ * <br /><br />
+ * The head and tail are ever-increasing {@code long} counters. Only the
+ * consumer writes the head and only the producer writes the tail, each with a
+ * volatile store that publishes the slot it just filled or emptied. Each side
+ * keeps a private copy of the other's counter and rereads the volatile only
+ * when that copy says the ring is full (or empty), so in steady state neither
+ * thread touches the other's cache line.
+ * <br /><br />
+ * Call {@code Offer} methods from the producer only and {@code Poll}/
+ * {@code Peek} methods from the consumer only. For more than one producer use
+ * {@link MPSCRing}.
+ *
+ * @param <E> Generic storage type parameter.
+ * @author Brigham Toskin
+ */
+public class SPSCRing<E>
+{
+	protected final Object[] data;
+	protected final int mask;
+
+	protected volatile long mHead;	// next slot to read; consumer writes
+	protected volatile long mTail;	// next slot to fill; producer writes
+	protected long mHeadCache;		// producer's view of mHead
+	protected long mTailCache;		// consumer's view of mTail
+
+	// c'tor //
+
+	/**
+	 * @param pCapacity most elements in flight; rounded up to a power of two.
+	 */
+	public SPSCRing(int pCapacity)
+	{
+		data = new Object[PrimitiveContainer.power_of_2_at_least(pCapacity)];
+		mask = data.length - 1;
+	}
+
+	// producer interfaces /////////////////////////////////////////////////////
+
+	/**
+	 * Adds an element at the tail.
+	 *
+	 * @param pVal element to add; not {@code null}.
+	 * @return {@code false} if the ring was full.
+	 */
+	public boolean Offer(E pVal)
+	{
+		long tTail = mTail;
+		if(tTail - mHeadCache > mask)
+		{
+			mHeadCache = mHead;
+			if(tTail - mHeadCache > mask)
+				return false;
+		}
+		data[mask&(int)tTail] = pVal;
+		mTail = tTail + 1; // publish
+		return true;
+	}
+
+	/**
+	 * Adds as many of a run of elements as fit, publishing them together.
+	 *
+	 * @param pSrc elements to add; none may be {@code null}.
+	 * @param pOffset index of the first one in {@code pSrc}.
+	 * @param pCount how many to add.
+	 * @return how many were added.
+	 */
+	public int Offer(E[] pSrc, int pOffset, int pCount)
+	{
+		long tTail = mTail;
+		long tFree = data.length - (tTail - mHeadCache);
+		if(tFree < pCount)
+		{
+			mHeadCache = mHead;
+			tFree = data.length - (tTail - mHeadCache);
+		}
+		int tCount = (int)Math.min(tFree, pCount);
+		Object[] tData = data; // grab local ref
+		for(int i = 0; i < tCount; i++)
+			tData[mask&(int)(tTail + i)] = pSrc[pOffset + i];
+		mTail = tTail + tCount; // publish
+		return tCount;
+	}
+
+	// consumer interfaces /////////////////////////////////////////////////////
+
+	/**
+	 * Removes the element at the head.
+	 *
+	 * @return the element, or {@code null} if the ring was empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E Poll()
+	{
+		long tHead = mHead;
+		if(tHead >= mTailCache)
+		{
+			mTailCache = mTail;
+			if(tHead >= mTailCache)
+				return null;
+		}
+		int tIndex = mask&(int)tHead;
+		E tVal = (E)data[tIndex];
+		data[tIndex] = null;
+		mHead = tHead + 1; // release the slot
+		return tVal;
+	}
+
+	/**
+	 * Removes up to {@code pCount} elements from the head.
+	 *
+	 * @param oDest receives the elements.
+	 * @param pOffset where in {@code oDest} to start.
+	 * @param pCount most elements to take.
+	 * @return how many were taken.
+	 */
+	@SuppressWarnings("unchecked")
+	public int Poll(E[] oDest, int pOffset, int pCount)
+	{
+		long tHead = mHead;
+		if(mTailCache - tHead < pCount)
+			mTailCache = mTail;
+		int tCount = (int)Math.min(mTailCache - tHead, pCount);
+		Object[] tData = data; // grab local ref
+		for(int i = 0; i < tCount; i++)
+		{
+			int tIndex = mask&(int)(tHead + i);
+			oDest[pOffset + i] = (E)tData[tIndex];
+			tData[tIndex] = null;
+		}
+		mHead = tHead + tCount; // release the slots
+		return tCount;
+	}
+
+	/**
+	 * @return the element at the head without removing it, or {@code null} if
+	 *         the ring is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E Peek()
+	{
+		long tHead = mHead;
+		if(tHead >= mTailCache)
+		{
+			mTailCache = mTail;
+			if(tHead >= mTailCache)
+				return null;
+		}
+		return (E)data[mask&(int)tHead];
+	}
+
+	// either thread ///////////////////////////////////////////////////////////
+
+	/** @return elements in flight; only a snapshot if the other side is busy. */
+	public int Size()
+	{
+		long tHead = mHead;
+		return (int)(mTail - tHead);
+	}
+
+	public boolean Empty()
+	{
+		return mHead == mTail;
+	}
+
+	public int Capacity()
+	{
+		return data.length;
+	}
+}
@@ -0,0 +1,309 @@
+// SlotMap.java
+// Unordered array with stable, generation-checked handles
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.containers;
+
+
+/**
+ * {@code SlotMap} is an {@link Array} whose elements can also be found, and
+ * removed, in constant time through a {@code long} handle. The elements stay
+ * packed in {@code data[0, size)} for fast iteration; removal moves the last
+ * element into the hole, so <b>order is not preserved</b>.
+ * <br /><br />
+ * A handle carries a generation count along with its slot. Removing an
+ * element bumps its slot's generation, so stale handles are detected and
+ * never alias whatever is added into the slot later. {@link #NONE} is never a
+ * valid handle.
+ * <br /><br />
+ * Removing elements while a loop is walking {@code data} would shuffle them
+ * under it. Bracket such loops with {@link #Lock()} and {@link #Unlock()};
+ * removals requested in between are deferred until the outermost
+ * {@code Unlock()}. Deferred elements are dead as far as {@link #Get(long)}
+ * is concerned, but stay in {@code data} until then.
+ *
+ * @param <E> Generic storage type parameter.
+ * @author Brigham Toskin
+ */
+public class SlotMap<E> extends Array<E>
+{
+	private static final long serialVersionUID = -2783617310563092514L;
+
+	/** A handle that never refers to anything. */
+	public static final long NONE = 0;
+
+	protected int[] mDenseToSlot;	// data index -> slot
+	protected int[] mSlotToDense;	// slot -> data index, or next free slot
+	protected int[] mGenerations;	// per slot; bumped on removal
+	protected int mSlotCount;
+	protected int mFreeHead = -1;
+
+	protected int mLockDepth;
+	protected int[] mPending = new int[16];	// slots awaiting removal
+	protected int mPendingCount;
+
+	// c'tors //
+
+	public SlotMap()
+	{
+		this(32);
+	}
+
+	/** Preallocates space for up to {@code pCapacity} elements.
+	 * @param pCapacity number of elements to allocate space for.
+	 */
+	public SlotMap(int pCapacity)
+	{
+		super(pCapacity);
+		mDenseToSlot = new int[data.length];
+		mSlotToDense = new int[data.length];
+		mGenerations = new int[data.length];
+	}
+
+	// handle interfaces ///////////////////////////////////////////////////////
+
+	/**
+	 * Adds an element at the end of the array.
+	 *
+	 * @param pVal the item to add.
+	 * @return a handle to the item.
+	 */
+	public long Add(E pVal)
+	{
+		resize_inc();
+		int tIndex = size - 1;
+		data[tIndex] = pVal;
+		if(mDenseToSlot.length < data.length)
+			mDenseToSlot = grow(mDenseToSlot, data.length);
+
+		int tSlot = mFreeHead;
+		if(tSlot >= 0)
+			mFreeHead = mSlotToDense[tSlot];
+		else
+		{
+			tSlot = mSlotCount++;
+			if(tSlot == mSlotToDense.length)
+			{
+				mSlotToDense = grow(mSlotToDense, tSlot * 2);
+				mGenerations = grow(mGenerations, tSlot * 2);
+			}
+			mGenerations[tSlot] = 1;
+		}
+		mSlotToDense[tSlot] = tIndex;
+		mDenseToSlot[tIndex] = tSlot;
+		return handle(tSlot);
+	}
+
+	/**
+	 * @param pHandle a handle from {@link #Add(Object)}.
+	 * @return the element, or {@code null} if it has been removed.
+	 */
+	public E Get(long pHandle)
+	{
+		int tSlot = live_slot(pHandle);
+		return (tSlot >= 0) ? data[mSlotToDense[tSlot]] : null;
+	}
+
+	/**
+	 * @param pHandle a handle from {@link #Add(Object)}.
+	 * @return {@code true} if the handle's element hasn't been removed.
+	 */
+	public boolean Contains(long pHandle)
+	{
+		return live_slot(pHandle) >= 0;
+	}
+
+	/**
+	 * Removes the element a handle refers to. Deferred while locked.
+	 *
+	 * @param pHandle a handle from {@link #Add(Object)}.
+	 * @return {@code true} if the element was live.
+	 */
+	public boolean Remove(long pHandle)
+	{
+		int tSlot = live_slot(pHandle);
+		if(tSlot < 0)
+			return false;
+		kill(tSlot);
+		return true;
+	}
+
+	/**
+	 * @param pIndex index into {@code data}.
+	 * @return a handle to the element at that index.
+	 */
+	public long HandleAt(int pIndex)
+	{
+		validate_index(pIndex);
+		return handle(mDenseToSlot[pIndex]);
+	}
+
+	// iteration guards ////////////////////////////////////////////////////////
+
+	/** Defers removals until the matching {@link #Unlock()}. Nests. */
+	public void Lock()
+	{
+		mLockDepth++;
+	}
+
+	/** Ends a {@link #Lock()}; the outermost one carries out removals. */
+	public void Unlock()
+	{
+		if(--mLockDepth > 0)
+			return;
+		mLockDepth = 0;
+		for(int i = 0; i < mPendingCount; i++)
+			remove_slot(mPending[i]);
+		mPendingCount = 0;
+	}
+
+	/** @return {@code true} between {@link #Lock()} and {@link #Unlock()}. */
+	public boolean Locked()
+	{
+		return mLockDepth > 0;
+	}
+
+	// container interfaces ////////////////////////////////////////////////////
+
+	/**
+	 * Adds an element, discarding its handle.
+	 *
+	 * @param pVal the item to append.
+	 */
+	@Override
+	public void Append(E pVal)
+	{
+		Add(pVal);
+	}
+
+	/**
+	 * Removes the element at index {@code pIndex} by moving the last element
+	 * into its place. Deferred while locked.
+	 *
+	 * @param pIndex index of element to remove.
+	 */
+	@Override
+	public void Remove(int pIndex)
+	{
+		validate_index(pIndex);
+		int tSlot = mDenseToSlot[pIndex];
+		if(mSlotToDense[tSlot] == pIndex && !pending(tSlot))
+			kill(tSlot);
+	}
+
+	/**
+	 * Removes every element the filter matches. Deferred while locked.
+	 *
+	 * @param pFilter selects the elements to remove.
+	 * @return the number of elements removed.
+	 */
+	@Override
+	public int RemoveIf(Filter<? super E> pFilter)
+	{
+		int tRemoved = 0;
+		// walk backward so swapped-in elements have already been checked
+		for(int i = size - 1; i >= 0; i--)
+		{
+			int tSlot = mDenseToSlot[i];
+			if(pFilter.Matches(data[i]) && !pending(tSlot))
+			{
+				kill(tSlot);
+				tRemoved++;
+			}
+		}
+		return tRemoved;
+	}
+
+	/** Removes everything, invalidating every outstanding handle. */
+	@Override
+	public void Clear()
+	{
+		for(int i = 0; i < mSlotCount; i++)
+			if(++mGenerations[i] == 0)
+				mGenerations[i] = 1;
+		// chain every slot onto the free list
+		for(int i = 0; i < mSlotCount; i++)
+			mSlotToDense[i] = (i + 1 < mSlotCount) ? i + 1 : -1;
+		mFreeHead = (mSlotCount > 0) ? 0 : -1;
+		mPendingCount = 0;
+		super.Clear();
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	protected long handle(int pSlot)
+	{
+		return ((long)mGenerations[pSlot] << 32) | pSlot;
+	}
+
+	/** @return the handle's slot if it's live, or -1. */
+	protected int live_slot(long pHandle)
+	{
+		int tSlot = (int)pHandle;
+		if(tSlot < 0 || tSlot >= mSlotCount ||
+			mGenerations[tSlot] != (int)(pHandle >>> 32))
+			return -1;
+		return tSlot;
+	}
+
+	/** Invalidates a slot's handles, then removes it now or at Unlock(). */
+	protected void kill(int pSlot)
+	{
+		mGenerations[pSlot]++;
+		if(mGenerations[pSlot] == 0)
+			mGenerations[pSlot] = 1; // keep NONE unreachable
+		if(mLockDepth > 0)
+		{
+			if(mPendingCount == mPending.length)
+				mPending = grow(mPending, mPendingCount * 2);
+			mPending[mPendingCount++] = pSlot;
+		}
+		else
+			remove_slot(pSlot);
+	}
+
+	protected boolean pending(int pSlot)
+	{
+		for(int i = 0; i < mPendingCount; i++)
+			if(mPending[i] == pSlot)
+				return true;
+		return false;
+	}
+
+	/** Swap-removes a slot's element and frees the slot. */
+	protected void remove_slot(int pSlot)
+	{
+		E[] tData = data; // grab local ref
+		int tIndex = mSlotToDense[pSlot];
+		int tLast = size - 1;
+		if(tIndex != tLast)
+		{
+			tData[tIndex] = tData[tLast];
+			int tMoved = mDenseToSlot[tLast];
+			mDenseToSlot[tIndex] = tMoved;
+			mSlotToDense[tMoved] = tIndex;
+		}
+		tData[tLast] = null;
+		size--;
+
+		mSlotToDense[pSlot] = mFreeHead;
+		mFreeHead = pSlot;
+	}
+
+	private static int[] grow(int[] pOld, int pLength)
+	{
+		int[] tNew = new int[pLength];
+		System.arraycopy(pOld, 0, tNew, 0, pOld.length);
+		return tNew;
+	}
+}
@@ -1,7 +1,7 @@
-// SuperHashMap.java
+// StringMap.java
 // High performance string-indexed hashtable
 //
-// Copyright ©2010 Brigham Toskin
+// Copyright ©2010-2012 Brigham Toskin
 // This software is part of the Rogue-Opcode game framework. It is distributable
 // under the terms of a modified MIT License. You should have received a copy of
 // the license in the file LICENSE. If not, see:
@@ -17,111 +17,305 @@
 
 package rogue_opcode.containers;
 
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
-//import static java.lang.System.err;
 
-
-// Overrides HashMap's key-indexed functions to use a custom hashcode digest,
-// rather than the standard String.hashCode().
-public class StringMap<V> extends HashMap<Integer, V>
+/**
+ * {@code StringMap} is an open-addressed hash map from {@code String} keys to
+ * values, hashed with Paul Hsieh's SuperFastHash rather than
+ * {@code String.hashCode()}. Keys, their cached hashes, and values live in
+ * three parallel power-of-two arrays searched by linear probing; a hit is
+ * confirmed by comparing the stored key, so strings with the same hash never
+ * clobber each other.
+ * <br /><br />
+ * For lookups in a hot loop, make a {@link Key} once and pass that instead of
+ * the string. A {@code Key} carries its hash and an interned copy of the
+ * string, so the lookup skips hashing and usually settles equality with a
+ * reference comparison.
+ * <pre>
+ *     static final StringMap.Key HEALTH = new StringMap.Key("health");
+ *     ...
+ *     Integer tHealth = mState.get(HEALTH);
+ * </pre>
+ * Keys may not be {@code null}. Storing a {@code null} value removes the key.
+ *
+ * @param <V> Generic value type parameter.
+ * @author Brigham Toskin
+ */
+public class StringMap<V> implements Serializable
 {
-	private static final long serialVersionUID = 7710690646684396854L;
-	
-	private Set<String> mKeySet;
-	
+	private static final long serialVersionUID = 7710690646684396855L;
+
+	/** A string with its hash precomputed, for repeated lookups. */
+	public static final class Key implements Serializable
+	{
+		private static final long serialVersionUID = -2286157216372437612L;
+
+		public final String mString;
+		public final int mHash;
+
+		/** @param pString the key; interned. */
+		public Key(String pString)
+		{
+			mString = pString.intern();
+			mHash = hash(pString);
+		}
+
+		@Override
+		public String toString()
+		{
+			return mString;
+		}
+	}
+
+	public String[] keys;		// null where a slot is empty
+	public int[] hashes;
+	public Object[] values;
+	public int size, mask;
+
 	// c'tors //////////////////////////////////////////////////////////////////
 
 	public StringMap()
 	{
-		super();
+		this(16);
 	}
-	
+
+	/**
+	 * Constructs a map that holds {@code initialCapacity} entries before
+	 * growing.
+	 *
+	 * @param initialCapacity entries to preallocate space for.
+	 */
 	public StringMap(int initialCapacity)
 	{
-		super(initialCapacity);
+		allocate(PrimitiveContainer.power_of_2_at_least(
+			initialCapacity * 4 / 3 + 1));
 	}
-	
-	public StringMap(int initialCapacity, float loadFactor)
+
+	// map interfaces //////////////////////////////////////////////////////////
+
+	public boolean containsKey(String key)
 	{
-		super(initialCapacity, loadFactor);
+		return find(key, hash(key)) >= 0;
 	}
-	
-	public StringMap(Map<? extends Integer,? extends V> m)
+
+	public boolean containsKey(Key key)
 	{
-		super(m);
+		return find(key.mString, key.mHash) >= 0;
 	}
-	
-	// HashMap overrides ///////////////////////////////////////////////////////
 
-	/* (non-Javadoc)
-	 * @see java.util.HashMap#containsKey(java.lang.Object)
-	 */
-	@Override
-	public boolean containsKey(Object key)
+	public V get(String key)
 	{
-//		err.println("containsKey(" + key + ": " + hash((String)key) + ")");
-		return super.containsKey(hash((String)key));
+		return value_at(find(key, hash(key)));
 	}
 
-	/* (non-Javadoc)
-	 * @see java.util.HashMap#get(java.lang.Object)
-	 */
-	@Override
-	public V get(Object key)
+	public V get(Key key)
 	{
-//		err.println("get(" + key + ": " + hash((String)key) + ")");
-		return super.get(hash((String)key));
+		return value_at(find(key.mString, key.mHash));
 	}
 
-	/* (non-Javadoc)
-	 * @see java.util.HashMap#keySet()
+	/**
+	 * Associates a value with a key, replacing any previous value.
+	 *
+	 * @param key the key.
+	 * @param value the value; {@code null} removes the key.
+	 * @return the previous value, or {@code null} if none.
 	 */
-	@Override
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public Set keySet()
+	public V put(String key, V value)
 	{
-		return new HashSet<String>(mKeySet);
+		return put(key, hash(key), value);
 	}
 
-	/* (non-Javadoc)
-	 * @see java.util.HashMap#put(java.lang.Object, java.lang.Object)
-	 */
-	public V put(String key, V value)
+	public V put(Key key, V value)
 	{
-//		err.println("put(" + key + ": " + hash((String)key) + ")");
-		if(mKeySet == null)
-			mKeySet = new HashSet<String>();
-		mKeySet.add(key);
-		return super.put(hash((String)key), value);
+		return put(key.mString, key.mHash, value);
 	}
 
-	/* (non-Javadoc)
-	 * @see java.util.HashMap#remove(java.lang.Object)
+	/**
+	 * Removes a key.
+	 *
+	 * @param key the key.
+	 * @return the value it had, or {@code null} if none.
 	 */
-	@Override
-	public V remove(Object key)
+	public V remove(String key)
+	{
+		return remove_at(find(key, hash(key)));
+	}
+
+	public V remove(Key key)
+	{
+		return remove_at(find(key.mString, key.mHash));
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/** Removes every entry. The storage is kept. */
+	public void clear()
+	{
+		Arrays.fill(keys, null);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/** @return a copy of the current keys. */
+	public Set<String> keySet()
 	{
-		mKeySet.remove(key);
-		return super.remove(hash((String)key));
+		Set<String> tKeys = new HashSet<String>();
+		for(int i = 0; i < keys.length; i++)
+			if(keys[i] != null)
+				tKeys.add(keys[i]);
+		return tKeys;
 	}
-	
+
 	@Override
 	public String toString()
 	{
-		String tString = "{";
-		for(String tKey : mKeySet)
-			tString = tString + tKey + "=" + get(tKey) + ", ";
-		tString = tString.substring(0, tString.lastIndexOf(",")) + "}";
-		return tString;
+		StringBuilder tString = new StringBuilder("{");
+		for(int i = 0; i < keys.length; i++)
+		{
+			if(keys[i] == null)
+				continue;
+			if(tString.length() > 1)
+				tString.append(", ");
+			tString.append(keys[i]).append('=').append(values[i]);
+		}
+		return tString.append('}').toString();
 	}
 
 	// private util methods ////////////////////////////////////////////////////
 
-	private int hash(String pData)
+	/** @return the slot holding {@code pKey}, or -1. */
+	private int find(String pKey, int pHash)
+	{
+		String[] tKeys = keys; // grab local refs
+		int[] tHashes = hashes;
+		int tMask = mask;
+		for(int i = slot(pHash, tMask);; i = (i + 1) & tMask)
+		{
+			String tKey = tKeys[i];
+			if(tKey == null)
+				return -1;
+			if(tHashes[i] == pHash && (tKey == pKey || tKey.equals(pKey)))
+				return i;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value_at(int i)
+	{
+		return (i >= 0) ? (V)values[i] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V put(String pKey, int pHash, V pValue)
+	{
+		if(pKey == null)
+			throw new NullPointerException("StringMap keys may not be null.");
+		int i = find(pKey, pHash);
+		if(pValue == null)
+			return remove_at(i);
+		if(i >= 0)
+		{
+			V tOld = (V)values[i];
+			values[i] = pValue;
+			return tOld;
+		}
+
+		// keep the load under three quarters
+		if((size + 1) * 4 > keys.length * 3)
+			grow();
+		insert(pKey, pHash, pValue);
+		size++;
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V remove_at(int i)
+	{
+		if(i < 0)
+			return null;
+		V tOld = (V)values[i];
+
+		// shift later members of the probe run back over the hole
+		String[] tKeys = keys; // grab local refs
+		int[] tHashes = hashes;
+		Object[] tValues = values;
+		int tMask = mask;
+		for(int j = (i + 1) & tMask; tKeys[j] != null; j = (j + 1) & tMask)
+		{
+			int tHome = slot(tHashes[j], tMask);
+			// move j to i unless its home lies cyclically in (i, j]
+			boolean tStays = (i <= j) ? (i < tHome && tHome <= j) :
+				(i < tHome || tHome <= j);
+			if(!tStays)
+			{
+				tKeys[i] = tKeys[j];
+				tHashes[i] = tHashes[j];
+				tValues[i] = tValues[j];
+				i = j;
+			}
+		}
+		tKeys[i] = null;
+		tValues[i] = null;
+		size--;
+		return tOld;
+	}
+
+	/** Stores an entry known not to be present. */
+	private void insert(String pKey, int pHash, Object pValue)
+	{
+		int i = slot(pHash, mask);
+		while(keys[i] != null)
+			i = (i + 1) & mask;
+		keys[i] = pKey;
+		hashes[i] = pHash;
+		values[i] = pValue;
+	}
+
+	private static int slot(int pHash, int pMask)
+	{
+		return (pHash ^ (pHash >>> 16)) & pMask;
+	}
+
+	private void allocate(int pCapacity)
+	{
+		try
+		{
+			keys = new String[pCapacity];
+			hashes = new int[pCapacity];
+			values = new Object[pCapacity];
+		}
+		catch(OutOfMemoryError e)
+		{
+			throw new ContainerError("Allocation failure", e);
+		}
+		mask = pCapacity - 1;
+	}
+
+	private void grow()
+	{
+		String[] tOldKeys = keys;
+		int[] tOldHashes = hashes;
+		Object[] tOldValues = values;
+		allocate(tOldKeys.length << 1);
+		for(int i = 0; i < tOldKeys.length; i++)
+			if(tOldKeys[i] != null)
+				insert(tOldKeys[i], tOldHashes[i], tOldValues[i]);
+	}
+
+	/** Paul Hsieh's SuperFastHash, over the string's UTF-16 chars. */
+	public static int hash(String pData)
 	{
 		if(pData == null || pData.length() == 0)
 			return 0;
@@ -173,8 +367,8 @@ public class StringMap<V> extends HashMap<Integer, V>
 
 		return tHash;
 	}
-	
-	private int get_word(String pData, int i)
+
+	private static int get_word(String pData, int i)
 	{
 		return (pData.charAt(i) << 8) + pData.charAt(i + 1) & 0x0000ffff;
 	}
@@ -0,0 +1,150 @@
+// Scratch.java
+// Per-thread pool of temporary geometry objects.
+//
+// Copyright ©2012 Christopher Tooley, Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+// 80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.geometrics;
+
+import android.graphics.RectF;
+
+
+/**
+ * A stack of reusable {@link XYf}, {@link XYZf} and {@code RectF} temporaries,
+ * one per thread, for math that needs intermediate objects without feeding
+ * the garbage collector every frame.
+ * <br /><br />
+ * Bracket a block of work with {@link #Push()} and {@link #Pop()}; everything
+ * handed out in between is reclaimed by the {@code Pop()}, so don't keep
+ * references past it. Brackets nest.
+ * <pre>
+ *     Scratch tS = Scratch.Get();
+ *     tS.Push();
+ *     try
+ *     {
+ *         XYf tDelta = tS.XYf(pTarget.x - mPos.x, pTarget.y - mPos.y);
+ *         ...
+ *     }
+ *     finally
+ *     {
+ *         tS.Pop();
+ *     }
+ * </pre>
+ * Each thread gets its own {@code Scratch}, so the update and render threads
+ * never share temporaries. Look it up once per block of work rather than per
+ * object; {@code ThreadLocal} lookups aren't free.
+ */
+public class Scratch
+{
+	private static final ThreadLocal<Scratch> sLocal =
+		new ThreadLocal<Scratch>()
+		{
+			@Override
+			protected Scratch initialValue()
+			{
+				return new Scratch();
+			}
+		};
+
+	protected XYf[] mXYfs = new XYf[16];
+	protected XYZf[] mXYZfs = new XYZf[16];
+	protected RectF[] mRects = new RectF[8];
+	protected int mXYfTop, mXYZfTop, mRectTop;
+
+	// saved tops, three per Push()
+	protected int[] mMarks = new int[24];
+	protected int mDepth;
+
+	// c'tor ///////////////////////////////////////////////////////////////////
+
+	protected Scratch()
+	{
+	}
+
+	/** @return this thread's pool. */
+	public static Scratch Get()
+	{
+		return sLocal.get();
+	}
+
+	// scoping /////////////////////////////////////////////////////////////////
+
+	/** Starts a block; temporaries obtained after this go back at Pop(). */
+	public void Push()
+	{
+		if(mDepth + 3 > mMarks.length)
+		{
+			int[] tMarks = new int[mMarks.length * 2];
+			System.arraycopy(mMarks, 0, tMarks, 0, mDepth);
+			mMarks = tMarks;
+		}
+		mMarks[mDepth++] = mXYfTop;
+		mMarks[mDepth++] = mXYZfTop;
+		mMarks[mDepth++] = mRectTop;
+	}
+
+	/** Ends a block, reclaiming everything obtained since its Push(). */
+	public void Pop()
+	{
+		mRectTop = mMarks[--mDepth];
+		mXYZfTop = mMarks[--mDepth];
+		mXYfTop = mMarks[--mDepth];
+	}
+
+	// temporaries /////////////////////////////////////////////////////////////
+
+	public XYf XYf(float pX, float pY)
+	{
+		if(mXYfTop == mXYfs.length)
+			mXYfs = grow(mXYfs, new XYf[mXYfs.length * 2]);
+		XYf tV = mXYfs[mXYfTop];
+		if(tV == null)
+			tV = mXYfs[mXYfTop] = new XYf();
+		mXYfTop++;
+		tV.x = pX;
+		tV.y = pY;
+		return tV;
+	}
+
+	public XYZf XYZf(float pX, float pY, float pZ)
+	{
+		if(mXYZfTop == mXYZfs.length)
+			mXYZfs = grow(mXYZfs, new XYZf[mXYZfs.length * 2]);
+		XYZf tV = mXYZfs[mXYZfTop];
+		if(tV == null)
+			tV = mXYZfs[mXYZfTop] = new XYZf();
+		mXYZfTop++;
+		tV.x = pX;
+		tV.y = pY;
+		tV.z = pZ;
+		return tV;
+	}
+
+	public RectF RectF(float pLeft, float pTop, float pRight, float pBottom)
+	{
+		if(mRectTop == mRects.length)
+			mRects = grow(mRects, new RectF[mRects.length * 2]);
+		RectF tR = mRects[mRectTop];
+		if(tR == null)
+			tR = mRects[mRectTop] = new RectF();
+		mRectTop++;
+		tR.set(pLeft, pTop, pRight, pBottom);
+		return tR;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	private static <T> T[] grow(T[] pOld, T[] pNew)
+	{
+		System.arraycopy(pOld, 0, pNew, 0, pOld.length);
+		return pNew;
+	}
+}
@@ -59,6 +59,14 @@ public class XYZf extends XYf
 		z = pSource.z;
 	}
 
+	public XYZf set(float pX, float pY, float pZ)
+	{
+		x = pX;
+		y = pY;
+		z = pZ;
+		return this;
+	}
+
 	// arithmetic operators ////////////////////////////////////////////////////
 
 	public XYZf plus(XYZf pOther)
@@ -71,6 +79,19 @@ public class XYZf extends XYf
 		return new XYZf(x - pOther.x, y - pOther.y, z - pOther.z);
 	}
 
+	// allocation-free forms of the above; results go in oResult, which may be
+	// this or pOther
+
+	public XYZf plus(XYZf pOther, XYZf oResult)
+	{
+		return oResult.set(x + pOther.x, y + pOther.y, z + pOther.z);
+	}
+
+	public XYZf minus(XYZf pOther, XYZf oResult)
+	{
+		return oResult.set(x - pOther.x, y - pOther.y, z - pOther.z);
+	}
+
 	public XYZf add(XYZf pOther)
 	{
 		x += pOther.x;
@@ -99,6 +120,16 @@ public class XYZf extends XYf
 		return new XYZf(x / pScalar, y / pScalar, z / pScalar);
 	}
 
+	public XYZf times(float pScalar, XYZf oResult)
+	{
+		return oResult.set(x * pScalar, y * pScalar, z * pScalar);
+	}
+
+	public XYZf dividedBy(float pScalar, XYZf oResult)
+	{
+		return oResult.set(x / pScalar, y / pScalar, z / pScalar);
+	}
+
 	@Override
 	public XYZf mul(float pScalar)
 	{
@@ -63,6 +63,13 @@ public class XYf implements Serializable
 		y = pSourceXY.y;
 	}
 
+	public XYf set(float pX, float pY)
+	{
+		x = pX;
+		y = pY;
+		return this;
+	}
+
 	// arithmetic operators ////////////////////////////////////////////////////
 
 	public XYf plus(XYf pOther)
@@ -75,6 +82,19 @@ public class XYf implements Serializable
 		return new XYf(x - pOther.x, y - pOther.y);
 	}
 
+	// allocation-free forms of the above; results go in oResult, which may be
+	// this or pOther
+
+	public XYf plus(XYf pOther, XYf oResult)
+	{
+		return oResult.set(x + pOther.x, y + pOther.y);
+	}
+
+	public XYf minus(XYf pOther, XYf oResult)
+	{
+		return oResult.set(x - pOther.x, y - pOther.y);
+	}
+
 	public XYf add(XYf pOther)
 	{
 		x += pOther.x;
@@ -99,6 +119,16 @@ public class XYf implements Serializable
 		return new XYf(x / pScalar, y / pScalar);
 	}
 
+	public XYf times(float pScalar, XYf oResult)
+	{
+		return oResult.set(x * pScalar, y * pScalar);
+	}
+
+	public XYf dividedBy(float pScalar, XYf oResult)
+	{
+		return oResult.set(x / pScalar, y / pScalar);
+	}
+
 	public XYf mul(float pScalar)
 	{
 		x *= pScalar;
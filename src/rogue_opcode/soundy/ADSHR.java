@@ -167,6 +167,85 @@ public class ADSHR
 		return (mFreq = pFreq);
 	}
 
+	/**
+	 * Runs the gated envelope forward by a block of samples at once, for
+	 * block-based synthesis. Equivalent to calling
+	 * {@link #Calculate(float, boolean)} once per sample, except that the
+	 * stage changes land exactly where they fall within the block. While the
+	 * note is on, the envelope stays at the sustain level once it gets there.
+	 *
+	 * @param pFreq note frequency; a change retriggers the attack.
+	 * @param pOn whether the note is held.
+	 * @param pSamples how many samples to advance.
+	 * @return the amplitude at the end of the block; {@link #mAmp}.
+	 */
+	public float Advance(float pFreq, boolean pOn, int pSamples)
+	{
+		EnvelopeState tState = mState;
+		if(pOn)
+		{
+			// reset envelope on pFreq change
+			if(pFreq != mFreq || tState == EnvelopeState.OFF
+					|| tState == EnvelopeState.RELEASE)
+				tState = EnvelopeState.ATTACK;
+		}
+		else if(tState != EnvelopeState.OFF) // note ended
+			tState = EnvelopeState.RELEASE;
+		mFreq = pFreq;
+
+		float tAmp = mAmp;
+		int tLeft = pSamples;
+		while(tLeft > 0)
+		{
+			float tStep;
+			float tTarget;
+			EnvelopeState tNext;
+			switch(tState)
+			{
+			case ATTACK:
+				tStep = (A > 0) ? 1.0f / A : 1.0f;
+				tTarget = 1.0f;
+				tNext = EnvelopeState.DECAY;
+				break;
+			case DECAY:
+				tStep = (D > 0) ? -(1.0f - S) / D : -1.0f;
+				tTarget = S;
+				tNext = EnvelopeState.HOLD;
+				break;
+			case RELEASE:
+				tStep = (R > 0 && S > 0) ? -S / R : -1.0f;
+				tTarget = 0.0f;
+				tNext = EnvelopeState.OFF;
+				break;
+			case HOLD:
+				tLeft = 0;
+				continue;
+			default: // OFF
+				tAmp = 0.0f;
+				tLeft = 0;
+				continue;
+			}
+
+			// samples until this stage reaches its target
+			float tNeeded = (tStep != 0.0f) ? (tTarget - tAmp) / tStep : 0.0f;
+			if(tNeeded > tLeft)
+			{
+				tAmp += tStep * tLeft;
+				tLeft = 0;
+			}
+			else
+			{
+				tAmp = tTarget;
+				tLeft -= Math.max(1, (int)Math.ceil(tNeeded));
+				tState = tNext;
+			}
+		}
+
+		mAmp = tAmp;
+		mState = tState;
+		return tAmp;
+	}
+
 	// inner types and classes /////////////////////////////////////////////////
 
 	public enum EnvelopeState
@@ -0,0 +1,90 @@
+// ClipCache.java
+// Pre-rendered synth clips, kept in memory for playback
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.soundy;
+
+import rogue_opcode.containers.IntObjectMap;
+
+
+/**
+ * Holds the rendered PCM of each {@link Patch}, keyed by an int; normally the
+ * raw resource ID the patch was loaded from, as in
+ * {@link rogue_opcode.AudioResource#sAllARs}. The first {@link #Fetch} for a
+ * key synthesizes the clip and every later one shares the same samples, so a
+ * sound costs CPU once, at load time, rather than on every play.
+ * <br /><br />
+ * All methods are thread-safe. A render holds the cache lock, so do loading
+ * off the audio thread.
+ *
+ * @author Brigham Toskin
+ */
+public class ClipCache
+{
+	protected static final IntObjectMap<short[]> sClips =
+		new IntObjectMap<short[]>();
+	protected static int sSamples;
+
+	/**
+	 * @param pKey clip to look up.
+	 * @return its samples, or {@code null} if it hasn't been rendered.
+	 */
+	public static synchronized short[] Get(int pKey)
+	{
+		return sClips.Get(pKey);
+	}
+
+	/**
+	 * Looks up a clip, rendering and storing it if it isn't cached yet.
+	 *
+	 * @param pKey clip to look up.
+	 * @param pPatch patch to render on a miss.
+	 * @return 16-bit mono samples; shared, so don't modify them.
+	 */
+	public static synchronized short[] Fetch(int pKey, Patch pPatch)
+	{
+		short[] tClip = sClips.Get(pKey);
+		if(tClip == null)
+		{
+			tClip = pPatch.RenderPCM();
+			sClips.Put(pKey, tClip);
+			sSamples += tClip.length;
+		}
+		return tClip;
+	}
+
+	/**
+	 * Drops one clip; the next {@link #Fetch} renders it again.
+	 *
+	 * @param pKey clip to drop.
+	 */
+	public static synchronized void Forget(int pKey)
+	{
+		short[] tClip = sClips.Remove(pKey);
+		if(tClip != null)
+			sSamples -= tClip.length;
+	}
+
+	/** Drops every clip. */
+	public static synchronized void Clear()
+	{
+		sClips.Clear();
+		sSamples = 0;
+	}
+
+	/** @return memory held by cached clips, in bytes. */
+	public static synchronized int Bytes()
+	{
+		return sSamples * 2;
+	}
+}
@@ -17,9 +17,15 @@ package rogue_opcode.soundy;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
 
 import rogue_opcode.AudioResource;
 import rogue_opcode.GameProc;
+import rogue_opcode.soundy.WaveSource.WaveForm;
+import rogue_opcode.soundy.WaveSource.WaveModulation;
 import android.content.res.Resources;
 import android.media.AudioFormat;
 import android.media.AudioManager;
@@ -35,20 +41,39 @@ import android.util.Log;
  * <br /><br />
  * FXR can load and pre-render the synthesized audio once for fast, efficient
  * playback at runtime. Or, it can be configured to apply a small amount of
- * randomness to the synthesis parameters and regenerate the sound every time it
- * is played; this will lead to a more diverse soundscape, delivering a more
- * interesting and realistic experience to players at the expense of increased
- * processing overhead.
+ * randomness to the synthesis parameters, pre-rendering {@link #VARIANTS}
+ * versions of the sound and picking one at random every time it is played;
+ * this will lead to a more diverse soundscape, delivering a more interesting
+ * and realistic experience to players at the expense of more memory and
+ * load time.
+ * <br /><br />
+ * A file is read into {@link Params}, about a hundred bytes of settings, and
+ * translated to a {@link Patch}; see {@link Params#ToPatch()} for how closely
+ * that follows SFXR. The patch is rendered through the {@link ClipCache},
+ * and any variants alongside it, when the FXR is constructed, so playing
+ * costs no synthesis at all. Each FXR owns one static {@code AudioTrack},
+ * whatever its variant count, since a process only gets a few dozen tracks;
+ * the variants wait in memory and {@link #Play()} loads the one it picks.
  *
  * @author Brigham Toskin
  */
 public class FXR extends AudioResource
 {
-	protected AudioTrack mOutStream;
+	/** Versions of a randomized sound rendered up front, to pick between. */
+	public static final int VARIANTS = 4;
+
+	protected AudioTrack mOutStream;	// static; holds one clip at a time
+
+	protected static final Random sRandom = new Random();
 
-	protected WaveSource mSynth;
+	protected Params mParams;	// null for a patch built in code
+	protected Patch mPatch;
 	protected boolean mRandomize;
+	protected boolean mLoop;
 	protected byte[] mData;
+	protected short[][] mClips;	// variants, zero-padded to the same length
+	protected int[] mLengths;	// unpadded, for looping
+	protected int mCurrent;		// index of the clip mOutStream holds
 
 	// c'tors //
 
@@ -74,16 +99,18 @@ public class FXR extends AudioResource
 		mRandomize = pRandomize;
 		Resources tRes = GameProc.sOnly.getResources();
 		InputStream tStream = new BufferedInputStream(tRes.openRawResource(pResID));
-		int tLength = 0;
 		try
 		{
-			tLength = tStream.available();
-			mData = new byte[tLength];
+			mData = new byte[tStream.available()];
 			tStream.read(mData);
 		}
 		catch(Exception e)
 		{
 			Log.e("ionoclast", "Error loading specified resource.", e);
+			return;
+		}
+		finally
+		{
 			try
 			{
 				tStream.close();
@@ -92,13 +119,52 @@ public class FXR extends AudioResource
 			{
 				// nothing
 			}
+		}
+		try
+		{
+			mParams = Params.Parse(mData);
+		}
+		catch(IllegalArgumentException e)
+		{
+			Log.e(GameProc.TAG, "FXR(int, boolean)", e);
 			return;
 		}
-		// TODO: deduce the kind of WaveSource from file
-		mOutStream = new AudioTrack(AudioManager.STREAM_MUSIC,
-			WaveSource.sSampleRate, AudioFormat.CHANNEL_CONFIGURATION_MONO,
-			WaveSource.sFormat, tLength,
-			(pRandomize ? AudioTrack.MODE_STREAM : AudioTrack.MODE_STATIC));
+		mPatch = mParams.ToPatch();
+		prepare();
+	}
+
+	/**
+	 * Constructs an instance from SFXR settings made in code. {@code pKey}
+	 * plays the part of the resource ID; it keys both
+	 * {@link AudioResource#sAllARs} and the {@link ClipCache}.
+	 *
+	 * @param pKey an ID for this sound, unique among audio resources.
+	 * @param pParams the sound's settings.
+	 * @param pRandomize whether to pick between {@link #VARIANTS} randomly
+	 *        varied renders of the settings on each playback.
+	 */
+	public FXR(int pKey, Params pParams, boolean pRandomize)
+	{
+		super(pKey);
+		mRandomize = pRandomize;
+		mParams = pParams;
+		mPatch = pParams.ToPatch();
+		prepare();
+	}
+
+	/**
+	 * Constructs an instance that plays a patch built in code, for
+	 * procedural effects. {@code pKey} plays the part of the resource ID; it
+	 * keys both {@link AudioResource#sAllARs} and the {@link ClipCache}.
+	 *
+	 * @param pKey an ID for this sound, unique among audio resources.
+	 * @param pPatch the sound.
+	 */
+	public FXR(int pKey, Patch pPatch)
+	{
+		super(pKey);
+		mPatch = pPatch;
+		prepare();
 	}
 
 	// playback interfaces /////////////////////////////////////////////////////
@@ -106,43 +172,511 @@ public class FXR extends AudioResource
 	@Override
 	public boolean Loop()
 	{
-		// TODO Auto-generated method stub
-		return false;
+		return mLoop;
 	}
 
 	@Override
 	public void Loop(boolean pLoop)
 	{
-		// TODO Auto-generated method stub
+		mLoop = pLoop;
+		if(mOutStream != null)
+			loop_points();
 	}
 
 	@Override
-	public void Pause()
+	public void Gain(float pGain)
+	{
+		super.Gain(pGain);
+		if(mOutStream != null)
+			volume();
+	}
+
+	@Override
+	public void Pan(float pPan)
 	{
+		super.Pan(pPan);
+		if(mOutStream != null)
+			volume();
+	}
 
+	@Override
+	public void Pause()
+	{
+		if(mOutStream != null)
+			mOutStream.pause();
 	}
 
+	/**
+	 * Plays the sound from the start, cutting off the last play if need be.
+	 * A randomized sound plays one of its variants, chosen at random.
+	 */
 	@Override
 	public void Play()
 	{
-		// TODO Auto-generated method stub
+		if(mOutStream == null)
+			return;
+		mOutStream.stop();
+		int tPick = (mClips.length > 1) ? sRandom.nextInt(mClips.length) : 0;
+		if(tPick != mCurrent)
+		{
+			// a static track takes each write from the start of its buffer
+			mOutStream.write(mClips[tPick], 0, mClips[tPick].length);
+			mCurrent = tPick;
+		}
+		mOutStream.reloadStaticData(); // rewind
+		loop_points();
+		volume();
+		mOutStream.play();
 	}
 
 	@Override
 	public void Resume()
 	{
-		// TODO Auto-generated method stub
+		if(mOutStream != null)
+			mOutStream.play();
 	}
 
 	@Override
 	public void Stop()
 	{
-		// TODO Auto-generated method stub
+		if(mOutStream != null)
+			mOutStream.stop();
 	}
 
 	@Override
 	protected void die()
 	{
-		// TODO Auto-generated method stub
+		if(mOutStream != null)
+		{
+			mOutStream.stop();
+			mOutStream.release();
+		}
+		mOutStream = null;
+		mClips = null;
+		mLengths = null;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/**
+	 * Renders, or fetches from the cache, the sound and any variants, and
+	 * loads the first into the track. This is all the synthesis an FXR does.
+	 */
+	protected void prepare()
+	{
+		if(mPatch == null)
+			return;
+		// with nothing to vary, every variant would be the same
+		int tCount = (mRandomize && mParams != null) ? VARIANTS : 1;
+		mClips = new short[tCount][];
+		mLengths = new int[tCount];
+		int tLongest = 0;
+		for(int i = 0; i < tCount; i++)
+		{
+			mClips[i] = (i == 0) ? ClipCache.Fetch(mResID, mPatch) :
+				mParams.Mutated(sRandom).ToPatch().RenderPCM();
+			mLengths[i] = mClips[i].length;
+			tLongest = Math.max(tLongest, mLengths[i]);
+		}
+		// the track plays its whole buffer, so pad out shorter variants
+		for(int i = 0; i < tCount; i++)
+		{
+			if(mLengths[i] == tLongest)
+				continue;
+			short[] tPadded = new short[tLongest];
+			System.arraycopy(mClips[i], 0, tPadded, 0, mLengths[i]);
+			mClips[i] = tPadded;
+		}
+		mCurrent = 0;
+		mOutStream = make_track(mClips[0]);
+	}
+
+	/** @return a static track holding {@code pPCM}, or {@code null}. */
+	protected static AudioTrack make_track(short[] pPCM)
+	{
+		if(pPCM.length == 0)
+			return null;
+		AudioTrack tTrack = null;
+		try
+		{
+			tTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
+				WaveSource.sSampleRate, AudioFormat.CHANNEL_CONFIGURATION_MONO,
+				AudioFormat.ENCODING_PCM_16BIT, pPCM.length * 2,
+				AudioTrack.MODE_STATIC);
+			tTrack.write(pPCM, 0, pPCM.length);
+			return tTrack;
+		}
+		catch(Exception e)
+		{
+			Log.e(GameProc.TAG, "FXR.make_track()", e);
+			if(tTrack != null)
+				tTrack.release();
+			return null;
+		}
+	}
+
+	protected void loop_points()
+	{
+		mOutStream.setLoopPoints(0, mLengths[mCurrent], mLoop ? -1 : 0);
+	}
+
+	protected void volume()
+	{
+		mOutStream.setStereoVolume(mGain - 0.5f * mPan, mGain + 0.5f * mPan);
+	}
+
+	// inner classes ///////////////////////////////////////////////////////////
+
+	/**
+	 * The settings in an SFXR file, as SFXR's sliders show them: most run
+	 * from 0 to 1, and ramps and other signed settings from -1 to 1. Fields
+	 * are named after SFXR's own. The defaults are SFXR's, so a sound can also
+	 * be made in code by setting a few fields.
+	 */
+	public static class Params
+	{
+		/** Sample rate SFXR's timings are given at. */
+		public static final float SFXR_RATE = 44100.0f;
+		/** Most a setting moves in {@link #Mutated(Random)}. */
+		public static final float MUTATION = 0.05f;
+
+		public int mWaveType;	// 0 square, 1 saw, 2 sine, 3 noise
+		public float mSoundVol;
+		public float mBaseFreq, mFreqLimit, mFreqRamp, mFreqDRamp;
+		public float mDuty, mDutyRamp;
+		public float mVibStrength, mVibSpeed, mVibDelay;
+		public float mEnvAttack, mEnvSustain, mEnvDecay, mEnvPunch;
+		public boolean mFilterOn;
+		public float mLPFResonance, mLPFFreq, mLPFRamp;
+		public float mHPFFreq, mHPFRamp;
+		public float mPhaOffset, mPhaRamp;
+		public float mRepeatSpeed;
+		public float mArpSpeed, mArpMod;
+
+		// c'tors //
+
+		/** SFXR's default sound: a short, plain square wave beep. */
+		public Params()
+		{
+			mSoundVol = 0.5f;
+			mBaseFreq = 0.3f;
+			mEnvSustain = 0.3f;
+			mEnvDecay = 0.4f;
+			mLPFFreq = 1.0f;
+		}
+
+		/** @param pOther settings to copy. */
+		public Params(Params pOther)
+		{
+			mWaveType = pOther.mWaveType;
+			mSoundVol = pOther.mSoundVol;
+			mBaseFreq = pOther.mBaseFreq;
+			mFreqLimit = pOther.mFreqLimit;
+			mFreqRamp = pOther.mFreqRamp;
+			mFreqDRamp = pOther.mFreqDRamp;
+			mDuty = pOther.mDuty;
+			mDutyRamp = pOther.mDutyRamp;
+			mVibStrength = pOther.mVibStrength;
+			mVibSpeed = pOther.mVibSpeed;
+			mVibDelay = pOther.mVibDelay;
+			mEnvAttack = pOther.mEnvAttack;
+			mEnvSustain = pOther.mEnvSustain;
+			mEnvDecay = pOther.mEnvDecay;
+			mEnvPunch = pOther.mEnvPunch;
+			mFilterOn = pOther.mFilterOn;
+			mLPFResonance = pOther.mLPFResonance;
+			mLPFFreq = pOther.mLPFFreq;
+			mLPFRamp = pOther.mLPFRamp;
+			mHPFFreq = pOther.mHPFFreq;
+			mHPFRamp = pOther.mHPFRamp;
+			mPhaOffset = pOther.mPhaOffset;
+			mPhaRamp = pOther.mPhaRamp;
+			mRepeatSpeed = pOther.mRepeatSpeed;
+			mArpSpeed = pOther.mArpSpeed;
+			mArpMod = pOther.mArpMod;
+		}
+
+		/**
+		 * Reads a settings file as saved by SFXR, versions 100 through 102.
+		 *
+		 * @param pData the file's contents.
+		 * @return the settings.
+		 * @throws IllegalArgumentException if the data is truncated or isn't
+		 *         a version we know.
+		 */
+		public static Params Parse(byte[] pData)
+		{
+			// SFXR dumps its variables raw, from an x86 box
+			ByteBuffer tIn = ByteBuffer.wrap(pData).order(
+				ByteOrder.LITTLE_ENDIAN);
+			Params tParams = new Params();
+			try
+			{
+				int tVersion = tIn.getInt();
+				if(tVersion < 100 || tVersion > 102)
+					throw new IllegalArgumentException(
+						"Unsupported SFXR version " + tVersion);
+				tParams.mWaveType = tIn.getInt();
+				if(tParams.mWaveType < 0 || tParams.mWaveType > 3)
+					throw new IllegalArgumentException(
+						"Invalid SFXR wave type " + tParams.mWaveType);
+				if(tVersion == 102)
+					tParams.mSoundVol = tIn.getFloat();
+
+				tParams.mBaseFreq = tIn.getFloat();
+				tParams.mFreqLimit = tIn.getFloat();
+				tParams.mFreqRamp = tIn.getFloat();
+				if(tVersion >= 101)
+					tParams.mFreqDRamp = tIn.getFloat();
+				tParams.mDuty = tIn.getFloat();
+				tParams.mDutyRamp = tIn.getFloat();
+
+				tParams.mVibStrength = tIn.getFloat();
+				tParams.mVibSpeed = tIn.getFloat();
+				tParams.mVibDelay = tIn.getFloat();
+
+				tParams.mEnvAttack = tIn.getFloat();
+				tParams.mEnvSustain = tIn.getFloat();
+				tParams.mEnvDecay = tIn.getFloat();
+				tParams.mEnvPunch = tIn.getFloat();
+
+				tParams.mFilterOn = tIn.get() != 0;
+				tParams.mLPFResonance = tIn.getFloat();
+				tParams.mLPFFreq = tIn.getFloat();
+				tParams.mLPFRamp = tIn.getFloat();
+				tParams.mHPFFreq = tIn.getFloat();
+				tParams.mHPFRamp = tIn.getFloat();
+
+				tParams.mPhaOffset = tIn.getFloat();
+				tParams.mPhaRamp = tIn.getFloat();
+				tParams.mRepeatSpeed = tIn.getFloat();
+				if(tVersion >= 101)
+				{
+					tParams.mArpSpeed = tIn.getFloat();
+					tParams.mArpMod = tIn.getFloat();
+				}
+			}
+			catch(BufferUnderflowException e)
+			{
+				throw new IllegalArgumentException("Truncated SFXR data");
+			}
+			return tParams;
+		}
+
+		/**
+		 * Varies the settings the way SFXR's "mutate" button does: each one
+		 * has an even chance of moving by up to {@link #MUTATION} either way.
+		 *
+		 * @param pRandom source of randomness.
+		 * @return a varied copy; this one is untouched.
+		 */
+		public Params Mutated(Random pRandom)
+		{
+			Params t = new Params(this);
+			t.mBaseFreq = jitter(pRandom, mBaseFreq, false);
+			t.mFreqRamp = jitter(pRandom, mFreqRamp, true);
+			t.mFreqDRamp = jitter(pRandom, mFreqDRamp, true);
+			t.mDuty = jitter(pRandom, mDuty, false);
+			t.mDutyRamp = jitter(pRandom, mDutyRamp, true);
+			t.mVibStrength = jitter(pRandom, mVibStrength, false);
+			t.mVibSpeed = jitter(pRandom, mVibSpeed, false);
+			t.mVibDelay = jitter(pRandom, mVibDelay, false);
+			t.mEnvAttack = jitter(pRandom, mEnvAttack, false);
+			t.mEnvSustain = jitter(pRandom, mEnvSustain, false);
+			t.mEnvDecay = jitter(pRandom, mEnvDecay, false);
+			t.mEnvPunch = jitter(pRandom, mEnvPunch, false);
+			t.mLPFResonance = jitter(pRandom, mLPFResonance, false);
+			t.mLPFFreq = jitter(pRandom, mLPFFreq, false);
+			t.mLPFRamp = jitter(pRandom, mLPFRamp, true);
+			t.mHPFFreq = jitter(pRandom, mHPFFreq, false);
+			t.mHPFRamp = jitter(pRandom, mHPFRamp, true);
+			t.mPhaOffset = jitter(pRandom, mPhaOffset, true);
+			t.mPhaRamp = jitter(pRandom, mPhaRamp, true);
+			t.mRepeatSpeed = jitter(pRandom, mRepeatSpeed, false);
+			t.mArpSpeed = jitter(pRandom, mArpSpeed, false);
+			t.mArpMod = jitter(pRandom, mArpMod, true);
+			return t;
+		}
+
+		/**
+		 * Builds a patch that sounds like these settings. Frequency, duty,
+		 * vibrato and envelope timings use SFXR's formulas; punch becomes a
+		 * decay from full volume to the sustain level, and the filter an
+		 * effect. Patches are simpler than SFXR, though:
+		 * <ul>
+		 * <li>only one of slide, vibrato and duty sweep is used, in that
+		 * order of preference;</li>
+		 * <li>slides are linear, to the frequency SFXR would reach at the end
+		 * of the sound, and ignore delta slide;</li>
+		 * <li>noise is white rather than pitched;</li>
+		 * <li>phaser, repeat and arpeggio are ignored.</li>
+		 * </ul>
+		 *
+		 * @return a new patch, with its own filter.
+		 */
+		public Patch ToPatch()
+		{
+			// envelope stages, in samples at SFXR_RATE
+			int tAttack = (int)(square(mEnvAttack) * 100000.0f);
+			int tSustain = (int)(square(mEnvSustain) * 100000.0f);
+			int tDecay = (int)(square(mEnvDecay) * 100000.0f);
+			int tHold = Math.max(1, tAttack + tSustain);
+			int tEnd = tHold + tDecay;
+
+			// SFXR scales the period by this every sample, and stops the
+			// sound if it slides down past the limit
+			float tFreq = frequency(mBaseFreq);
+			double tSlide = 1.0 - Math.pow(mFreqRamp, 3) * 0.01;
+			if(mFreqLimit > 0 && tSlide > 1.0)
+			{
+				double tDrop = tFreq / frequency(mFreqLimit);
+				int tCut = (tDrop > 1.0) ?
+					(int)(Math.log(tDrop) / Math.log(tSlide)) : 1;
+				tEnd = Math.min(tEnd, tCut);
+				tHold = Math.min(tHold, tEnd);
+			}
+
+			Patch tPatch = new Patch(wave_form(), tFreq, scale(tHold));
+			tPatch.mVol = mSoundVol;
+			tPatch.mDuty = 0.5f - mDuty * 0.5f;
+			tPatch.mEnvelope = new ADSHR(scale(tAttack), scale(tSustain),
+				1.0f / (1.0f + 2.0f * mEnvPunch), 0, scale(tEnd - tHold));
+
+			if(mFreqRamp != 0)
+			{
+				tPatch.mMod = WaveModulation.FREQSLIDE;
+				// SFXR tops out at its sample rate; we stop at Nyquist
+				tPatch.mSlideTo = (float)Math.min(WaveSource.sSampleRate / 2,
+					tFreq / Math.pow(tSlide, tEnd));
+				tPatch.mSlideTime = scale(tEnd);
+			}
+			else if(mVibStrength > 0 && mVibSpeed > 0)
+			{
+				tPatch.mMod = WaveModulation.FREQMOD;
+				tPatch.mLFOForm = WaveForm.SIN;
+				tPatch.mLFOFreq = (float)(square(mVibSpeed) * 0.01f *
+					SFXR_RATE / (2 * Math.PI));
+				tPatch.mModArg = mVibStrength * 0.5f;
+			}
+			else if(mDutyRamp != 0 && mWaveType == 0)
+			{
+				float tDuty = tPatch.mDuty - mDutyRamp * 0.00005f * tEnd;
+				tPatch.mMod = WaveModulation.DUTYSLIDE;
+				tPatch.mSlideTo = Math.max(0.0f, Math.min(0.5f, tDuty));
+				tPatch.mSlideTime = scale(tEnd);
+			}
+
+			if(mLPFFreq < 1.0f || mLPFRamp != 0 || mHPFFreq > 0)
+				tPatch.Chain(new Filter(this));
+			return tPatch;
+		}
+
+		// internal helpers //
+
+		protected WaveForm wave_form()
+		{
+			switch(mWaveType)
+			{
+			case 0:
+				return WaveForm.PULSE;
+			case 1:
+				return WaveForm.SAW;
+			case 2:
+				return WaveForm.SIN;
+			default:
+				return WaveForm.NOISE_AM;
+			}
+		}
+
+		/**
+		 * SFXR's oscillator runs 8x oversampled with a period of
+		 * {@code 100 / (f^2 + 0.001)} steps.
+		 */
+		protected static float frequency(float pSetting)
+		{
+			return SFXR_RATE * 8.0f * (square(pSetting) + 0.001f) / 100.0f;
+		}
+
+		/** Converts a count of SFXR_RATE samples to our sample rate. */
+		protected static int scale(int pSamples)
+		{
+			return (int)((long)pSamples * WaveSource.sSampleRate / SFXR_RATE);
+		}
+
+		protected static float square(float pVal)
+		{
+			return pVal * pVal;
+		}
+
+		protected static float jitter(Random pRandom, float pVal,
+			boolean pSigned)
+		{
+			if(pRandom.nextBoolean())
+				pVal += (pRandom.nextFloat() * 2.0f - 1.0f) * MUTATION;
+			return Math.max(pSigned ? -1.0f : 0.0f, Math.min(1.0f, pVal));
+		}
+	}
+
+	/**
+	 * SFXR's resonant low-pass filter followed by its high-pass filter, with
+	 * their sweeps. Like SFXR, it runs 8x oversampled; the coefficients are
+	 * SFXR's, so it's tuned for a 44.1kHz output rate.
+	 */
+	public static class Filter implements Oscillator.Effect
+	{
+		protected static final int OVERSAMPLE = 8;
+
+		protected final boolean mLowPass;	// off with cutoff all the way up
+		protected float mLPCutoff, mLPSweep, mDamping;
+		protected float mHPCutoff, mHPSweep;
+
+		// running state
+		protected float mLP, mLPDelta, mHP;
+
+		/** @param pParams settings to take the filter from. */
+		public Filter(Params pParams)
+		{
+			mLowPass = pParams.mLPFFreq != 1.0f;
+			mLPCutoff = (float)Math.pow(pParams.mLPFFreq, 3) * 0.1f;
+			mLPSweep = 1.0f + pParams.mLPFRamp * 0.0001f;
+			mDamping = Math.min(0.8f, 5.0f /
+				(1.0f + Params.square(pParams.mLPFResonance) * 20.0f) *
+				(0.01f + mLPCutoff));
+			mHPCutoff = Params.square(pParams.mHPFFreq) * 0.1f;
+			mHPSweep = 1.0f + pParams.mHPFRamp * 0.0003f;
+		}
+
+		@Override
+		public void Process(float[] oSignal)
+		{
+			for(int i = 0; i < oSignal.length; i++)
+			{
+				mHPCutoff = Math.max(0.00001f,
+					Math.min(0.1f, mHPCutoff * mHPSweep));
+				float tIn = oSignal[i];
+				float tSum = 0;
+				for(int j = 0; j < OVERSAMPLE; j++)
+				{
+					float tLast = mLP;
+					mLPCutoff = Math.max(0.0f,
+						Math.min(0.1f, mLPCutoff * mLPSweep));
+					if(mLowPass)
+					{
+						mLPDelta += (tIn - mLP) * mLPCutoff;
+						mLPDelta -= mLPDelta * mDamping;
+					}
+					else
+					{
+						mLP = tIn;
+						mLPDelta = 0;
+					}
+					mLP += mLPDelta;
+					mHP += mLP - tLast;
+					mHP -= mHP * mHPCutoff;
+					tSum += mHP;
+				}
+				oSignal[i] = tSum / OVERSAMPLE;
+			}
+		}
 	}
 }
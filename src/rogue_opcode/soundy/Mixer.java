@@ -0,0 +1,478 @@
+// Mixer.java
+// Real-time mixer and audio render thread for Oscillators
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.soundy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import rogue_opcode.GameProc;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+
+/**
+ * Mixes every sounding {@link Oscillator} in {@link Oscillator#sAll} into one
+ * stereo stream. Each block, every voice that is
+ * {@linkplain Oscillator#Audible() audible} renders (running its effects
+ * chain) and is added to a float bus at its volume and pan; the bus is then
+ * scaled by the master gain, soft-clipped, and converted to 16-bit PCM for a
+ * single {@link Sink}.
+ * <br /><br />
+ * {@link #Start(Sink)} runs the mixer on its own high-priority thread, paced
+ * by the sink; with an {@link AudioTrackSink} that's the speaker. For tests,
+ * or to bounce audio to a file without playing it, construct a mixer over a
+ * {@link BufferSink} or {@link WaveFileSink} and call {@link #Render(int)}
+ * directly. Nothing is allocated per block either way, bar growing the
+ * voice list when there are more voices than ever before.
+ * <br /><br />
+ * {@code Oscillator.sAll} is locked only long enough to copy it, so a voice
+ * added or killed mid-block is heard, or dropped, from the next block on.
+ * A voice that throws while rendering, say a modulation mode with no LFO or
+ * a broken effect, is logged and {@linkplain Oscillator#Die() killed}; the
+ * rest of the mix carries on.
+ *
+ * @author Brigham Toskin
+ */
+public class Mixer implements Runnable
+{
+	/** The mixer running on the audio thread, if any. */
+	public static volatile Mixer sOnly;
+
+	/** Stereo frames mixed per block. */
+	public static final int BLOCK_FRAMES = 512;
+	public static final int CHANNELS = 2;
+
+	/**
+	 * Where mixed audio goes. The mixer thread calls {@link #Write} once per
+	 * block; a sink that blocks until there's room sets the pace.
+	 */
+	public interface Sink
+	{
+		/**
+		 * Prepares for writing.
+		 *
+		 * @param pSampleRate frames per second.
+		 * @param pChannels samples per frame, interleaved.
+		 * @return {@code false} if the sink can't be used.
+		 */
+		public boolean Open(int pSampleRate, int pChannels);
+
+		/**
+		 * @param pPCM interleaved 16-bit samples.
+		 * @param pOffset index of the first sample.
+		 * @param pCount samples to write, a whole number of frames.
+		 * @return {@code false} if writing failed; the mixer stops.
+		 */
+		public boolean Write(short[] pPCM, int pOffset, int pCount);
+
+		/** Finishes up and releases resources. */
+		public void Close();
+	}
+
+	/** Master gain, applied before clipping. */
+	public volatile float mGain = 1.0f;
+
+	protected final Sink mSink;
+	protected final int mSampleRate;
+	protected final float[] mBus = new float[BLOCK_FRAMES * CHANNELS];
+	protected final short[] mPCM = new short[BLOCK_FRAMES * CHANNELS];
+	// this block's voices, copied out of Oscillator.sAll
+	protected Oscillator[] mVoices = new Oscillator[16];
+	protected long mFrames;
+
+	protected volatile boolean mRunning;
+	protected Thread mThread;
+
+	// c'tor //
+
+	/**
+	 * Constructs a mixer and opens its sink.
+	 *
+	 * @param pSink where to send the mix.
+	 * @throws IllegalStateException if the sink wouldn't open.
+	 */
+	public Mixer(Sink pSink)
+	{
+		mSink = pSink;
+		mSampleRate = WaveSource.sSampleRate;
+		if(!pSink.Open(mSampleRate, CHANNELS))
+			throw new IllegalStateException("Audio sink failed to open.");
+	}
+
+	// audio thread control ////////////////////////////////////////////////////
+
+	/**
+	 * Starts mixing to a sink on the audio thread, replacing any mixer that's
+	 * already running.
+	 *
+	 * @param pSink where to send the mix; usually an {@link AudioTrackSink}.
+	 * @return the new mixer.
+	 */
+	public static synchronized Mixer Start(Sink pSink)
+	{
+		Stop();
+		Mixer tMixer = new Mixer(pSink);
+		tMixer.mRunning = true;
+		tMixer.mThread = new Thread(tMixer, "soundy");
+		sOnly = tMixer;
+		tMixer.mThread.start();
+		return tMixer;
+	}
+
+	/** Stops the audio thread, if running, and closes its sink. */
+	public static synchronized void Stop()
+	{
+		Mixer tMixer = sOnly;
+		if(tMixer == null)
+			return;
+		sOnly = null;
+		tMixer.mRunning = false;
+		try
+		{
+			tMixer.mThread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		tMixer.Close();
+	}
+
+	/** audio thread loop */
+	@Override
+	public void run()
+	{
+		Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+		while(mRunning)
+		{
+			if(!render_block(BLOCK_FRAMES))
+			{
+				Log.e(GameProc.TAG, "Audio sink failed; mixer stopping.");
+				mRunning = false;
+			}
+		}
+	}
+
+	// synchronous interfaces //////////////////////////////////////////////////
+
+	/**
+	 * Mixes frames on the calling thread and writes them to the sink. Don't
+	 * use on a mixer started with {@link #Start(Sink)}.
+	 *
+	 * @param pFrames stereo frames to render.
+	 * @return {@code false} if the sink failed.
+	 */
+	public boolean Render(int pFrames)
+	{
+		while(pFrames > 0)
+		{
+			int tFrames = Math.min(pFrames, BLOCK_FRAMES);
+			if(!render_block(tFrames))
+				return false;
+			pFrames -= tFrames;
+		}
+		return true;
+	}
+
+	/** Closes the sink. */
+	public void Close()
+	{
+		mSink.Close();
+	}
+
+	/** @return stereo frames mixed so far. */
+	public long Frames()
+	{
+		return mFrames;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	/** Mixes one block of up to BLOCK_FRAMES frames and writes it out. */
+	protected boolean render_block(int pFrames)
+	{
+		float[] tBus = mBus; // grab local refs
+		short[] tPCM = mPCM;
+		int tSamples = pFrames * CHANNELS;
+		for(int i = 0; i < tSamples; i++)
+			tBus[i] = 0.0f;
+
+		// hold the lock only to copy the list, so adding or removing a voice
+		// never waits on synthesis
+		Oscillator[] tVoices;
+		int tCount;
+		synchronized(Oscillator.sAll)
+		{
+			tCount = Oscillator.sAll.size;
+			if(mVoices.length < tCount)
+				mVoices = new Oscillator[tCount * 2];
+			tVoices = mVoices;
+			for(int i = 0; i < tCount; i++)
+				tVoices[i] = Oscillator.sAll.At(i);
+		}
+
+		for(int i = 0; i < tCount; i++)
+		{
+			Oscillator tOsc = tVoices[i];
+			tVoices[i] = null; // don't keep dead voices alive
+			if(!tOsc.Audible())
+				continue;
+
+			try
+			{
+				// equal-power pan
+				float tAngle = (clamp(tOsc.mPan) + 1.0f) *
+					(float)(Math.PI / 4);
+				tOsc.mix_into(tBus, pFrames, (float)Math.cos(tAngle),
+					(float)Math.sin(tAngle));
+			}
+			catch(RuntimeException e)
+			{
+				Log.e(GameProc.TAG, "Mixer voice failed; killing it.", e);
+				tOsc.Die();
+			}
+		}
+
+		float tGain = mGain;
+		for(int i = 0; i < tSamples; i++)
+			tPCM[i] = (short)(soft_clip(tBus[i] * tGain) * Short.MAX_VALUE);
+
+		mFrames += pFrames;
+		return mSink.Write(tPCM, 0, tSamples);
+	}
+
+	protected static float clamp(float pVal)
+	{
+		return pVal < -1.0f ? -1.0f : (pVal > 1.0f ? 1.0f : pVal);
+	}
+
+	// below this, samples pass untouched
+	protected static final float KNEE = 0.75f;
+
+	/**
+	 * Passes quiet samples straight through and bends loud ones smoothly
+	 * toward, but never past, full scale.
+	 *
+	 * @param pSample a sample, in any range.
+	 * @return the sample in (-1, 1).
+	 */
+	protected static float soft_clip(float pSample)
+	{
+		float tMagnitude = pSample < 0 ? -pSample : pSample;
+		if(tMagnitude <= KNEE)
+			return pSample;
+		float tOver = (tMagnitude - KNEE) / (1.0f - KNEE);
+		tMagnitude = KNEE + (1.0f - KNEE) * tOver / (1.0f + tOver);
+		return pSample < 0 ? -tMagnitude : tMagnitude;
+	}
+
+	// sinks ///////////////////////////////////////////////////////////////////
+
+	/** Streams to the device through one {@code AudioTrack}. */
+	public static class AudioTrackSink implements Sink
+	{
+		protected AudioTrack mTrack;
+
+		@Override
+		public boolean Open(int pSampleRate, int pChannels)
+		{
+			int tConfig = (pChannels == 2) ? AudioFormat.CHANNEL_OUT_STEREO :
+				AudioFormat.CHANNEL_OUT_MONO;
+			// room for a few blocks, so a late block doesn't underrun
+			int tBytes = Math.max(AudioTrack.getMinBufferSize(pSampleRate,
+				tConfig, AudioFormat.ENCODING_PCM_16BIT),
+				BLOCK_FRAMES * pChannels * 2 * 3);
+			try
+			{
+				mTrack = new AudioTrack(AudioManager.STREAM_MUSIC, pSampleRate,
+					tConfig, AudioFormat.ENCODING_PCM_16BIT, tBytes,
+					AudioTrack.MODE_STREAM);
+				mTrack.play();
+				return true;
+			}
+			catch(Exception e)
+			{
+				Log.e(GameProc.TAG, "AudioTrackSink.Open()", e);
+				return false;
+			}
+		}
+
+		@Override
+		public boolean Write(short[] pPCM, int pOffset, int pCount)
+		{
+			// blocks until the track has room
+			while(pCount > 0)
+			{
+				int tWritten = mTrack.write(pPCM, pOffset, pCount);
+				if(tWritten < 0)
+					return false;
+				pOffset += tWritten;
+				pCount -= tWritten;
+			}
+			return true;
+		}
+
+		@Override
+		public void Close()
+		{
+			if(mTrack == null)
+				return;
+			mTrack.stop();
+			mTrack.release();
+			mTrack = null;
+		}
+	}
+
+	/** Writes a 16-bit PCM .wav file. */
+	public static class WaveFileSink implements Sink
+	{
+		protected static final int HEADER_SIZE = 44;
+
+		protected final File mFile;
+		protected RandomAccessFile mOut;
+		protected byte[] mBytes = new byte[BLOCK_FRAMES * CHANNELS * 2];
+		protected int mDataBytes;
+
+		/** @param pFile file to write; replaced if it exists. */
+		public WaveFileSink(File pFile)
+		{
+			mFile = pFile;
+		}
+
+		@Override
+		public boolean Open(int pSampleRate, int pChannels)
+		{
+			try
+			{
+				mOut = new RandomAccessFile(mFile, "rw");
+				mOut.setLength(0);
+				write_header(pSampleRate, pChannels);
+				return true;
+			}
+			catch(IOException e)
+			{
+				Log.e(GameProc.TAG, "WaveFileSink.Open()", e);
+				return false;
+			}
+		}
+
+		@Override
+		public boolean Write(short[] pPCM, int pOffset, int pCount)
+		{
+			if(mBytes.length < pCount * 2)
+				mBytes = new byte[pCount * 2];
+			byte[] tBytes = mBytes;
+			for(int i = 0; i < pCount; i++)
+			{
+				short tSample = pPCM[pOffset + i];
+				tBytes[2 * i] = (byte)tSample;			// little-endian
+				tBytes[2 * i + 1] = (byte)(tSample >> 8);
+			}
+			try
+			{
+				mOut.write(tBytes, 0, pCount * 2);
+				mDataBytes += pCount * 2;
+				return true;
+			}
+			catch(IOException e)
+			{
+				Log.e(GameProc.TAG, "WaveFileSink.Write()", e);
+				return false;
+			}
+		}
+
+		@Override
+		public void Close()
+		{
+			if(mOut == null)
+				return;
+			try
+			{
+				// now that the length is known, fill it in
+				mOut.seek(4);
+				int tRiffBytes = HEADER_SIZE - 8 + mDataBytes;
+				mOut.writeInt(Integer.reverseBytes(tRiffBytes));
+				mOut.seek(HEADER_SIZE - 4);
+				mOut.writeInt(Integer.reverseBytes(mDataBytes));
+				mOut.close();
+			}
+			catch(IOException e)
+			{
+				Log.e(GameProc.TAG, "WaveFileSink.Close()", e);
+			}
+			mOut = null;
+		}
+
+		protected void write_header(int pSampleRate, int pChannels)
+			throws IOException
+		{
+			RandomAccessFile tOut = mOut;
+			tOut.writeBytes("RIFF");
+			tOut.writeInt(Integer.reverseBytes(HEADER_SIZE - 8));
+			tOut.writeBytes("WAVEfmt ");
+			tOut.writeInt(Integer.reverseBytes(16));		// fmt size
+			tOut.writeShort(Short.reverseBytes((short)1));	// PCM
+			tOut.writeShort(Short.reverseBytes((short)pChannels));
+			tOut.writeInt(Integer.reverseBytes(pSampleRate));
+			tOut.writeInt(Integer.reverseBytes(pSampleRate * pChannels * 2));
+			tOut.writeShort(Short.reverseBytes((short)(pChannels * 2)));
+			tOut.writeShort(Short.reverseBytes((short)16));	// bits
+			tOut.writeBytes("data");
+			tOut.writeInt(0);
+		}
+	}
+
+	/** Collects the mix in memory, for tests and offline rendering. */
+	public static class BufferSink implements Sink
+	{
+		public short[] data;	// interleaved samples
+		public int size;		// samples written
+		public int mSampleRate, mChannels;
+
+		@Override
+		public boolean Open(int pSampleRate, int pChannels)
+		{
+			mSampleRate = pSampleRate;
+			mChannels = pChannels;
+			data = new short[pSampleRate * pChannels];	// a second, to start
+			size = 0;
+			return true;
+		}
+
+		@Override
+		public boolean Write(short[] pPCM, int pOffset, int pCount)
+		{
+			if(size + pCount > data.length)
+			{
+				short[] tBigger = new short[Math.max(data.length * 2,
+					size + pCount)];
+				System.arraycopy(data, 0, tBigger, 0, size);
+				data = tBigger;
+			}
+			System.arraycopy(pPCM, pOffset, data, size, pCount);
+			size += pCount;
+			return true;
+		}
+
+		@Override
+		public void Close()
+		{
+		}
+	}
+}
@@ -14,23 +14,25 @@
 
 package rogue_opcode.soundy;
 
+import rogue_opcode.Profiler;
 import rogue_opcode.containers.Array;
 import rogue_opcode.soundy.WaveSource.WaveForm;
 import rogue_opcode.soundy.WaveSource.WaveModulation;
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioTrack;
 
 
 /**
+ * A voice: a {@link WaveSource}, an optional LFO, and a chain of effects.
+ * Every oscillator registers itself in {@link #sAll}, and the {@link Mixer}
+ * pulls from all of them that are sounding. An oscillator renders a buffer's
+ * worth of audio at a time, so parameter changes are heard from its next
+ * buffer on; smaller buffers mean quicker response.
  *
  * @author Brigham Toskin
  */
 public class Oscillator
 {
-	// static playback management
+	// static playback management; lock sAll to add or remove
 	public static Array<Oscillator> sAll;
-	public static Thread sPlaybackThread;
 	static
 	{
 		sAll = new Array<Oscillator>();
@@ -42,17 +44,24 @@ public class Oscillator
 	public float mVol;
 	public float mCurrentPhase;
 	public WaveModulation mMod;
+	public float mModArg;	// prescales the effect of the LFO
 	public float mSlideTo;
 	public float mSlideSpeed;
 	public boolean mEnabled;
+	public float mPan;		// -1 for left, 0 for center, 1 for right
 
 	// output streaming stuff
 	public float[] mWaveData;
 	public float[] mLFOData;
-	public short[] mOutBuffer;
 	public WaveSource mWave;
 	public WaveSource mLFO;
-	public AudioTrack mChannel;
+	protected int mReadPos;	// mixer's place in mWaveData
+
+	// slide progress across buffers, and the settings it was measured under
+	protected int mSlideElapsed;
+	protected float mLastFreq, mLastPhase, mLastSlideTo, mLastSlideSpeed;
+	protected WaveModulation mLastMod;
+	protected boolean mLastEnabled;
 
 	public Array<Effect> mEffects;
 
@@ -60,68 +69,156 @@ public class Oscillator
 
 	protected Oscillator(int pBufferSize)
 	{
-		synchronized(sAll)
-		{
-			sAll.Append(this);
-		}
-		if(sPlaybackThread == null)
-		{
-			sPlaybackThread = new Thread()
-			{
-				@Override
-				public void run()
-				{
-					//					while(true);
-				}
-			};
-			sPlaybackThread.setName("soundy");
-			sPlaybackThread.start();
-		}
-
 		mVol = 0.5f;
 		mCurrentPhase = 0;
 		mMod = WaveModulation.NONE;
 		mSlideTo = 0;
 		mSlideSpeed = 0;
-
-		mOutBuffer = new short[pBufferSize];
-		mChannel = new AudioTrack(AudioManager.STREAM_MUSIC,
-			WaveSource.sSampleRate, AudioFormat.CHANNEL_CONFIGURATION_MONO,
-			AudioFormat.ENCODING_PCM_16BIT, pBufferSize * 2, // 2b per smpl
-			AudioTrack.MODE_STATIC);
 		mEffects = new Array<Effect>();
 	}
 
+	/**
+	 * @param pBufferSize samples to render at a time.
+	 * @param pWaveForm waveform to play.
+	 */
 	public Oscillator(int pBufferSize, WaveForm pWaveForm)
+	{
+		this(pBufferSize, pWaveForm, null);
+	}
+
+	/**
+	 * @param pBufferSize samples to render at a time.
+	 * @param pWaveForm waveform to play.
+	 * @param pLFOForm waveform of the LFO; {@code null} for none.
+	 */
+	public Oscillator(int pBufferSize, WaveForm pWaveForm, WaveForm pLFOForm)
 	{
 		this(pBufferSize);
 		mWaveData = new float[pBufferSize];
+		mReadPos = pBufferSize; // nothing rendered yet
 		mWave = WaveSource.ICanHas(pWaveForm);
+		if(pLFOForm != null)
+		{
+			mLFOData = new float[pBufferSize];
+			mLFO = WaveSource.ICanHas(pLFOForm);
+		}
+
+		// only now is it safe for the mixer to see us
+		synchronized(sAll)
+		{
+			sAll.Append(this);
+		}
 	}
 
-	public Oscillator(int pBufferSize, WaveForm pWaveForm, WaveForm pLFOForm)
+	/** Stops mixing this oscillator, for good. */
+	public void Die()
 	{
-		this(pBufferSize, pWaveForm);
-		mLFOData = new float[pBufferSize];
-		mLFO = WaveSource.ICanHas(pLFOForm);
+		synchronized(sAll)
+		{
+			sAll.RemoveIf(new Array.Filter<Oscillator>()
+			{
+				@Override
+				public boolean Matches(Oscillator pOsc)
+				{
+					return pOsc == Oscillator.this;
+				}
+			});
+		}
 	}
 
 	// playback and such ///////////////////////////////////////////////////////
 
+	/**
+	 * @return {@code true} while the note is on or its envelope is still
+	 *         releasing.
+	 */
+	public boolean Audible()
+	{
+		ADSHR tEnvelope = mWave.mEnvelope;
+		return mEnabled || (tEnvelope != null &&
+			tEnvelope.mState != ADSHR.EnvelopeState.OFF);
+	}
+
+	/**
+	 * Renders the next buffer into {@link #mWaveData} and runs the effects.
+	 * A slide carries on from buffer to buffer; it starts over when the note
+	 * is switched on, or when the frequency, phase, modulation or slide
+	 * settings change.
+	 */
 	public void Generate()
 	{
-		if(mLFO == null)
-			mWave.SynthMaster(mWaveData, mFreq, mCurrentPhase, mVol, mMod,
-					null, 0, mSlideTo, mSlideSpeed, mEnabled);
-		else
+		long tStart = Profiler.Begin();
+		int tElapsed = slide_elapsed();
+		float[] tLFO = null;
+		if(mLFO != null)
 		{
 			mLFO.SynthBasic(mLFOData, mLFOFreq, mCurrentPhase, 1.0f, mEnabled);
-			mWave.SynthMaster(mWaveData, mFreq, mCurrentPhase, mVol, mMod,
-					mLFOData, 0, mSlideTo, mSlideSpeed, mEnabled);
+			tLFO = mLFOData;
+		}
+		mWave.SynthMaster(mWaveData, 0, mWaveData.length, mFreq,
+			mCurrentPhase, mVol, mMod, tLFO, mModArg, mSlideTo, mSlideSpeed,
+			tElapsed, mEnabled);
+		// saturate, rather than wrap, on very long notes
+		mSlideElapsed = (int)Math.min(Integer.MAX_VALUE,
+			(long)tElapsed + mWaveData.length);
+
+		for(int i = 0; i < mEffects.size; i++)
+			mEffects.At(i).Process(mWaveData);
+		Profiler.End(Profiler.AUDIO, tStart);
+	}
+
+	/**
+	 * Adds this voice's next frames into an interleaved stereo bus, rendering
+	 * more as needed. Mixer thread only.
+	 *
+	 * @param oBus bus to add into; left, right, left, ...
+	 * @param pFrames stereo frames to add.
+	 * @param pLeft gain into the left channel.
+	 * @param pRight gain into the right channel.
+	 */
+	void mix_into(float[] oBus, int pFrames, float pLeft, float pRight)
+	{
+		float[] tData = mWaveData; // grab local ref
+		int tPos = mReadPos;
+		int j = 0;
+		for(int tLeft = pFrames; tLeft > 0;)
+		{
+			if(tPos == tData.length)
+			{
+				Generate();
+				tPos = 0;
+			}
+			int tCount = Math.min(tLeft, tData.length - tPos);
+			for(int tEnd = tPos + tCount; tPos < tEnd; tPos++, j += 2)
+			{
+				float tSample = tData[tPos];
+				oBus[j] += tSample * pLeft;
+				oBus[j + 1] += tSample * pRight;
+			}
+			tLeft -= tCount;
 		}
+		mReadPos = tPos;
+	}
 
-		//		for(Effect tFX : mEffects.data)
-		//			tFX.Process(mWaveData);
+	/**
+	 * @return samples of the current slide already played, or 0 if the
+	 *         settings changed since the last buffer.
+	 */
+	protected int slide_elapsed()
+	{
+		if(mFreq != mLastFreq || mCurrentPhase != mLastPhase ||
+			mSlideTo != mLastSlideTo || mSlideSpeed != mLastSlideSpeed ||
+			mMod != mLastMod || (mEnabled && !mLastEnabled))
+		{
+			mLastFreq = mFreq;
+			mLastPhase = mCurrentPhase;
+			mLastSlideTo = mSlideTo;
+			mLastSlideSpeed = mSlideSpeed;
+			mLastMod = mMod;
+			mSlideElapsed = 0;
+		}
+		mLastEnabled = mEnabled;
+		return mSlideElapsed;
 	}
 
 	// audio processing ////////////////////////////////////////////////////////
@@ -0,0 +1,201 @@
+// Patch.java
+// Synth voice settings, and offline rendering of them
+//
+// Copyright ©2012 Brigham Toskin
+// This software is part of the Rogue-Opcode game framework. It is distributable
+// under the terms of a modified MIT License. You should have received a copy of
+// the license in the file LICENSE. If not, see:
+// <http://code.google.com/p/rogue-op/wiki/LICENSE>
+//
+// Formatting:
+//	80 cols ; tabwidth 4
+////////////////////////////////////////////////////////////////////////////////
+
+
+package rogue_opcode.soundy;
+
+import java.io.File;
+
+import rogue_opcode.containers.Array;
+import rogue_opcode.soundy.Oscillator.Effect;
+import rogue_opcode.soundy.WaveSource.WaveForm;
+import rogue_opcode.soundy.WaveSource.WaveModulation;
+
+
+/**
+ * Everything needed to synthesize one note: a waveform, an optional LFO, an
+ * envelope, a modulation mode with its slide, and an effects chain. A patch
+ * is only a description; {@link #Render()} plays it once from scratch into
+ * memory, as fast as the CPU allows, with no {@link Oscillator} or
+ * {@link Mixer} involved.
+ * <br /><br />
+ * The note is held for {@link #mLength} samples and then released; the
+ * rendered clip runs on until the envelope has died away. Without an
+ * envelope the clip is exactly {@code mLength} samples long.
+ * <br /><br />
+ * Effects are run over the whole clip in one {@code Process()} call, after
+ * synthesis. They keep their state between renders, so give each patch its
+ * own instances.
+ *
+ * @author Brigham Toskin
+ */
+public class Patch
+{
+	// voice
+	public WaveForm mWaveForm;
+	public float mFreq;
+	public float mVol;
+	public float mPhase;
+	public float mDuty;
+	public ADSHR mEnvelope;		// template only; copied for each render
+	public int mLength;			// samples the note is held
+
+	// modulation
+	public WaveModulation mMod;
+	public float mModArg;
+	public float mSlideTo;
+	public float mSlideTime;	// in samples
+	public WaveForm mLFOForm;	// null for none
+	public float mLFOFreq;
+
+	public Array<Effect> mEffects;
+
+	// c'tor //
+
+	/**
+	 * @param pWaveForm waveform to play.
+	 * @param pFreq note frequency, in Hz.
+	 * @param pLength how long the note is held, in samples.
+	 */
+	public Patch(WaveForm pWaveForm, float pFreq, int pLength)
+	{
+		mWaveForm = pWaveForm;
+		mFreq = pFreq;
+		mLength = pLength;
+		mVol = 0.5f;
+		mPhase = 0;
+		mDuty = 0.5f;
+		mMod = WaveModulation.NONE;
+		mEffects = new Array<Effect>();
+	}
+
+	/**
+	 * Adds the specified effect to the output processing chain.
+	 *
+	 * @param pFX the {@link Effect} to add.
+	 * @return this reference, so multiple calls may be chained.
+	 */
+	public Patch Chain(Effect pFX)
+	{
+		mEffects.Append(pFX);
+		return this;
+	}
+
+	// rendering ///////////////////////////////////////////////////////////////
+
+	/**
+	 * Synthesizes the whole note, release and all.
+	 *
+	 * @return mono samples at {@link WaveSource#sSampleRate}, full scale at
+	 *         1.0.
+	 */
+	public float[] Render()
+	{
+		WaveSource tWave = WaveSource.ICanHas(mWaveForm);
+		tWave.mDuty = mDuty;
+		int tHold = Math.max(0, mLength);
+		int tRelease = 0;
+		if(mEnvelope != null)
+		{
+			tWave.mEnvelope = copy(mEnvelope);
+			tRelease = release_length(tHold);
+		}
+		float[] tOut = new float[tHold + tRelease];
+
+		// the LFO runs free over the whole clip
+		float[] tLFO = null;
+		if(mLFOForm != null)
+		{
+			tLFO = new float[tOut.length];
+			WaveSource.ICanHas(mLFOForm).SynthBasic(tLFO, mLFOFreq, 0, 1.0f,
+				true);
+		}
+
+		tWave.SynthMaster(tOut, 0, tHold, mFreq, mPhase, mVol, mMod, tLFO,
+			mModArg, mSlideTo, mSlideTime, 0, true);
+		if(tRelease > 0)
+			tWave.SynthMaster(tOut, tHold, tRelease, mFreq, mPhase, mVol,
+				mMod, tLFO, mModArg, mSlideTo, mSlideTime, tHold, false);
+
+		for(int i = 0; i < mEffects.size; i++)
+			mEffects.At(i).Process(tOut);
+		return tOut;
+	}
+
+	/**
+	 * Synthesizes the whole note as 16-bit PCM, ready for an
+	 * {@code AudioTrack}.
+	 *
+	 * @return mono samples at {@link WaveSource#sSampleRate}.
+	 */
+	public short[] RenderPCM()
+	{
+		return PCM(Render());
+	}
+
+	/**
+	 * Synthesizes the whole note into a mono 16-bit .wav file.
+	 *
+	 * @param pFile file to write; replaced if it exists.
+	 * @return {@code false} if the file couldn't be written.
+	 */
+	public boolean RenderWave(File pFile)
+	{
+		short[] tPCM = RenderPCM();
+		Mixer.WaveFileSink tSink = new Mixer.WaveFileSink(pFile);
+		if(!tSink.Open(WaveSource.sSampleRate, 1))
+			return false;
+		boolean tWritten = tSink.Write(tPCM, 0, tPCM.length);
+		tSink.Close();
+		return tWritten;
+	}
+
+	/**
+	 * Converts float samples to 16-bit PCM, clipping anything outside
+	 * [-1, 1].
+	 *
+	 * @param pSamples samples to convert.
+	 * @return a new array of the same length.
+	 */
+	public static short[] PCM(float[] pSamples)
+	{
+		short[] tPCM = new short[pSamples.length];
+		for(int i = 0; i < pSamples.length; i++)
+			tPCM[i] = (short)(Mixer.clamp(pSamples[i]) * Short.MAX_VALUE);
+		return tPCM;
+	}
+
+	// internal helpers ////////////////////////////////////////////////////////
+
+	protected static ADSHR copy(ADSHR pEnvelope)
+	{
+		return new ADSHR(pEnvelope.A, pEnvelope.D, pEnvelope.S, pEnvelope.H,
+			pEnvelope.R);
+	}
+
+	/**
+	 * Works out how long the release takes, by running a spare copy of the
+	 * envelope through the held part of the note.
+	 */
+	protected int release_length(int pHold)
+	{
+		ADSHR tProbe = copy(mEnvelope);
+		float tAmp = tProbe.Advance(mFreq, true, pHold);
+		if(tAmp <= 0.0f)
+			return 0;
+		if(tProbe.R <= 0 || tProbe.S <= 0)
+			return 1; // drops straight to zero
+		// release falls at S/R per sample, from wherever the note left it
+		return (int)Math.ceil(tAmp * tProbe.R / tProbe.S);
+	}
+}
@@ -21,6 +21,9 @@ public abstract class WaveFunctor extends WaveSource
 {
 	protected static Random sRand;
 
+	// per-voice xorshift state; java.util.Random is too slow per sample
+	protected int mSeed;
+
 	/**
 	 *
 	 */
@@ -28,22 +31,50 @@ public abstract class WaveFunctor extends WaveSource
 	{
 		if(sRand == null)
 			sRand = new Random();
+		mSeed = sRand.nextInt() | 1; // never 0
+	}
+
+	/** @return the next of this voice's pseudorandom ints. */
+	protected final int next_random()
+	{
+		int tSeed = mSeed;
+		tSeed ^= tSeed << 13;
+		tSeed ^= tSeed >>> 17;
+		tSeed ^= tSeed << 5;
+		return (mSeed = tSeed);
 	}
 }
 
 
 class PulseWave extends WaveSource
 {
+	protected final WaveTabler.TableSet mSaw;
+
+	public PulseWave()
+	{
+		mSaw = WaveTabler.Tables(WaveForm.SAW);
+	}
+
 	/**
-	 * Dynamically generates a single audio sample.
-	 * 
-	 * @param pPhase phase of the sample to get.
-	 * @return the requested sample.
+	 * Generates a block of band-limited pulse wave samples, as the difference
+	 * of two band-limited saws {@code pDuty} of a cycle apart.
 	 */
 	@Override
-	protected float get_sample(float pPhase)
+	protected void render(float[] oStream, int pOffset, int pCount,
+		int[] pPhases, float pDuty, int pIncrement)
 	{
-		return (pPhase < sSampleRate * mDuty) ? 1.0f : -1.0f;
+		int tLevel = WaveTabler.Level(pIncrement);
+		final float[] tSaw = mSaw.mLevels[tLevel]; // grab local ref
+		final int tShift = mSaw.mShifts[tLevel];
+		final int tDutyPhase = cycles(pDuty);
+		final float tOffset = 2 * pDuty - 1;	// centers it on +1/-1
+		for(int i = 0; i < pCount; i++)
+		{
+			int tPhase = pPhases[i];
+			oStream[pOffset + i] = tOffset -
+				WaveTabler.Lookup(tSaw, tShift, tPhase) +
+				WaveTabler.Lookup(tSaw, tShift, tPhase - tDutyPhase);
+		}
 	}
 }
 
@@ -59,15 +90,15 @@ class WhiteNoise extends WaveFunctor
 	}
 
 	/**
-	 * Gets a sample of white noise.
-	 *
-	 * @param pPhase phase of the sample to get.
-	 * @return the requested sample.
+	 * Generates a block of white noise.
 	 */
 	@Override
-	protected float get_sample(float pPhase)
+	protected void render(float[] oStream, int pOffset, int pCount,
+		int[] pPhases, float pDuty, int pIncrement)
 	{
-		return sRand.nextFloat() * 2.0f - 1.0f;
+		final float tScale = 1.0f / Integer.MAX_VALUE;
+		for(int i = 0; i < pCount; i++)
+			oStream[pOffset + i] = next_random() * tScale;
 	}
 
 }
@@ -80,20 +111,18 @@ class FMNoise extends WaveFunctor
 	 */
 	public FMNoise()
 	{
-		if(sRand == null)
-			sRand = new Random();
+		super();
 	}
 
 	/**
-	 * Gets a sample of FM noise.
-	 *
-	 * @param pPhase phase of the sample to get.
-	 * @return the requested sample.
+	 * Generates a block of FM noise.
 	 */
 	@Override
-	protected float get_sample(float pPhase)
+	protected void render(float[] oStream, int pOffset, int pCount,
+		int[] pPhases, float pDuty, int pIncrement)
 	{
-		return sRand.nextLong() > sRand.nextLong() ? 1 : -1;
+		for(int i = 0; i < pCount; i++)
+			oStream[pOffset + i] = (next_random() < 0) ? 1 : -1;
 	}
 
 }
@@ -110,35 +139,31 @@ class PinkNoise extends WaveFunctor
 	 */
 	public PinkNoise()
 	{
-		if(sRand == null)
-			sRand = new Random();
+		super();
 		mDuration = 0;
 		mNoiseFlip = 1.0f;
 	}
 
 	/**
-	 * Gets a sample of pink noise.
-	 *
-	 * @param pPhase phase of the sample to get.
-	 * @return the requested sample.
+	 * Generates a block of pink noise.
 	 */
 	@Override
-	protected float get_sample(float pPhase)
+	protected void render(float[] oStream, int pOffset, int pCount,
+		int[] pPhases, float pDuty, int pIncrement)
 	{
-		float tSample;
-
 		// min frequency at 100Hz, max frequency at Nyquist
-		if(mDuration == 0)
+		int tMax = sSampleRate / 400;
+		for(int i = 0; i < pCount; i++)
 		{
-			int tMax = sSampleRate / 400;
-			mDuration = sRand.nextInt(tMax) + 1;
-			mNoiseAmp = mNoiseFlip * (mDuration / tMax + 1) * 0.5f;
+			if(mDuration == 0)
+			{
+				mDuration = ((next_random() >>> 1) % tMax) + 1;
+				mNoiseAmp = mNoiseFlip * (mDuration / tMax + 1) * 0.5f;
+			}
+			oStream[pOffset + i] = mNoiseAmp;
+			if(--mDuration == 0)
+				mNoiseFlip *= -1.0f;
 		}
-		tSample = mNoiseAmp;
-		if(--mDuration == 0)
-			mNoiseFlip *= -1.0f;
-
-		return tSample;
 	}
 
 }
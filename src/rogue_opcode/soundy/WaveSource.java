@@ -25,12 +25,21 @@ import java.util.Arrays;
 public abstract class WaveSource
 {
 	public static int sFormat = 8;
-	public static int sSampleRate = 11025;
+	public static int sSampleRate = 44100;
 
-	public float mPhase;
+	/** Samples synthesized per inner loop; see {@link #render}. */
+	public static final int BLOCK_SIZE = 64;
+	/** Fixed-point phase per cycle: 2^32, the range of an {@code int}. */
+	protected static final double PHASE_SCALE = 4294967296.0;
+
+	/** Current phase, fixed point; see {@link #render}. */
+	public int mPhase;
 	public float mDuty;
 	public ADSHR mEnvelope;
 
+	// this voice's phases for the block being rendered
+	protected final int[] mPhases = new int[BLOCK_SIZE];
+
 	// c'tor, etc. /////////////////////////////////////////////////////////////
 
 	/**
@@ -102,20 +111,27 @@ public abstract class WaveSource
 	// signal generation ///////////////////////////////////////////////////////
 
 	/**
-	 * Implement this method to return the appropriate raw, full amplitude
-	 * sample at the given phase offset. This will be called in a loop, so make
-	 * it as efficient as possible.
+	 * Implement this method to fill a block with raw, full amplitude samples
+	 * at the given phases. It's called once per block of up to
+	 * {@link #BLOCK_SIZE} samples, so keep the loop inside it tight; anything
+	 * that doesn't change from sample to sample should be worked out before
+	 * the loop.
 	 * <br /><br />
-	 * <code>get_sample()</code> returns only a single sample, rather than
-	 * filling the entire array with samples and then applying transformations
-	 * to those. This may seem inefficient, but it is necessary because the
-	 * frequency and duty cycle may be modulated dynamically. The tradeoff here
-	 * is flexibility and power at the expense of some efficiency.
+	 * Phases are fixed point: the full range of an {@code int} is one cycle,
+	 * so they wrap for free and {@code pPhases[i] >>> (32 - bits)} indexes a
+	 * table of {@code 1 << bits} entries.
 	 *
-	 * @param pPhase the phase offset of the sample to retrieve.
-	 * @return the next sample.
+	 * @param oStream buffer to write to.
+	 * @param pOffset index of the first sample to write.
+	 * @param pCount samples to write; at most {@code BLOCK_SIZE}.
+	 * @param pPhases phase of each sample; {@code pPhases[0]} is for
+	 *        {@code oStream[pOffset]}.
+	 * @param pDuty dutycycle for this block, in the range (0, 1).
+	 * @param pIncrement the largest phase step between samples in the block;
+	 *        band-limited sources use it to keep harmonics below Nyquist.
 	 */
-	protected abstract float get_sample(float pPhase);
+	protected abstract void render(float[] oStream, int pOffset, int pCount,
+		int[] pPhases, float pDuty, int pIncrement);
 
 	/**
 	 * Master sample generator for functional and wavetable synthesis. This is a
@@ -147,117 +163,134 @@ public abstract class WaveSource
 		float pVol, WaveModulation pWaveMod, float pLFO[], float pModArg,
 		float pSlideTo, float pSlideTime, boolean pNoteOn)
 	{
-		// precalc envelope to see if we need to turn pFreq back on
-		float tAmp = 1.0f;
-		if(mEnvelope != null)
-		{
-			pFreq = mEnvelope.Calculate(pFreq, pNoteOn);
-			tAmp = mEnvelope.mAmp;
-		}
+		SynthMaster(oStream, 0, oStream.length, pFreq, pPhaseOffset, pVol,
+			pWaveMod, pLFO, pModArg, pSlideTo, pSlideTime, 0, pNoteOn);
+	}
+
+	/**
+	 * Block-based core of the {@code SynthMaster()} above, writing only part
+	 * of a buffer.
+	 * <br /><br />
+	 * The buffer is processed in blocks of {@link #BLOCK_SIZE} samples. For
+	 * each block the modulation mode picks one specialized loop to lay out
+	 * the phases, the waveform renders them in one call, and the envelope,
+	 * volume and any slide are applied as a linear ramp from their values at
+	 * the start of the block to their values at the end. Per-sample work is a
+	 * handful of adds and multiplies; nothing is allocated.
+	 * <br /><br />
+	 * Frequency, phase and amplitude modulation follow {@code pLFO} sample by
+	 * sample; duty modulation and slides are updated once per block.
+	 *
+	 * @param pOffset index of the first sample to write; {@code pLFO} is
+	 *        indexed the same way.
+	 * @param pCount how many samples to write.
+	 * @param pSlideElapsed samples of the slide already played by earlier
+	 *        calls, so one note can be rendered in pieces without its slide
+	 *        starting over.
+	 */
+	public void SynthMaster(float[] oStream, int pOffset, int pCount,
+		float pFreq, float pPhaseOffset, float pVol, WaveModulation pWaveMod,
+		float pLFO[], float pModArg, float pSlideTo, float pSlideTime,
+		int pSlideElapsed, boolean pNoteOn)
+	{
+		int tEnd = pOffset + pCount;
+		ADSHR tEnvelope = mEnvelope;
+
 		// ensure a reasonable "no signal" value and bail
-		else if(pFreq == 0.0 || !pNoteOn)
+		if(tEnvelope == null && (pFreq == 0.0 || !pNoteOn))
 		{
-			Arrays.fill(oStream, 0.0f);
+			Arrays.fill(oStream, pOffset, tEnd, 0.0f);
 			return;
 		}
 
-		// precalculate slide step
-		float tSlideStep = 0;
-		switch(pWaveMod)
-		{
-		case AMPSLIDE:
-			tSlideStep = (pSlideTo - 1.0f) / pSlideTime;
-			break;
-		case FREQSLIDE:
-			tSlideStep = (pSlideTo - pFreq) / pSlideTime;
-			break;
-		case DUTYSLIDE:
-			tSlideStep = (pSlideTo - mDuty) / pSlideTime;
-			break;
-		case PHASESLIDE:
-			tSlideStep = (pSlideTo - mPhase) / pSlideTime;
-			break;
-		}
+		int[] tPhases = mPhases;
+		int tPhaseOffset = cycles(pPhaseOffset);
+		int tInc = increment(pFreq);
+		float tSlidePerSample = (pSlideTime > 0) ? 1.0f / pSlideTime : 1.0f;
+		float tAmp = (tEnvelope != null) ? tEnvelope.mAmp : 1.0f;
 
-		// generate each sample
-		float tPeriod = Period(sSampleRate, pFreq);
-		float tPortion, tPhase;
-		float tDuty = mDuty;
-		for(int i = 0; i < oStream.length; i++)
+		for(int tStart = pOffset; tStart < tEnd; tStart += BLOCK_SIZE)
 		{
-			// predomulate dutycycle
-			if(pWaveMod == WaveModulation.DUTYMOD)
-			{
-				tDuty = mix_mean(tDuty, amp_mod(1.0f, pLFO[i] * pModArg));
-				tDuty = wrap_around(tDuty);
-			}
-			else if(pWaveMod == WaveModulation.DUTYSLIDE)
-				tDuty += tSlideStep;
-
-			// premodulate phaseshift
-			tPhase = wrap_around(mPhase);
-			if(pWaveMod == WaveModulation.PHASEMOD)
-				tPhase = tPhase + (sSampleRate * pLFO[i] * pModArg);
-			else if(pWaveMod == WaveModulation.PHASESLIDE)
-				tPhase += tSlideStep;
-			else
-				tPhase = tPhase + (sSampleRate * pPhaseOffset);
-			tPhase = wrap_around(tPhase);
+			int tCount = Math.min(BLOCK_SIZE, tEnd - tStart);
 
-			// handle envelope calculations
-			if(mEnvelope != null)
+			// envelope at both ends of the block
+			float tAmp0 = tAmp;
+			if(tEnvelope != null)
 			{
-				mEnvelope.Calculate(pFreq, pNoteOn);
-				tAmp = mEnvelope.mAmp;
-			}
-
-			// grab and attenuate sample
-			oStream[i] = get_sample(tPhase) * pVol * tAmp;
-
-
-			// step to next sample, based on dutycycle
-			tPhase = mPhase;
-			if(tPhase < sSampleRate / 2.0) // in first halfperiod
-			{
-				if(tDuty == 0.0) //we should never be here; wrap
-				{
-					tPhase = wrap_second(tPhase, tDuty);
-					tPortion = 1.0f - tDuty;
-				}
-				else
-					tPortion = tDuty;
-			}
-			else // in second halfperiod
-			{
-				if(tDuty == 1.0) // we should never be here; wrap
+				tAmp = tEnvelope.Advance(pFreq, pNoteOn, tCount);
+				if(tAmp0 == 0.0f && tAmp == 0.0f)
 				{
-					tPhase = wrap_first(tPhase, tDuty);
-					tPortion = tDuty;
+					Arrays.fill(oStream, tStart, tStart + tCount, 0.0f);
+					continue;
 				}
-				else
-					tPortion = 1.0f - tDuty;
 			}
-			// equivalent to pFreq, when duty == .5
-			mPhase += sSampleRate / (2 * tPortion * tPeriod);
-
-			// handle modulation
+			float tGain0 = pVol * tAmp0;
+			float tGain1 = pVol * tAmp;
+
+			// slide progress at both ends of the block
+			int tDone = tStart - pOffset + pSlideElapsed;
+			float tSlide0 = Math.min(tDone * tSlidePerSample, 1.0f);
+			float tSlide1 = Math.min((tDone + tCount) * tSlidePerSample, 1.0f);
+
+			// lay out this block's phases
+			float tDuty = mDuty;
+			int tPhase = mPhase;
+			int tTopInc = Math.abs(tInc);
 			switch(pWaveMod)
 			{
-			case AMPMOD:
-				oStream[i] = amp_mod(oStream[i], pLFO[i] * pModArg);
-				break;
 			case FREQMOD:
-				tPhase += pLFO[i] * pModArg;
-				break;
-			case AMPSLIDE:
-				oStream[i] = amp_mod(oStream[i], pLFO[i] * pModArg);
+				tPhase = phase_fm(tPhases, tCount, tPhase, tPhaseOffset, tInc,
+					pLFO, tStart, pModArg);
+				tTopInc = (int)Math.min(Integer.MAX_VALUE,
+					tTopInc * (1.0f + Math.abs(pModArg)));
 				break;
 			case FREQSLIDE:
-				tPhase += pLFO[i] * pModArg;
+				int tInc0 = increment(lerp(pFreq, pSlideTo, tSlide0));
+				int tInc1 = increment(lerp(pFreq, pSlideTo, tSlide1));
+				tPhase = phase_sweep(tPhases, tCount, tPhase, tPhaseOffset,
+					tInc0, tInc1);
+				tTopInc = Math.max(Math.abs(tInc0), Math.abs(tInc1));
+				break;
+			case PHASEMOD:
+				tPhase = phase_pm(tPhases, tCount, tPhase, tInc, pLFO, tStart,
+					pModArg);
+				break;
+			case PHASESLIDE:
+				tPhase = phase_shift(tPhases, tCount, tPhase, tInc,
+					cycles(lerp(pPhaseOffset, pSlideTo, tSlide0)),
+					cycles(lerp(pPhaseOffset, pSlideTo, tSlide1)));
 				break;
-			default: // PM, DM handled above
+			case DUTYMOD:
+				tDuty = mix_mean(tDuty, amp_mod(1.0f, pLFO[tStart] * pModArg));
+				tPhase = phase_linear(tPhases, tCount, tPhase, tPhaseOffset,
+					tInc);
+				break;
+			case DUTYSLIDE:
+				tDuty = lerp(tDuty, pSlideTo, tSlide0);
+				tPhase = phase_linear(tPhases, tCount, tPhase, tPhaseOffset,
+					tInc);
+				break;
+			case AMPSLIDE:
+				tGain0 *= lerp(1.0f, pSlideTo, tSlide0);
+				tGain1 *= lerp(1.0f, pSlideTo, tSlide1);
+				tPhase = phase_linear(tPhases, tCount, tPhase, tPhaseOffset,
+					tInc);
+				break;
+			default:
+				tPhase = phase_linear(tPhases, tCount, tPhase, tPhaseOffset,
+					tInc);
 				break;
 			}
+			mPhase = tPhase;
+
+			// grab and attenuate samples
+			render(oStream, tStart, tCount, tPhases, clamp_duty(tDuty),
+				tTopInc);
+			if(pWaveMod == WaveModulation.AMPMOD)
+				gain_am(oStream, tStart, tCount, tGain0, tGain1, pLFO,
+					pModArg);
+			else
+				gain_ramp(oStream, tStart, tCount, tGain0, tGain1);
 		}
 	}
 
@@ -374,55 +407,134 @@ public abstract class WaveSource
 	}
 
 	/**
-	 * Wraps a phase value to make sure it maps to a wavetable index and is
-	 * contiguous with the previous chunk.
+	 * Converts a fraction of a cycle to fixed-point phase.
 	 *
-	 * @param pPhase current phase value to wrap.
-	 * @return the wrapped phase.
+	 * @param pCycles phase in cycles; any value, it wraps.
+	 * @return the phase, where the range of an {@code int} is one cycle.
 	 */
-	protected static float wrap_around(float pPhase)
+	protected static int cycles(double pCycles)
 	{
-		float tChunk = sSampleRate;
-		while(pPhase >= tChunk)
-			pPhase -= tChunk;
-		while(pPhase < 0.0000f)
-			pPhase += tChunk;
-		return pPhase;
+		return (int)(long)(pCycles * PHASE_SCALE);
 	}
 
 	/**
-	 * Wraps a phase value to make sure it maps to a wavetable index in the
-	 * first half of the dutycycle and is contiguous with the previous chunk.
-	 *
-	 * @param pPhase current phase value to wrap.
-	 * @param pDuty dutycycle of this waveform.
-	 * @return the wrapped phase.
+	 * @param pFreq a frequency, in Hz.
+	 * @return the per-sample phase increment for it at the output rate.
 	 */
-	protected static float wrap_first(float pPhase, float pDuty)
+	protected static int increment(float pFreq)
+	{
+		return cycles(pFreq / (double)sSampleRate);
+	}
+
+	protected static float lerp(float pFrom, float pTo, float pFraction)
 	{
-		float tChunk = sSampleRate * pDuty;
-		while(pPhase >= tChunk)
-			pPhase -= tChunk;
-		while(pPhase < 0.0000f)
-			pPhase += tChunk;
+		return pFrom + (pTo - pFrom) * pFraction;
+	}
+
+	// keep pulse and triangle shapes from degenerating into DC
+	protected static float clamp_duty(float pDuty)
+	{
+		return pDuty < 0.001f ? 0.001f : (pDuty > 0.999f ? 0.999f : pDuty);
+	}
+
+	// phase loops //
+	// Each lays out one block's phases and returns the accumulator to carry
+	// into the next block.
+
+	/** Constant frequency. */
+	protected static int phase_linear(int[] oPhases, int pCount, int pPhase,
+		int pOffset, int pInc)
+	{
+		for(int i = 0; i < pCount; i++)
+		{
+			oPhases[i] = pPhase + pOffset;
+			pPhase += pInc;
+		}
 		return pPhase;
 	}
 
-	/**
-	 * Wraps a phase value to make sure it maps to a wavetable index in the
-	 * second half of the dutycycle and is contiguous with the previous chunk.
-	 *
-	 * @param pPhase current phase value to wrap.
-	 * @param pDuty dutycycle of this waveform.
-	 * @return the wrapped phase.
-	 */
-	protected static float wrap_second(float pPhase, float pDuty)
+	/** Frequency moving linearly from one increment to another. */
+	protected static int phase_sweep(int[] oPhases, int pCount, int pPhase,
+		int pOffset, int pInc0, int pInc1)
 	{
-		float tChunk = sSampleRate * (1 - pDuty);
-		while(pPhase >= sSampleRate)
-			pPhase -= tChunk;
-		while(pPhase < sSampleRate - tChunk)
-			pPhase += tChunk;
+		int tStep = (pInc1 - pInc0) / pCount;
+		int tInc = pInc0;
+		for(int i = 0; i < pCount; i++)
+		{
+			oPhases[i] = pPhase + pOffset;
+			pPhase += tInc;
+			tInc += tStep;
+		}
 		return pPhase;
 	}
+
+	/** Frequency scaled by {@code 1 + pLFO[i] * pModArg}. */
+	protected static int phase_fm(int[] oPhases, int pCount, int pPhase,
+		int pOffset, int pInc, float[] pLFO, int pLFOOffset, float pModArg)
+	{
+		float tInc = pInc;
+		for(int i = 0; i < pCount; i++)
+		{
+			oPhases[i] = pPhase + pOffset;
+			float tMod = 1.0f + pLFO[pLFOOffset + i] * pModArg;
+			pPhase += (int)(long)(tInc * tMod);
+		}
+		return pPhase;
+	}
+
+	/** Phase shifted by {@code pLFO[i] * pModArg} cycles. */
+	protected static int phase_pm(int[] oPhases, int pCount, int pPhase,
+		int pInc, float[] pLFO, int pLFOOffset, float pModArg)
+	{
+		float tScale = (float)PHASE_SCALE * pModArg;
+		for(int i = 0; i < pCount; i++)
+		{
+			oPhases[i] = pPhase + (int)(long)(pLFO[pLFOOffset + i] * tScale);
+			pPhase += pInc;
+		}
+		return pPhase;
+	}
+
+	/** Phase shift moving linearly from one offset to another. */
+	protected static int phase_shift(int[] oPhases, int pCount, int pPhase,
+		int pInc, int pOffset0, int pOffset1)
+	{
+		int tStep = (pOffset1 - pOffset0) / pCount;	// wraps the short way
+		int tOffset = pOffset0;
+		for(int i = 0; i < pCount; i++)
+		{
+			oPhases[i] = pPhase + tOffset;
+			pPhase += pInc;
+			tOffset += tStep;
+		}
+		return pPhase;
+	}
+
+	// gain loops //
+
+	/** Scales a block by a gain moving linearly from pGain0 to pGain1. */
+	protected static void gain_ramp(float[] oStream, int pOffset, int pCount,
+		float pGain0, float pGain1)
+	{
+		float tStep = (pGain1 - pGain0) / pCount;
+		float tGain = pGain0;
+		for(int i = pOffset, tEnd = pOffset + pCount; i < tEnd; i++)
+		{
+			oStream[i] *= tGain;
+			tGain += tStep;
+		}
+	}
+
+	/** As {@link #gain_ramp}, with amplitude modulation by the LFO. */
+	protected static void gain_am(float[] oStream, int pOffset, int pCount,
+		float pGain0, float pGain1, float[] pLFO, float pModArg)
+	{
+		float tStep = (pGain1 - pGain0) / pCount;
+		float tGain = pGain0;
+		for(int i = pOffset, tEnd = pOffset + pCount; i < tEnd; i++)
+		{
+			oStream[i] *= tGain * amp_mod(1.0f, pLFO[i] * pModArg);
+			tGain += tStep;
+		}
+	}
 }
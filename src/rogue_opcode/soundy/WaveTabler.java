@@ -16,149 +16,369 @@ package rogue_opcode.soundy;
 
 
 /**
- * Generates and buffers 1 cycle of various waveforms at 1Hz in normalized
- * floating point format (amplitudes over the range [-1.0,1.0] inclusive).
+ * Generates and buffers 1 cycle of various waveforms in normalized floating
+ * point format (amplitudes over the range [-1.0,1.0] inclusive).
+ * <br /><br />
+ * Each waveform is kept as a {@link TableSet} of band-limited tables, one per
+ * octave: level 0 holds the first {@link #MAX_HARMONICS} harmonics, and each
+ * level after holds half as many as the one before, in a table half the size.
+ * The levels are built by additive synthesis from the harmonics of the plain
+ * waveform, so none of them contains anything above its own limit. When
+ * rendering, the oscillator picks the fullest level whose top harmonic still
+ * falls below Nyquist at the current pitch, so high notes don't alias, and
+ * interpolates linearly between points.
+ * <br /><br />
+ * Table sizes are powers of two that don't depend on the output sample rate;
+ * the whole set for one waveform is about 32K, built the first time that
+ * waveform is used.
  *
  * @author Brigham Toskin
  */
 public class WaveTabler extends WaveSource
 {
-	protected static float[] sSawData;
-	protected static float[] sTriData;
-	protected static float[] sSinData;
-	protected static float[] sTanData;
-	protected static float[] sHemicycleData;
+	/** log2 of the largest (level 0) table size. */
+	public static final int TABLE_BITS = 12;
+	public static final int TABLE_SIZE = 1 << TABLE_BITS;
+	/** Harmonics in the level 0 tables. */
+	public static final int MAX_HARMONICS = TABLE_SIZE / 4;
+	/** Octave levels per waveform; the last holds only the fundamental. */
+	public static final int LEVELS = 11;
+	// smallest table; keeps linear interpolation of a sine clean
+	protected static final int MIN_TABLE_BITS = 6;
 
+	/**
+	 * One waveform's band-limited tables. Each table has one extra point past
+	 * the end, a copy of the first, so lookups can interpolate without
+	 * wrapping.
+	 */
+	public static class TableSet
+	{
+		/** Tables by level; level {@code k} holds
+		 * {@code MAX_HARMONICS >> k} harmonics. */
+		public final float[][] mLevels = new float[LEVELS][];
+		/** Right shift taking a phase to a table index, by level. */
+		public final int[] mShifts = new int[LEVELS];
+	}
+
+	protected static TableSet sSaw;
+	protected static TableSet sTri;
+	protected static TableSet sSin;
+	protected static TableSet sTan;
+	protected static TableSet sHemicycle;
+
+	// cos and sin of 2 pi i / TABLE_SIZE, for analysis and resynthesis
+	protected static float[] sCosine, sSine;
+
+	public TableSet mTables;
+	/** The full-band (level 0) table. */
 	public float[] mWaveData;
 
 	/**
-	 * Constructs an instance with an internal wavetable buffer of an
-	 * appropriate size to hold one cycle at 1 Hz at the specified sample rate.
+	 * Constructs an instance sharing the wavetables for the given waveform,
+	 * generating them the first time they're needed.
 	 *
 	 * @param pType the type of waveform to create a table for.
 	 */
 	public WaveTabler(WaveForm pType)
 	{
 		super();
-		generate_table(pType);
+		mTables = Tables(pType);
+		mWaveData = mTables.mLevels[0];
 	}
 
 	/**
-	 * Returns the next sample from the wavetable at the specified phase offset.
-	 *
-	 * @param pPhase the phase offset of the sample to retrieve.
-	 * @return the next sample.
+	 * Looks up a block of samples from the level suited to the pitch,
+	 * interpolating between table points. A dutycycle other than .5 stretches
+	 * the first half of the cycle over {@code pDuty} of the period and
+	 * squeezes the second half into the rest.
 	 */
 	@Override
-	protected float get_sample(float pPhase)
+	protected void render(float[] oStream, int pOffset, int pCount,
+		int[] pPhases, float pDuty, int pIncrement)
+	{
+		int tLevel = Level(pIncrement);
+		final float[] tTable = mTables.mLevels[tLevel]; // grab local ref
+		final int tShift = mTables.mShifts[tLevel];
+		if(pDuty == 0.5f)
+		{
+			for(int i = 0; i < pCount; i++)
+				oStream[pOffset + i] = Lookup(tTable, tShift, pPhases[i]);
+			return;
+		}
+
+		// warp phase by dutycycle, in table units
+		final int tSize = tTable.length - 1;
+		final float tToCycles = (float)(1.0 / PHASE_SCALE);
+		final float tFirst = 0.5f * tSize / pDuty;
+		final float tSecond = 0.5f * tSize / (1.0f - pDuty);
+		for(int i = 0; i < pCount; i++)
+		{
+			float tCycle = (pPhases[i] & 0xffffffffL) * tToCycles;
+			float tPos = (tCycle < pDuty) ? tCycle * tFirst :
+				0.5f * tSize + (tCycle - pDuty) * tSecond;
+			int j = Math.min((int)tPos, tSize - 1);
+			float tA = tTable[j];
+			oStream[pOffset + i] = tA + (tTable[j + 1] - tA) * (tPos - j);
+		}
+	}
+
+	// lookups /////////////////////////////////////////////////////////////////
+
+	/**
+	 * Picks the table level for a pitch: the one with the most harmonics that
+	 * all stay below Nyquist.
+	 *
+	 * @param pIncrement per-sample phase step; see {@link #render}.
+	 * @return the level, 0 to {@code LEVELS - 1}.
+	 */
+	public static int Level(int pIncrement)
+	{
+		// MAX_HARMONICS >> k harmonics fit while
+		// (MAX_HARMONICS >> k) * pIncrement <= 2^31
+		if(pIncrement <= 1)
+			return 0;
+		int tLog2 = 32 - Integer.numberOfLeadingZeros(pIncrement - 1);
+		int tLevel = tLog2 - (31 - (TABLE_BITS - 2));
+		return tLevel < 0 ? 0 : (tLevel >= LEVELS ? LEVELS - 1 : tLevel);
+	}
+
+	/**
+	 * Reads a table at a phase, interpolating linearly.
+	 *
+	 * @param pTable a table from a {@link TableSet}.
+	 * @param pShift the table's shift from {@link TableSet#mShifts}.
+	 * @param pPhase fixed-point phase.
+	 * @return the sample.
+	 */
+	public static float Lookup(float[] pTable, int pShift, int pPhase)
 	{
-		float tSample = 0;
-		tSample = mWaveData[(int)Math.floor(pPhase)];
-		return tSample;
+		int j = pPhase >>> pShift;
+		float tFrac = (pPhase & ((1 << pShift) - 1)) * (1.0f / (1 << pShift));
+		float tA = pTable[j];
+		return tA + (pTable[j + 1] - tA) * tFrac;
 	}
 
 	// table generation ////////////////////////////////////////////////////////
 
 	/**
-	 * Implement this method to generate the appropriate wave function values.
-	 * This method should have an internal loop to fill the entire
-	 * <code>mWaveData</code>array based on the current member parameters.
-	 * 
-	 * @param pType the type of waveform to create a table for.
+	 * Gets the band-limited tables for a waveform, building them if this is
+	 * the first time.
+	 *
+	 * @param pType the type of waveform to get tables for.
+	 * @return the tables.
 	 */
-	protected void generate_table(WaveForm pType)
+	public static synchronized TableSet Tables(WaveForm pType)
 	{
 		switch(pType)
 		{
 		case SAW:
-			if(sSawData == null)
-			{
-				sSawData = new float[sSampleRate];
-				generate_saw();
-			}
-			mWaveData = sSawData;
-			break;
+			if(sSaw == null)
+				sSaw = band_limit(generate_saw());
+			return sSaw;
 		case TRIANGLE:
-			if(sTriData == null)
-			{
-				sTriData = new float[sSampleRate];
-				generate_triangle();
-			}
-			mWaveData = sTriData;
-			break;
+			if(sTri == null)
+				sTri = band_limit(generate_triangle());
+			return sTri;
 		case SIN:
-			if(sSinData == null)
+			if(sSin == null)
 			{
-				sSinData = new float[sSampleRate];
-				generate_sin();
+				// already band-limited; every level is the same small table
+				sSin = new TableSet();
+				float[] tTable = resynthesize(analyze(generate_sin(), 1), 1,
+					MIN_TABLE_BITS);
+				for(int k = 0; k < LEVELS; k++)
+				{
+					sSin.mLevels[k] = tTable;
+					sSin.mShifts[k] = 32 - MIN_TABLE_BITS;
+				}
 			}
-			mWaveData = sSinData;
-			break;
+			return sSin;
 		case TAN:
-			if(sTanData == null)
+			if(sTan == null)
+				sTan = band_limit(generate_tan());
+			return sTan;
+		case HEMICYCLE:
+			if(sHemicycle == null)
+				sHemicycle = band_limit(generate_hemicycle());
+			return sHemicycle;
+		default:
+			throw new IllegalArgumentException("No wavetable for " + pType);
+		}
+	}
+
+	/**
+	 * Builds the octave levels for a waveform from one plain, full-resolution
+	 * cycle of it.
+	 *
+	 * @param pCycle {@code TABLE_SIZE} points of the plain waveform.
+	 * @return the band-limited set.
+	 */
+	protected static TableSet band_limit(float[] pCycle)
+	{
+		float[][] tHarmonics = analyze(pCycle, MAX_HARMONICS);
+		TableSet tSet = new TableSet();
+		for(int k = 0; k < LEVELS; k++)
+		{
+			int tCount = MAX_HARMONICS >> k;
+			// four points per cycle of the top harmonic
+			int tBits = Math.max(MIN_TABLE_BITS, TABLE_BITS - k);
+			tSet.mLevels[k] = resynthesize(tHarmonics, tCount, tBits);
+			tSet.mShifts[k] = 32 - tBits;
+		}
+		return tSet;
+	}
+
+	/**
+	 * Finds the harmonic content of a cycle with a discrete Fourier
+	 * transform.
+	 *
+	 * @param pCycle {@code TABLE_SIZE} points of the waveform.
+	 * @param pHarmonics how many harmonics to find.
+	 * @return cosine amplitudes in {@code [0]} and sine amplitudes in
+	 *         {@code [1]}, indexed by harmonic; {@code [0][0]} is the DC
+	 *         offset.
+	 */
+	protected static float[][] analyze(float[] pCycle, int pHarmonics)
+	{
+		init_trig();
+		float[] tCos = new float[pHarmonics + 1];
+		float[] tSin = new float[pHarmonics + 1];
+		int tMask = TABLE_SIZE - 1;
+		for(int n = 0; n <= pHarmonics; n++)
+		{
+			double tA = 0, tB = 0;
+			for(int i = 0, j = 0; i < TABLE_SIZE; i++, j = (j + n) & tMask)
 			{
-				sTanData = new float[sSampleRate];
-				generate_tan();
+				tA += pCycle[i] * sCosine[j];
+				tB += pCycle[i] * sSine[j];
 			}
-			mWaveData = sTanData;
-			break;
-		case HEMICYCLE:
-			if(sHemicycleData == null)
+			tCos[n] = (float)(tA * 2 / TABLE_SIZE);
+			tSin[n] = (float)(tB * 2 / TABLE_SIZE);
+		}
+		tCos[0] *= 0.5f;
+		tSin[0] = 0;
+		return new float[][] { tCos, tSin };
+	}
+
+	/**
+	 * Sums harmonics into a table. Lanczos sigma factors taper the top
+	 * harmonics, to keep the truncation from ringing.
+	 *
+	 * @param pHarmonics from {@link #analyze(float[], int)}.
+	 * @param pCount harmonics to use.
+	 * @param pBits log2 of the table size.
+	 * @return the table, with its extra wraparound point.
+	 */
+	protected static float[] resynthesize(float[][] pHarmonics, int pCount,
+		int pBits)
+	{
+		int tSize = 1 << pBits;
+		int tStride = TABLE_SIZE / tSize; // step through the trig tables
+		int tMask = TABLE_SIZE - 1;
+		float[] tCos = pHarmonics[0];
+		float[] tSin = pHarmonics[1];
+		float[] tTable = new float[tSize + 1];
+
+		// tapered amplitudes
+		float[] tA = new float[pCount + 1];
+		float[] tB = new float[pCount + 1];
+		for(int n = 1; n <= pCount; n++)
+		{
+			double tSigma = 1;
+			if(pCount > 1)
 			{
-				sHemicycleData = new float[sSampleRate];
-				generate_hemicycle();
+				double x = Math.PI * n / (pCount + 1);
+				tSigma = Math.sin(x) / x;
 			}
-			mWaveData = sHemicycleData;
-			break;
+			tA[n] = (float)(tCos[n] * tSigma);
+			tB[n] = (float)(tSin[n] * tSigma);
+		}
+
+		for(int i = 0; i < tSize; i++)
+		{
+			double tSample = tCos[0];
+			int tStep = i * tStride;
+			for(int n = 1, j = tStep & tMask; n <= pCount;
+				n++, j = (j + tStep) & tMask)
+				tSample += tA[n] * sCosine[j] + tB[n] * sSine[j];
+			tTable[i] = (float)tSample;
+		}
+		tTable[tSize] = tTable[0];
+		return tTable;
+	}
+
+	protected static void init_trig()
+	{
+		if(sCosine != null)
+			return;
+		sCosine = new float[TABLE_SIZE];
+		sSine = new float[TABLE_SIZE];
+		for(int i = 0; i < TABLE_SIZE; i++)
+		{
+			double tTheta = 2 * Math.PI * i / TABLE_SIZE;
+			sCosine[i] = (float)Math.cos(tTheta);
+			sSine[i] = (float)Math.sin(tTheta);
 		}
 	}
 
-	protected void generate_saw()
+	// plain waveforms //
+	// One cycle each, TABLE_SIZE points, before band limiting.
+
+	protected static float[] generate_saw()
 	{
-		final float tPeriod = Period(sSampleRate, 1);
-		for(int i = 0; i < sSampleRate; i++)
-			sSawData[i] = (i / tPeriod) * 2 - 1;
+		final float tPeriod = TABLE_SIZE;
+		float[] tData = new float[TABLE_SIZE];
+		for(int i = 0; i < TABLE_SIZE; i++)
+			tData[i] = (i / tPeriod) * 2 - 1;
+		return tData;
 	}
 
-	protected void generate_triangle()
+	protected static float[] generate_triangle()
 	{
-		final float tPeriod = Period(sSampleRate, 1);
+		final float tPeriod = TABLE_SIZE;
 		final float tHalfPeriod = tPeriod / 2;
-		for(int i = 0; i < sSampleRate; i++)
-			sTriData[i] = (i <= tHalfPeriod ? i / tHalfPeriod :
+		float[] tData = new float[TABLE_SIZE];
+		for(int i = 0; i < TABLE_SIZE; i++)
+			tData[i] = (i <= tHalfPeriod ? i / tHalfPeriod :
 				(tPeriod - i) / tHalfPeriod ) * 2 - 1;
+		return tData;
 	}
 
-	protected void generate_sin()
+	protected static float[] generate_sin()
 	{
-		final float tPeriod = Period(sSampleRate, 1);
+		final float tPeriod = TABLE_SIZE;
+		float[] tData = new float[TABLE_SIZE];
 		float tTheta;
-		for(int i = 0; i < sSampleRate; i++)
+		for(int i = 0; i < TABLE_SIZE; i++)
 		{
 			tTheta = 2.0f * (float)Math.PI * (i / tPeriod);
-			sSinData[i] = (float)Math.sin(tTheta);
+			tData[i] = (float)Math.sin(tTheta);
 		}
+		return tData;
 	}
 
-	protected void generate_tan()
+	protected static float[] generate_tan()
 	{
-		final float tPeriod = Period(sSampleRate, 1);
+		final float tPeriod = TABLE_SIZE;
+		float[] tData = new float[TABLE_SIZE];
 		float tTheta;
-		for(int i = 0; i < sSampleRate; i++)
+		for(int i = 0; i < TABLE_SIZE; i++)
 		{
 			tTheta = 2.0f * (float)Math.PI * (i / tPeriod);
-			sTanData[i] = clip((float)(Math.tan(tTheta) / (4 * Math.PI)));
+			tData[i] = clip((float)(Math.tan(tTheta) / (4 * Math.PI)));
 		}
+		return tData;
 	}
 
-	protected void generate_hemicycle()
+	protected static float[] generate_hemicycle()
 	{
-		final float tPeriod = Period(sSampleRate, 1);
+		final float tPeriod = TABLE_SIZE;
 		final float tHalfPeriod = tPeriod * 0.5f;
 		final float tQuarterPeriod = tHalfPeriod * 0.5f;
+		float[] tData = new float[TABLE_SIZE];
 		float tSample;
 		int tPos;
-		for(int i = 0; i < sSampleRate; i++)
+		for(int i = 0; i < TABLE_SIZE; i++)
 		{
 			tPos = i % Math.round(tHalfPeriod);
 			tSample = (float)Math.sqrt(tQuarterPeriod * tQuarterPeriod
@@ -166,7 +386,8 @@ public class WaveTabler extends WaveSource
 			tSample *= (1.0f / tQuarterPeriod); // scale
 			if(i > tHalfPeriod)
 				tSample = -tSample;
-			sHemicycleData[i] = tSample;
+			tData[i] = tSample;
 		}
+		return tData;
 	}
 }